@@ -69,3 +69,18 @@ _new_array_exit:
 	sra $t0, $t0, 2
 	sw $t0, 0($v0)
 	jr $ra
+
+# jumped to when a bounds checked array access (-safe) has a bad index
+_array_index_out_of_bounds:
+	la $a0, _array_index_out_of_bounds_message
+	li $v0, 4
+	syscall
+	# exit with status 1
+	li $a0, 1
+	li $v0, 17
+	syscall
+
+	.data
+_array_index_out_of_bounds_message:
+	.asciiz "error: array index out of bounds\n"
+	.text
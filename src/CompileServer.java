@@ -0,0 +1,145 @@
+import java.io.*;
+import java.util.*;
+
+import codegen.*;
+
+// Long-running compile server. Keeps the JVM, the parser tables and the
+// runtime library resident, and compiles one request per line read from
+// the input stream:
+//
+//     compile <input-file> <output-file> [flags]
+//     inline <output-file> [flags]       (source follows, ended by a line with just ".")
+//     quit
+//
+// where flags are the same as on the command line (-O1, -passes=a,b,..., -safe, -j N, -time, -stats,
+// -cache <dir>).
+// Each request gets a fresh MiniJavaCompiler, so no state is shared between
+// requests. Compiler progress goes to the log stream, and a single status line
+// with the request latency is written to the output stream:
+//
+//     ok <millis> ms
+//     failed <millis> ms
+//     error <message>
+public class CompileServer
+{
+    private BufferedReader _in;
+    private PrintStream _out;
+    private PrintStream _log;
+    private RuntimeLibrary _runtimeLibrary;
+
+    public CompileServer(InputStream in, PrintStream out, PrintStream log) throws IOException
+    {
+        _in = new BufferedReader(new InputStreamReader(in));
+        _out = out;
+        _log = log;
+        // open the runtime library once, instead of once per request
+        _runtimeLibrary = new RuntimeLibrary();
+    }
+
+    public void run() throws IOException
+    {
+        String line;
+        while ((line = _in.readLine()) != null)
+        {
+            String[] args = line.trim().split("\\s+");
+            if (args[0].isEmpty())
+                continue;
+
+            if (args[0].equals("quit"))
+                break;
+
+            handleRequest(args);
+            _out.flush();
+        }
+        _runtimeLibrary.close();
+    }
+
+    private void handleRequest(String[] args) throws IOException
+    {
+        long start = System.nanoTime();
+        // an inline request's source is read before anything can go wrong
+        // with the request, or its lines would be taken for requests
+        String inlineSource = null;
+        if (args[0].equals("inline"))
+            inlineSource = readInlineSource();
+
+        MiniJavaCompiler compiler = new MiniJavaCompiler(_log, _runtimeLibrary);
+        String[] operands;
+        try
+        {
+            operands = compiler.parseFlags(Arrays.copyOfRange(args, 1, args.length));
+        }
+        catch (IllegalArgumentException e)
+        {
+            _out.println("error " + e.getMessage());
+            return;
+        }
+
+        Reader source;
+        String outputFileName;
+        switch (args[0])
+        {
+            case "compile":
+                if (operands.length != 2)
+                {
+                    _out.println("error usage: compile <input-file> <output-file> [flags]");
+                    return;
+                }
+                try
+                {
+                    source = new FileReader(operands[0]);
+                }
+                catch (FileNotFoundException e)
+                {
+                    _out.println("error cannot open " + operands[0]);
+                    return;
+                }
+                outputFileName = operands[1];
+                break;
+            case "inline":
+                if (operands.length != 1)
+                {
+                    _out.println("error usage: inline <output-file> [flags]");
+                    return;
+                }
+                source = new StringReader(inlineSource);
+                outputFileName = operands[0];
+                break;
+            default:
+                _out.println("error unknown request " + args[0]);
+                return;
+        }
+
+        boolean succeeded;
+        try
+        {
+            succeeded = compiler.compile(source, outputFileName);
+        }
+        catch (Exception e)
+        {
+            // a bad request (e.g. a parse error) shouldn't take the server down
+            _log.println(e);
+            succeeded = false;
+        }
+        finally
+        {
+            source.close();
+        }
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        _out.println((succeeded ? "ok " : "failed ") + millis + " ms");
+    }
+
+    // reads source lines up to (but not including) a line containing just "."
+    private String readInlineSource() throws IOException
+    {
+        StringBuilder source = new StringBuilder();
+        String line;
+        while ((line = _in.readLine()) != null && !line.equals("."))
+        {
+            source.append(line);
+            source.append('\n');
+        }
+        return source.toString();
+    }
+}
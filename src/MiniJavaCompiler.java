@@ -14,26 +14,88 @@ import regalloc.*;
 
 public class MiniJavaCompiler
 {
-    private static boolean _optimize = false;
+    // per-compilation settings, so nothing leaks between requests
+    // when we're running inside the compile server.
+    private boolean _optimize = false;
+    private boolean _reportTimes = false;
+    private boolean _reportStatistics = false;
+    private boolean _checkBounds = false;
+    private List<String> _passes = PassManager.getDefaultPipeline();
+    private int _parallelism = 1;
+    private String _cacheDirectory = null;
+    private PrintStream _log;
+    private RuntimeLibrary _runtimeLibrary;
+
+    public MiniJavaCompiler(PrintStream log, RuntimeLibrary runtimeLibrary)
+    {
+        _log = log;
+        _runtimeLibrary = runtimeLibrary;
+    }
 
     public static void main(String[] args) throws Exception
     {
+        if (args.length == 1 && args[0].equals("-server"))
+        {
+            new CompileServer(System.in, System.out, System.err).run();
+            return;
+        }
+
         if (args.length < 2)
+            exitWithUsage();
+
+        RuntimeLibrary runtimeLibrary = new RuntimeLibrary();
+        try
+        {
+            MiniJavaCompiler compiler = new MiniJavaCompiler(System.out, runtimeLibrary);
+            args = compiler.parseFlags(args);
+            // the flags are gone, so only the two file names should be left
+            if (args.length != 2)
+                exitWithUsage();
+            compiler.compile(new FileReader(args[0]), args[1]);
+        }
+        catch (IllegalArgumentException e)
         {
-            System.err.println("usage: java NameAnalysisTest <input-file> <output-file>");
+            System.err.println(e.getMessage());
             System.exit(1);
         }
+        finally
+        {
+            runtimeLibrary.close();
+        }
+    }
+
+    private static void exitWithUsage()
+    {
+        System.err.println("usage: java MiniJavaCompiler <input-file> <output-file> [-O1] [-passes=a,b,...] [-safe] [-j N] [-time] [-stats] [-cache <dir>]");
+        System.err.println("       java MiniJavaCompiler -server");
+        System.exit(1);
+    }
+
+    // runs the whole pipeline on source, writing the assembly to outputFileName.
+    // returns true iff assembly was generated.
+    public boolean compile(Reader source, String outputFileName) throws Exception
+    {
+        _log.println("=========== COMPILING ===========");
+        for (String pass : _passes)
+        {
+            if (!PassManager.isPass(pass))
+            {
+                _log.println("Unknown optimization pass " + pass + ", expected one of " + PassManager.getPassNames());
+                return false;
+            }
+        }
 
-        args = parseFlags(args);
-        System.out.println("=========== COMPILING ===========");
-        System.out.println("Lexing and parsing source...");
+        _log.println("Lexing and parsing source...");
+        long phaseStart = System.nanoTime();
         // parse the program
-        Program program = parseProgram(args[0]);
+        Program program = parseProgram(source);
+        phaseStart = reportTime("parsing", phaseStart);
 
-        System.out.println("Error checking and generating symbol table...");
+        _log.println("Error checking and generating symbol table...");
         // build symbol table and check for semantic errors
         List<ErrorChecker> errorCheckers = new ArrayList<ErrorChecker>();
         ISymbolTable symbolTable = buildSymbolTableAndCheckErrors(program, errorCheckers);
+        phaseStart = reportTime("semantic analysis", phaseStart);
 
         // loop over error checkers, printing out each error
         boolean failed = false;
@@ -44,7 +106,7 @@ public class MiniJavaCompiler
                 failed = true;
                 for (String error : checker.getErrors())
                 {
-                    System.out.println(error);
+                    _log.println(error);
                 }
             }
 
@@ -52,46 +114,108 @@ public class MiniJavaCompiler
         // exit if errors are encountered.
         if (failed)
         {
-            System.out.println("Errors encountered, cannot generate IR.");
-            return;
+            _log.println("Errors encountered, cannot generate IR.");
+            return false;
         }
 
-        System.out.println("Genterating IR...");
+        _log.println("Genterating IR...");
         // generate IR (3-address code)
-        IRGenVisitor irGenerator = new IRGenVisitor((SymbolTable)symbolTable);
+        IRGenVisitor irGenerator = new IRGenVisitor((SymbolTable)symbolTable, _checkBounds);
         irGenerator.visit(program);
         //irGenerator.printIRList();
 
         // determine class variable offsets
         ObjectLayoutManager objLayoutMgr = new ObjectLayoutManager(symbolTable.getClasses());
+        phaseStart = reportTime("IR generation", phaseStart);
 
         // optimizations!
         List<IRQuadruple> irList = irGenerator.getIRList();
+        Map<MethodSymbol, ControlFlowGraph> cfgs;
         if (_optimize)
         {
-            System.out.println("Optimizing IR...");
-            irList = runOptimizations(irList, objLayoutMgr);
+            _log.println("Optimizing IR...");
+            IROptimizer optimizer = runOptimizations(irList, objLayoutMgr);
+            irList = optimizer.getOptimizedIR();
+            // the optimizer already has each method's CFG
+            cfgs = optimizer.getMethodToCFGMap();
+            phaseStart = reportTime("optimization", phaseStart);
             //System.out.println("----- OPTIMIZED IR -----");
             //for (IRQuadruple irq : irList)
             //{
             //    System.out.println(irq);
             //}
         }
+        else
+        {
+            cfgs = new ControlFlowGraphBuilder(irList).getMethodToCFGMap();
+        }
 
-        System.out.println("Calculating liveness...");
-        ControlFlowGraphBuilder cfgBuilder = new ControlFlowGraphBuilder(irList);
-
+        _log.println("Calculating liveness, allocating registers and generating code...");
+        CodeGenerator codeGenerator = new CodeGenerator(irList, cfgs, objLayoutMgr, _parallelism);
+        MethodCodeCache cache = null;
+        if (_cacheDirectory != null)
+        {
+            cache = new MethodCodeCache(_cacheDirectory, "");
+            codeGenerator.setCache(cache);
+        }
+        // the peephole pass is part of optimizing
+        PeepholeOptimizer peephole = null;
+        if (_optimize)
+        {
+            peephole = new PeepholeOptimizer();
+            codeGenerator.setPeephole(peephole);
+        }
+        // methods are streamed to the output file as they're generated, so
+        // if anything goes wrong the partial file has to be removed.
+        AssemblyWriter output = new AssemblyWriter(outputFileName);
+        boolean generated = false;
+        try
+        {
+            codeGenerator.generateCode(output);
+            phaseStart = reportTime("register allocation and code generation (-j " + _parallelism + ")", phaseStart);
+            output.appendRuntimeLibrary(_runtimeLibrary);
+            output.close();
+            generated = true;
+        }
+        catch (RegisterSpillException e)
+        {
+            _log.println(e.getMessage());
+            return false;
+        }
+        catch (CodeGenerationException e)
+        {
+            _log.println(e.getMessage());
+            return false;
+        }
+        finally
+        {
+            if (!generated)
+                output.abort();
+        }
+        if (peephole != null && _reportStatistics)
+        {
+            for (String statistic : peephole.getStatistics())
+                _log.println("    " + statistic);
+        }
+        if (cache != null)
+            _log.println("Method cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+        _log.println("----- OUTPUTTING ASSEMBLY TO: " + outputFileName + " -----\n");
+        reportTime("output", phaseStart);
+        return true;
+    }
 
-        System.out.println("Allocating registers and generating code...");
-        CodeGenerator codeGenerator = new CodeGenerator(irList, cfgBuilder.getMethodToCFGMap(), objLayoutMgr);
-        codeGenerator.generateCode();
-        //codeGenerator.printCode();
-        String outputFileName = args[1];
-        System.out.println("----- OUTPUTTING ASSEMBLY TO: " + outputFileName + " -----\n");
-        codeGenerator.outputMIPSFile(outputFileName);
+    // prints how long a phase took (if requested), and returns the start time of the next phase.
+    private long reportTime(String phase, long phaseStart)
+    {
+        long now = System.nanoTime();
+        if (_reportTimes)
+            _log.println("    " + phase + ": " + ((now - phaseStart) / 1000000) + " ms");
+        return now;
     }
 
-    private static String[] parseFlags(String[] args)
+    // strips recognized flags out of args, returning the remaining arguments.
+    // throws IllegalArgumentException if a flag's value is missing or malformed.
+    public String[] parseFlags(String[] args)
     {
         List<String> argsList = new ArrayList<String>(Arrays.asList(args));
 
@@ -100,23 +224,90 @@ public class MiniJavaCompiler
             _optimize = true;
             argsList.remove("-O1");
         }
+
+        if (argsList.contains("-time"))
+        {
+            _reportTimes = true;
+            argsList.remove("-time");
+        }
+
+        if (argsList.contains("-stats"))
+        {
+            _reportStatistics = true;
+            argsList.remove("-stats");
+        }
+
+        // -safe checks every array index against the array's length
+        if (argsList.contains("-safe"))
+        {
+            _checkBounds = true;
+            argsList.remove("-safe");
+        }
+
+        // -passes=a,b,c optimizes with just those passes, in that order
+        for (int i = 0; i < argsList.size(); i++)
+        {
+            if (argsList.get(i).startsWith("-passes="))
+            {
+                _optimize = true;
+                _passes = Arrays.asList(argsList.remove(i).substring("-passes=".length()).split(","));
+                break;
+            }
+        }
+
+        int cacheIndex = argsList.indexOf("-cache");
+        if (cacheIndex >= 0)
+        {
+            if (cacheIndex + 1 == argsList.size())
+                throw new IllegalArgumentException("-cache expects a directory");
+            _cacheDirectory = argsList.get(cacheIndex + 1);
+            argsList.remove(cacheIndex + 1);
+            argsList.remove(cacheIndex);
+        }
+
+        int jobsIndex = argsList.indexOf("-j");
+        if (jobsIndex >= 0)
+        {
+            if (jobsIndex + 1 == argsList.size())
+                throw new IllegalArgumentException("-j expects a number of threads");
+            try
+            {
+                _parallelism = Math.max(1, Integer.parseInt(argsList.get(jobsIndex + 1)));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("-j expects a number of threads, not " + argsList.get(jobsIndex + 1));
+            }
+            argsList.remove(jobsIndex + 1);
+            argsList.remove(jobsIndex);
+        }
         return argsList.toArray(new String[0]);
     }
 
-    private static List<IRQuadruple> runOptimizations(List<IRQuadruple> irList, ObjectLayoutManager objLayoutMgr)
+    private IROptimizer runOptimizations(List<IRQuadruple> irList, ObjectLayoutManager objLayoutMgr)
     {
-        IROptimizer optimizer = new IROptimizer(irList, objLayoutMgr);
+        IROptimizer optimizer = new IROptimizer(irList, objLayoutMgr, _passes);
         optimizer.optimize();
-        return optimizer.getOptimizedIR();
+        if (_reportStatistics)
+        {
+            for (String statistic : optimizer.getStatistics())
+                _log.println("    " + statistic);
+        }
+        if (_reportTimes)
+        {
+            for (String timing : optimizer.getTimings())
+                _log.println("    " + timing);
+        }
+        return optimizer;
     }
 
-    private static Program parseProgram(String sourceFileName) throws Exception
+    private Program parseProgram(Reader source) throws Exception
     {
-        MiniJavaParser parser = new MiniJavaParser(new MiniJavaLexer(new FileReader(sourceFileName)));
+        MiniJavaParser parser = new MiniJavaParser(new MiniJavaLexer(source));
         return (Program)parser.parse().value;
     }
 
-    private static ISymbolTable buildSymbolTableAndCheckErrors(Program program, List<ErrorChecker> errorCheckers)
+    private ISymbolTable buildSymbolTableAndCheckErrors(Program program, List<ErrorChecker> errorCheckers)
     {
         // build symbol table
         BuildSymbolTableVisitor symbolTableBuilder = new BuildSymbolTableVisitor();
@@ -124,6 +315,20 @@ public class MiniJavaCompiler
 
         ISymbolTable symbolTable = symbolTableBuilder.getSymbolTable();
 
+        // aggregate our error checkers
+        errorCheckers.add(symbolTableBuilder);
+
+        if (_parallelism > 1)
+        {
+            // check each class concurrently
+            ParallelSemanticAnalysis analysis = new ParallelSemanticAnalysis((SymbolTable)symbolTable, _parallelism);
+            analysis.visit(program);
+
+            errorCheckers.add(analysis.getNameAnalysis());
+            errorCheckers.add(analysis.getTypeChecker());
+            return symbolTable;
+        }
+
         // do name analysis (undefined references)
         NameAnalysisVisitor nameAnalysis = new NameAnalysisVisitor(symbolTable);
         nameAnalysis.visit(program);
@@ -132,8 +337,6 @@ public class MiniJavaCompiler
         TypeCheckVisitor typeChecker = new TypeCheckVisitor(symbolTable);
         typeChecker.visit(program);
 
-        // aggregate our error checkers
-        errorCheckers.add(symbolTableBuilder);
         errorCheckers.add(nameAnalysis);
         errorCheckers.add(typeChecker);
 
@@ -0,0 +1,96 @@
+package codegen;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Streams the generated assembly to the output file. Text is encoded into a
+// single reusable buffer, which is written through the file's channel whenever
+// it fills up and after every method, so the output is never held in memory
+// as a whole. The runtime library is appended with a channel transfer, so its
+// bytes never pass through the heap.
+public class AssemblyWriter implements Closeable
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Path _path;
+    private FileChannel _channel;
+    private ByteBuffer _buffer;
+    private CharsetEncoder _encoder;
+
+    public AssemblyWriter(String outputFileName) throws IOException
+    {
+        _path = Paths.get(outputFileName);
+        _channel = FileChannel.open(_path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                    StandardOpenOption.TRUNCATE_EXISTING);
+        _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        _encoder = StandardCharsets.UTF_8.newEncoder();
+    }
+
+    // writes a method's assembly and flushes it to the file
+    public void writeMethod(CharSequence code) throws IOException
+    {
+        write(code);
+        flush();
+    }
+
+    public void write(CharSequence text) throws IOException
+    {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true)
+        {
+            CoderResult result = _encoder.encode(chars, _buffer, true);
+            if (!result.isOverflow())
+            {
+                if (result.isError())
+                    result.throwException();
+                break;
+            }
+            // out of room, so empty the buffer and carry on encoding
+            flush();
+        }
+        _encoder.reset();
+    }
+
+    public void flush() throws IOException
+    {
+        _buffer.flip();
+        while (_buffer.hasRemaining())
+            _channel.write(_buffer);
+        _buffer.clear();
+    }
+
+    // link provided library
+    public void appendRuntimeLibrary(RuntimeLibrary library) throws IOException
+    {
+        write("\n"); // a little space for readability
+        flush();
+        library.transferTo(_channel);
+    }
+
+    public void close() throws IOException
+    {
+        flush();
+        _channel.close();
+    }
+
+    // gives up on the output, removing the partially written file so it can't
+    // be mistaken for a complete program.
+    public void abort()
+    {
+        try
+        {
+            _channel.close();
+            Files.deleteIfExists(_path);
+        }
+        catch (IOException e)
+        {
+            // nothing more we can do; the compile has already failed
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package codegen;
+
+// Thrown when the IR uses something the code generator can't handle
+// (e.g. more parameters than argument registers).
+public class CodeGenerationException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public CodeGenerationException(String message)
+    {
+        super(message);
+    }
+}
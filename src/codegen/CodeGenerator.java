@@ -3,8 +3,12 @@ package codegen;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Queue;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import irgeneration.*;
 import objectimpl.*;
@@ -13,7 +17,6 @@ import regalloc.*;
 import controlflow.*;
 
 import java.io.*;
-import java.util.Scanner;
 
 
 public class CodeGenerator implements IRVisitor {
@@ -24,7 +27,9 @@ public class CodeGenerator implements IRVisitor {
   private int _nextIntermediateValue;
   private int _nextTempReg;
   private int _currentParam;
-  private List<String> _mips;
+  // this method's assembly. each visit appends its instructions directly,
+  // ending every statement with a newline.
+  private StringBuilder _code;
   private List<IRQuadruple> _irList;
   private int _minRegister;
   private ControlFlowGraph _currentMethodCfg;
@@ -34,8 +39,22 @@ public class CodeGenerator implements IRVisitor {
   private int _numRegs;
   private ObjectLayoutManager _objLayoutMgr;
   private MethodSymbol _currentMethod = null;
+  private int _parallelism;
+  private MethodCodeCache _cache = null;
+  private PeepholeOptimizer _peephole = null;
+  // where each stack allocation lives, relative to $sp after the prologue
+  private Map<IRQuadruple, Integer> _frameOffsets = new HashMap<IRQuadruple, Integer>();
+  // bytes of stack allocations below the saved registers
+  private int _frameSize = 0;
 
   public CodeGenerator(List<IRQuadruple> irList, Map<MethodSymbol, ControlFlowGraph> cfgs, ObjectLayoutManager objLayoutMgr)
+  {
+    this(irList, cfgs, objLayoutMgr, 1);
+  }
+
+  // parallelism is the number of methods to allocate registers and
+  // generate code for at once.
+  public CodeGenerator(List<IRQuadruple> irList, Map<MethodSymbol, ControlFlowGraph> cfgs, ObjectLayoutManager objLayoutMgr, int parallelism)
   {
     _objLayoutMgr = objLayoutMgr;
     //_jumpMap = new Stack<HashMap<String, String>>();
@@ -43,22 +62,163 @@ public class CodeGenerator implements IRVisitor {
     // $8 == $t0
     _nextTempReg = 8;
     _currentParam = 0;
-    _mips = new ArrayList<String>();
+    _code = new StringBuilder();
     _irList = irList;
     _cfgMap = cfgs;
     _minRegister = 8;  // right now hard coding lowest register
     _numRegs = 22;
+    _parallelism = parallelism;
   }
 
-  // walk IR list, generate basic MIPS for each statement
+  // reuse the assembly for methods whose IR hasn't changed since a previous compile
+  public void setCache(MethodCodeCache cache)
+  {
+    _cache = cache;
+  }
 
-  public void generateCode()
+  // clean up each method's assembly with peephole before it's written
+  public void setPeephole(PeepholeOptimizer peephole)
   {
+    _peephole = peephole;
+  }
+
+  // split the IR list into methods, generate MIPS for each method (in parallel
+  // if requested), and stream the methods to out in source order. each method is
+  // written as soon as it's done, so only the methods in flight are kept around.
+  public void generateCode(AssemblyWriter out) throws IOException
+  {
+    Queue<CodeGenerator> methods = splitIntoMethods();
+
+    if(_parallelism > 1)
+    {
+      generateInParallel(methods, out);
+    } else {
+      CodeGenerator method;
+      while((method = methods.poll()) != null)
+      {
+        method.generateMethodCode();
+        out.writeMethod(method._code);
+      }
+    }
+  }
+
+  // walk a single method's IR, generate basic MIPS for each statement
+  private void generateMethodCode()
+  {
+    String key = null;
+    if(_cache != null)
+    {
+      MethodSymbol method = ((IRLabel)_irList.get(0)).getMethod();
+      key = _cache.computeKey(method, _irList, _objLayoutMgr);
+      String cached = _cache.lookup(key);
+      if(cached != null)
+      {
+        _code.append(cached);
+        runPeephole();
+        return;
+      }
+    }
+
     for(int i = 0; i < _irList.size(); i++)
     {
+      if(isTailCall(i))
+      {
+        // the return after it is never reached
+        generateTailCall((IRCall)_irList.get(i));
+        i++;
+        continue;
+      }
       _irList.get(i).accept(this);
     }
-    // link provided library
+
+    if(_cache != null)
+    {
+      try
+      {
+        _cache.store(key, _code.toString(), _irList);
+      } catch(IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    runPeephole();
+  }
+
+  // the cache keeps the code from before the peephole pass, so the pass
+  // (and its counts) cover cached methods too
+  private void runPeephole()
+  {
+    if(_peephole != null)
+      _code = _peephole.optimize(_code);
+  }
+
+  // create a generator for each method's slice of the IR list. each one has its own
+  // liveness, interference graph and register allocation, so they're independent.
+  private Queue<CodeGenerator> splitIntoMethods()
+  {
+    Queue<CodeGenerator> methods = new ArrayDeque<CodeGenerator>();
+    int start = 0;
+    for(int i = 1; i <= _irList.size(); i++)
+    {
+      if(i == _irList.size() || isMethodLabel(_irList.get(i)))
+      {
+        CodeGenerator method = new CodeGenerator(_irList.subList(start, i), _cfgMap, _objLayoutMgr);
+        method.setCache(_cache);
+        method.setPeephole(_peephole);
+        methods.add(method);
+        start = i;
+      }
+    }
+    return methods;
+  }
+
+  private boolean isMethodLabel(IRQuadruple irq)
+  {
+    return (irq instanceof IRLabel) && ((IRLabel)irq).isMethod();
+  }
+
+  private void generateInParallel(Queue<CodeGenerator> methods, AssemblyWriter out) throws IOException
+  {
+    ForkJoinPool pool = new ForkJoinPool(_parallelism);
+    try
+    {
+      // keep a bounded window of methods in flight, and join them in source
+      // order: the output stays in order, finished methods don't pile up
+      // waiting for a slow one, and if several methods fail we report the
+      // same one the sequential generator would have.
+      Queue<MethodTask> inFlight = new ArrayDeque<MethodTask>();
+      while(!methods.isEmpty() || !inFlight.isEmpty())
+      {
+        while(inFlight.size() < 2 * _parallelism && !methods.isEmpty())
+        {
+          MethodTask task = new MethodTask(methods.poll());
+          pool.execute(task);
+          inFlight.add(task);
+        }
+
+        MethodTask task = inFlight.poll();
+        task.join();
+        out.writeMethod(task._method._code);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static class MethodTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private CodeGenerator _method;
+
+    public MethodTask(CodeGenerator method)
+    {
+      _method = method;
+    }
+
+    protected void compute()
+    {
+      _method.generateMethodCode();
+    }
   }
 
   private String getTempRegister(String varName)
@@ -66,10 +226,7 @@ public class CodeGenerator implements IRVisitor {
     // the $t* and $s* registers are in [8, 25]
     // TODO: utilize other registers as per Milestone 4
     if (_nextTempReg > 25)
-    {
-      System.err.println("Too many temporaries, exiting.");
-      System.exit(1);
-    }
+      throw new CodeGenerationException("Too many temporaries, exiting.");
 
     String regName = "$"+_nextTempReg++;
     _registerMap.put(varName, regName);
@@ -90,33 +247,28 @@ public class CodeGenerator implements IRVisitor {
   private String getParamRegister()
   {
     if (_currentParam == 4)
-    {
-      System.err.println("Too many parameters, exiting.");
-      System.exit(1);
-    }
+      throw new CodeGenerationException("Too many parameters, exiting.");
     return "$a" + _currentParam++;
   }
 
-  private String generateMove(String dest, String source)
+  private void appendMove(StringBuilder inst, String dest, String source)
   {
     if (dest.equals(source))
-      return "";
+      return;
 
-    return generateInstruction("add", dest, source, "$zero");
+    appendInstruction(inst, "add", dest, source, "$zero");
   }
 
-  private String generateInstruction(String op, String dest, String arg1, String arg2)
+  private void appendInstruction(StringBuilder inst, String op, String dest, String arg1, String arg2)
   {
-    StringBuilder result = new StringBuilder();
-    result.append(op);
-    result.append(' ');
-    result.append(dest);
-    result.append(", ");
-    result.append(arg1);
-    result.append(", ");
-    result.append(arg2);
-    result.append('\n');
-    return result.toString();
+    inst.append(op);
+    inst.append(' ');
+    inst.append(dest);
+    inst.append(", ");
+    inst.append(arg1);
+    inst.append(", ");
+    inst.append(arg2);
+    inst.append('\n');
   }
 
    // save all current registers to the stack
@@ -124,7 +276,7 @@ public class CodeGenerator implements IRVisitor {
   {
     // 32 * 4 = 128
 
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
 
 
     inst.append("addi $sp, $sp, -128\n");
@@ -136,13 +288,15 @@ public class CodeGenerator implements IRVisitor {
       inst.append((4*(i-8)));
       inst.append("($sp)\n");
     }
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   // load from the stack into registers
   private void loadAllRegisters()
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
+    if(_frameSize > 0)
+      appendInstruction(inst, "addi", "$sp", "$sp", "" + _frameSize);
     for(int i = 31; i >= 8; i--)
     {
       inst.append("lw $");
@@ -152,7 +306,7 @@ public class CodeGenerator implements IRVisitor {
       inst.append("($sp)\n");
     }
     inst.append("addi $sp, $sp, 128");
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   private void clearRegisterMap()
@@ -230,25 +384,27 @@ public class CodeGenerator implements IRVisitor {
   public void visit(IRArrayAssign n)
   {
     // TODO: handle constants
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
 
     String arrayReg = getRegisterForValue(inst, n.getArg1());
 
     // index might be literal, so get a (possibly temp) register
     String indexReg = getRegisterForValue(inst, n.getArg2());
+    if(n.isChecked())
+      appendBoundsCheck(inst, arrayReg, indexReg);
 
     // hack: we actually need two additional registers for an array assignment;
     // one to hold the calculated address, and one to hold the variable to assign
     String tempReg = "$t9";
 
     // move index into temporary register
-    inst.append(generateMove(tempReg, indexReg));
+    appendMove(inst, tempReg, indexReg);
     // add 1 to the index (move beyond length of array);
-    inst.append(generateInstruction("add", tempReg, tempReg, "1"));
+    appendInstruction(inst, "add", tempReg, tempReg, "1");
     // left shift the index by 2
-    inst.append(generateInstruction("sll", tempReg, tempReg, "2"));
+    appendInstruction(inst, "sll", tempReg, tempReg, "2");
     // add index to array address
-    inst.append(generateInstruction("add", tempReg, arrayReg, tempReg));
+    appendInstruction(inst, "add", tempReg, arrayReg, tempReg);
 
     // get our result
     String resultReg = getRegisterForValue(inst, n.getResult());
@@ -260,12 +416,24 @@ public class CodeGenerator implements IRVisitor {
     inst.append(tempReg);
     inst.append(")\n");
 
-    _mips.add(inst.toString());
+    inst.append('\n');
+  }
+
+  // trap unless 0 <= index < length. compared unsigned, a negative index is
+  // too big, so one compare does both. $fp is never allocated, and the
+  // prologue saves it.
+  private void appendBoundsCheck(StringBuilder inst, String arrayReg, String indexReg)
+  {
+    inst.append("lw $fp, 0(");
+    inst.append(arrayReg);
+    inst.append(")\n");
+    appendInstruction(inst, "sltu", "$fp", indexReg, "$fp");
+    appendInstruction(inst, "beq", "$fp", "$zero", "_array_index_out_of_bounds");
   }
 
   public void visit(IRArrayLength n)
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
 
     String resultReg = getAllocatedRegister(n.getResult());
     String arrayReg = getRegisterForValue(inst, n.getArg1());
@@ -280,28 +448,30 @@ public class CodeGenerator implements IRVisitor {
     inst.append(")\n");
 
     instanceVariableAssignment(inst, n.getResult());
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   public void visit(IRArrayLookup n)
   {
     //TODO: handle constants
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
     String resultReg = getAllocatedRegister(n.getResult());
     String arrayReg = getRegisterForValue(inst, n.getArg1());
 
     String indexReg = getRegisterForValue(inst, n.getArg2());
+    if(n.isChecked())
+      appendBoundsCheck(inst, arrayReg, indexReg);
 
     String tempReg = "$v1";
 
     // move index into temporary register
-    inst.append(generateMove(tempReg, indexReg));
+    appendMove(inst, tempReg, indexReg);
     // add 1 to the index (move beyond length of array);
-    inst.append(generateInstruction("add", tempReg, tempReg, "1"));
+    appendInstruction(inst, "add", tempReg, tempReg, "1");
     // left shift the index by 2
-    inst.append(generateInstruction("sll", tempReg, tempReg, "2"));
+    appendInstruction(inst, "sll", tempReg, tempReg, "2");
     // add index to array address
-    inst.append(generateInstruction("add", tempReg, arrayReg, tempReg));
+    appendInstruction(inst, "add", tempReg, arrayReg, tempReg);
 
     // load the value from the array into the result
     inst.append("lw ");
@@ -310,14 +480,28 @@ public class CodeGenerator implements IRVisitor {
     inst.append(tempReg);
     inst.append(")\n");
 
-    _mips.add(inst.toString());
+    // copy propagation can make a field the result
+    instanceVariableAssignment(inst, n.getResult());
+    inst.append('\n');
   }
 
   public void visit(IRAssignment n)
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
 
-    String arg1RegName = getRegisterForValue(inst, n.getArg1());
+    String arg1RegName;
+    // constant folding leaves two constants alone when their sum or
+    // difference would overflow, and they can't both go in $v1. $fp is
+    // never allocated, and the prologue saves it.
+    if(n.getArg1() instanceof ConstantSymbol && n.getArg2() instanceof ConstantSymbol)
+    {
+      inst.append("li $fp, ");
+      inst.append(getValueFromConstant((ConstantSymbol)n.getArg1()));
+      inst.append('\n');
+      arg1RegName = "$fp";
+    } else {
+      arg1RegName = getRegisterForValue(inst, n.getArg1());
+    }
     String arg2RegName = getRegisterForValue(inst, n.getArg2());
     String resultVarName = n.getResult().getName();
 
@@ -347,12 +531,12 @@ public class CodeGenerator implements IRVisitor {
       inst.append(arg2RegName);
     }
     instanceVariableAssignment(inst, n.getResult());
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   public void visit(IRCall n)
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
 
     // TODO: calling convention
     // load args into $a0-3
@@ -365,7 +549,7 @@ public class CodeGenerator implements IRVisitor {
 
     inst.append(meth.getLabel());
 
-    _mips.add(inst.toString());
+    inst.append('\n');
 
     _currentParam = 0;  // now that we're past the jump instruction, parameter count is reset
 
@@ -373,29 +557,54 @@ public class CodeGenerator implements IRVisitor {
     if(n.getResult() != null)
     {
       String v0Reg = getAllocatedRegister(n.getResult());
-      inst = new StringBuilder("add ");
+      inst.append("add ");
       inst.append(v0Reg);
       inst.append(", $v0, $zero");
       instanceVariableAssignment(inst, n.getResult());
-      _mips.add(inst.toString());
+      inst.append('\n');
     }
   }
 
+  // a call marked as a tail call, right before the return of its result
+  private boolean isTailCall(int i)
+  {
+    if(!(_irList.get(i) instanceof IRCall) || !((IRCall)_irList.get(i)).isTail() || i + 1 == _irList.size())
+      return false;
+    // our stack objects would be gone before the callee is done with them
+    if(_frameSize > 0)
+      return false;
+    IRQuadruple next = _irList.get(i + 1);
+    return (next instanceof IRReturn) && next.getArg1() == _irList.get(i).getResult();
+  }
+
+  // the params are already in the argument registers, so restore our
+  // caller's registers and jump to the method instead of calling it: it
+  // saves them again in the same place, and returns straight to our caller.
+  private void generateTailCall(IRCall n)
+  {
+    loadAllRegisters();
+    _code.append("j ");
+    _code.append(((MethodSymbol)n.getArg1()).getLabel());
+    _code.append('\n');
+    _currentParam = 0;
+    _code.append('\n');
+  }
+
   public void visit(IRCondJump n)
   {
       // beq $reg 0 LABEL
-      StringBuilder inst = new StringBuilder();
+      StringBuilder inst = _code;
       String condReg = getRegisterForValue(inst, n.getArg1());
       inst.append("beq ");
       inst.append(condReg);
       inst.append(", $zero, ");
       inst.append(n.getLabel());
-      _mips.add(inst.toString());
+      inst.append('\n');
   }
 
   public void visit(IRCopy n)
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
     if(n.getArg1() instanceof ConstantSymbol)
     {
       inst.append("li ");
@@ -412,7 +621,42 @@ public class CodeGenerator implements IRVisitor {
     }
 
     instanceVariableAssignment(inst, n.getResult());
-    _mips.add(inst.toString());
+    inst.append('\n');
+  }
+
+  public void visit(IRElementAddress n)
+  {
+    StringBuilder inst = _code;
+    String resultReg = getAllocatedRegister(n.getResult());
+    String arrayReg = getRegisterForValue(inst, n.getArg1());
+
+    // a small literal index folds into the offset, skipping the length too
+    if (n.getArg2() instanceof ConstantSymbol)
+    {
+      long offset = 4L * Long.parseLong(((ConstantSymbol)n.getArg2()).getValue()) + 4;
+      if (offset >= Short.MIN_VALUE && offset <= Short.MAX_VALUE)
+      {
+        appendInstruction(inst, "addiu", resultReg, arrayReg, "" + offset);
+        instanceVariableAssignment(inst, n.getResult());
+        inst.append('\n');
+        return;
+      }
+    }
+
+    // index might be literal, so get a (possibly temp) register
+    String indexReg = getRegisterForValue(inst, n.getArg2());
+
+    String tempReg = "$v1";
+
+    // the same address a lookup computes, but without trapping on
+    // overflow, since the element might never be read
+    appendInstruction(inst, "sll", tempReg, indexReg, "2");
+    appendInstruction(inst, "addu", resultReg, arrayReg, tempReg);
+    // skip the length
+    appendInstruction(inst, "addiu", resultReg, resultReg, "4");
+
+    instanceVariableAssignment(inst, n.getResult());
+    inst.append('\n');
   }
 
   private void allocateForCurrentMethod(MethodSymbol method)
@@ -429,7 +673,8 @@ public class CodeGenerator implements IRVisitor {
 
   public void visit(IRLabel n)
   {
-    _mips.add(n.toString());
+    _code.append(n);
+    _code.append('\n');
 
     if(n.isMethod())
     {
@@ -437,7 +682,7 @@ public class CodeGenerator implements IRVisitor {
       // could do liveness analysis and register allocation here
 
       allocateForCurrentMethod(method);
-      StringBuilder inst;
+      StringBuilder inst = _code;
       if(method.getName() != "main")
       {
         saveAllRegisters();
@@ -447,10 +692,10 @@ public class CodeGenerator implements IRVisitor {
         VariableSymbol thisVar = method.getVariable("this");
         String thisReg = getAllocatedRegister(thisVar);
         if(thisReg != null) {
-          inst = new StringBuilder("add ");
+          inst.append("add ");
           inst.append(thisReg);
           inst.append(", $a0, $zero");
-          _mips.add(inst.toString());
+          inst.append('\n');
         }
       }
 
@@ -459,27 +704,65 @@ public class CodeGenerator implements IRVisitor {
 
       for(int i = 0; i < formals.size(); i++)
       {
-        inst = new StringBuilder("add ");
+        inst.append("add ");
         inst.append(getAllocatedRegister(method.getVariable(formals.get(i))));
         inst.append(", $a");
         inst.append((i+1));
         inst.append(", $zero");
-        _mips.add(inst.toString());
+        inst.append('\n');
       }
+      allocateFrame();
       _currentMethod = method;
     }
   }
 
+  // make room below the saved registers for this method's stack allocations
+  private void allocateFrame()
+  {
+    for(IRQuadruple irq : _irList)
+    {
+      if(irq instanceof IRNewObject && ((IRNewObject)irq).isStack())
+      {
+        _frameOffsets.put(irq, _frameSize);
+        _frameSize += _objLayoutMgr.getSizeInBytes(irq.getArg1());
+      }
+      else if(irq instanceof IRNewArray && ((IRNewArray)irq).isStack())
+      {
+        // the length, then the elements
+        _frameOffsets.put(irq, _frameSize);
+        _frameSize += 4 * (Integer.parseInt(((ConstantSymbol)irq.getArg2()).getValue()) + 1);
+      }
+    }
+    if(_frameSize > 0)
+      appendInstruction(_code, "addi", "$sp", "$sp", "" + (-_frameSize));
+  }
+
   public void visit(IRNewArray n)
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
     // get register for the result of the new
     String resultReg = getAllocatedRegister(n.getResult());
+    if(n.isStack())
+    {
+      int length = Integer.parseInt(((ConstantSymbol)n.getArg2()).getValue());
+      int offset = _frameOffsets.get(n);
+      inst.append("li $v1, ");
+      inst.append(length);
+      inst.append('\n');
+      inst.append("sw $v1, ");
+      inst.append(offset);
+      inst.append("($sp)\n");
+      appendFrameZeroes(inst, offset + 4, 4 * length);
+      appendInstruction(inst, "addiu", resultReg, "$sp", "" + offset);
+      instanceVariableAssignment(inst, n.getResult());
+      inst.append('\n');
+      return;
+    }
     // get register that holds the size value
     String sizeReg = getRegisterForValue(inst, n.getArg2());
 
     // left shift size by 2 (multiplies by 4) and store in the argument register
-    inst.append(generateInstruction("sll", getParamRegister(), sizeReg, "2"));
+    appendInstruction(inst, "sll", getParamRegister(), sizeReg, "2");
 
     // HACK: _new_array routine clobbers $t0 and $t1 and we don't have
     // saving working properly, so just save/load them for now.
@@ -488,22 +771,31 @@ public class CodeGenerator implements IRVisitor {
     inst.append("jal _new_array\n");
     inst.append("lw $t0, 4($sp)\nlw $t1, 0($sp)\naddi $sp, $sp, 8\n");
     // move the address to the result register
-    inst.append(generateMove(resultReg, "$v0"));
+    appendMove(inst, resultReg, "$v0");
 
     // reset number of parameters being used.
     _currentParam = 0;
     instanceVariableAssignment(inst, n.getResult());
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   public void visit(IRNewObject n)
   {
     // reserve space for when new object is implemented
     String resultReg = getAllocatedRegister(n.getResult());
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
+
+    if(n.isStack())
+    {
+      appendFrameZeroes(inst, _frameOffsets.get(n), _objLayoutMgr.getSizeInBytes(n.getArg1()));
+      appendInstruction(inst, "addiu", resultReg, "$sp", "" + _frameOffsets.get(n));
+      instanceVariableAssignment(inst, n.getResult());
+      inst.append('\n');
+      return;
+    }
 
     String byteSize = "" + _objLayoutMgr.getSizeInBytes(n.getArg1());
-    inst.append(generateInstruction("addi", getParamRegister(), "$0", byteSize));
+    appendInstruction(inst, "addi", getParamRegister(), "$0", byteSize);
 
     // HACK: _new_object routine clobbers $t0 and $t1 and we don't have
     // saving working properly, so just save/load them for now.
@@ -511,19 +803,30 @@ public class CodeGenerator implements IRVisitor {
     inst.append("jal _new_object\n");
     inst.append("lw $t0, 4($sp)\nlw $t1, 0($sp)\naddi $sp, $sp, 8\n");
     // move the address to the ersult register
-    inst.append(generateMove(resultReg, "$v0"));
+    appendMove(inst, resultReg, "$v0");
 
     // reset number of parameters being used.
     _currentParam = 0;
 
     instanceVariableAssignment(inst, n.getResult());
-    _mips.add(inst.toString());
+    inst.append('\n');
 
   }
 
+  // zero bytes of the frame from offset up, like _new_object does
+  private void appendFrameZeroes(StringBuilder inst, int offset, int bytes)
+  {
+    for(int word = 0; word < bytes; word += 4)
+    {
+      inst.append("sw $zero, ");
+      inst.append(offset + word);
+      inst.append("($sp)\n");
+    }
+  }
+
   public void visit(IRParam n)
   {
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
     if (n.getArg1() instanceof ConstantSymbol)
     {
       inst.append("li ");
@@ -540,22 +843,58 @@ public class CodeGenerator implements IRVisitor {
       inst.append(arg1RegName);
       inst.append(", $zero");
     }
-    _mips.add(inst.toString());
+    inst.append('\n');
+  }
+
+  public void visit(IRPointerLoad n)
+  {
+    StringBuilder inst = _code;
+    String resultReg = getAllocatedRegister(n.getResult());
+    String pointerReg = getRegisterForValue(inst, n.getArg1());
+
+    inst.append("lw ");
+    inst.append(resultReg);
+    inst.append(", ");
+    inst.append(n.getOffset());
+    inst.append("(");
+    inst.append(pointerReg);
+    inst.append(")\n");
+
+    instanceVariableAssignment(inst, n.getResult());
+    inst.append('\n');
+  }
+
+  public void visit(IRPointerStore n)
+  {
+    StringBuilder inst = _code;
+    String pointerReg = getRegisterForValue(inst, n.getArg1());
+    // the value might be literal, so get a (possibly temp) register
+    String valueReg = getRegisterForValue(inst, n.getArg2());
+
+    inst.append("sw ");
+    inst.append(valueReg);
+    inst.append(", ");
+    inst.append(n.getOffset());
+    inst.append("(");
+    inst.append(pointerReg);
+    inst.append(")\n");
+
+    inst.append('\n');
   }
 
   public void visit(IRReturn n)
   {
     String retName = n.getArg1().getName();
     // store result in $v0
-    StringBuilder retInst = new StringBuilder();
+    StringBuilder retInst = _code;
     String retReg = getRegisterForValue(retInst, n.getArg1());
     retInst.append("add $v0, ");
     retInst.append(retReg);
     retInst.append(", $zero");
-    _mips.add(retInst.toString());
+    retInst.append('\n');
 
     loadAllRegisters();
-    _mips.add("jr $ra");
+    _code.append("jr $ra\n");
 
     // TODO: calling convention
 
@@ -564,7 +903,7 @@ public class CodeGenerator implements IRVisitor {
   public void visit(IRUnaryAssignment n)
   {
     String resultReg = getAllocatedRegister(n.getResult());
-    StringBuilder inst = new StringBuilder();
+    StringBuilder inst = _code;
     String arg1RegName = getRegisterForValue(inst, n.getArg1());
     inst.append("nor ");
     inst.append(resultReg);
@@ -577,23 +916,21 @@ public class CodeGenerator implements IRVisitor {
     inst.append(resultReg);
     inst.append(", 1");
     instanceVariableAssignment(inst, n.getResult());
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   public void visit(IRUncondJump n)
   {
     // j LABEL
-    StringBuilder inst = new StringBuilder("j ");
+    StringBuilder inst = _code;
+    inst.append("j ");
     inst.append(n.getLabel());
-    _mips.add(inst.toString());
+    inst.append('\n');
   }
 
   public void printCode()
   {
-    for(String inst : _mips)
-    {
-      System.out.println(inst);
-    }
+    System.out.print(_code);
   }
 
   public void printRegisterMap()
@@ -605,25 +942,4 @@ public class CodeGenerator implements IRVisitor {
     }
   }
 
-  public void outputMIPSFile(String outputFileName) throws FileNotFoundException
-  {
-    String libraryFile = "lib/runtime.asm";
-    PrintWriter outputFile = new PrintWriter(new File(outputFileName));
-
-    for(String inst : _mips)
-    {
-      outputFile.println(inst);
-    }
-
-    outputFile.println(); // a little space for readability
-
-    Scanner library = new Scanner(new FileReader(libraryFile));
-    while(library.hasNextLine())
-      outputFile.println(library.nextLine());
-
-    library.close();
-    outputFile.close();
-
-  }
-
 }
@@ -0,0 +1,226 @@
+package codegen;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// On-disk, content-addressed cache of the assembly generated for each method.
+//
+// A method's assembly only depends on its (optimized) IR, the layouts of the
+// objects it touches and the code generator itself, so the key is a hash of
+// exactly those: the IR with temporaries and locals numbered by first
+// appearance (their names never reach the assembly), instance variables
+// replaced by their byte offsets, and allocated classes by their sizes.
+// Unchanged methods are spliced into the output without running liveness,
+// register allocation or code generation.
+//
+// Each entry is stored as <key>.s (the assembly) next to <key>.ir (the IR
+// listing it was generated from, for debugging).
+public class MethodCodeCache
+{
+    // bump this whenever code generation or register allocation changes,
+    // so stale entries are never reused.
+    private static final String CACHE_VERSION = "6";
+
+    private Path _directory;
+    private String _configuration;
+    private AtomicInteger _hits = new AtomicInteger();
+    private AtomicInteger _misses = new AtomicInteger();
+
+    // configuration describes any code generator options that change the output
+    public MethodCodeCache(String directory, String configuration) throws IOException
+    {
+        _directory = Paths.get(directory);
+        _configuration = configuration;
+        Files.createDirectories(_directory);
+    }
+
+    public int getHits()
+    {
+        return _hits.get();
+    }
+
+    public int getMisses()
+    {
+        return _misses.get();
+    }
+
+    // computes the cache key for a method's slice of the IR
+    public String computeKey(MethodSymbol method, List<IRQuadruple> methodIR, ObjectLayoutManager objLayoutMgr)
+    {
+        KeyBuilder key = new KeyBuilder(objLayoutMgr);
+        key.append(CACHE_VERSION);
+        key.append(_configuration);
+
+        // the prologue moves 'this' and the formals into registers, so they're
+        // part of the method's shape even if the body never mentions them.
+        key.append(method.getName());
+        key.appendSymbol(method.getVariable("this"));
+        for (SymbolInfo formal : method.getFormalSymbols())
+            key.appendSymbol(formal);
+
+        for (IRQuadruple irq : methodIR)
+            key.appendStatement(irq);
+
+        return hash(key.toString());
+    }
+
+    // returns the cached assembly for key, or null on a miss
+    public String lookup(String key)
+    {
+        Path entry = _directory.resolve(key + ".s");
+        try
+        {
+            String code = new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+            _hits.incrementAndGet();
+            return code;
+        }
+        catch (IOException e)
+        {
+            _misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void store(String key, String code, List<IRQuadruple> methodIR) throws IOException
+    {
+        StringBuilder irListing = new StringBuilder();
+        for (IRQuadruple irq : methodIR)
+        {
+            irListing.append(irq);
+            irListing.append('\n');
+        }
+
+        // write to a temporary file and move it into place, so concurrent
+        // compiles never see a partially written entry.
+        write(_directory.resolve(key + ".ir"), irListing.toString());
+        write(_directory.resolve(key + ".s"), code);
+    }
+
+    private void write(Path entry, String contents) throws IOException
+    {
+        Path temp = Files.createTempFile(_directory, "entry", ".tmp");
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String hash(String key)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8)))
+                result.append(String.format("%02x", b));
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // builds the canonical text that is hashed into a key
+    private static class KeyBuilder
+    {
+        private StringBuilder _key = new StringBuilder();
+        private Map<SymbolInfo, Integer> _variableNumbers = new HashMap<SymbolInfo, Integer>();
+        private ObjectLayoutManager _objLayoutMgr;
+
+        public KeyBuilder(ObjectLayoutManager objLayoutMgr)
+        {
+            _objLayoutMgr = objLayoutMgr;
+        }
+
+        public void append(String s)
+        {
+            _key.append(s);
+            _key.append('\n');
+        }
+
+        public void appendStatement(IRQuadruple irq)
+        {
+            _key.append(irq.getClass().getSimpleName());
+            _key.append(' ');
+            _key.append(irq.getOp());
+            _key.append(' ');
+
+            if (irq instanceof IRLabel)
+                _key.append(((IRLabel)irq).getLabel());
+            else if (irq instanceof IRUncondJump)
+                _key.append(((IRUncondJump)irq).getLabel());
+            else if (irq instanceof IRCondJump)
+                _key.append(((IRCondJump)irq).getLabel());
+            else if (irq instanceof IRPointerLoad)
+                _key.append(((IRPointerLoad)irq).getOffset());
+            else if (irq instanceof IRPointerStore)
+                _key.append(((IRPointerStore)irq).getOffset());
+            else if (irq instanceof IRCall && ((IRCall)irq).isTail())
+                _key.append("tail");
+            else if ((irq instanceof IRNewObject && ((IRNewObject)irq).isStack())
+                     || (irq instanceof IRNewArray && ((IRNewArray)irq).isStack()))
+                _key.append("stack");
+            else if ((irq instanceof IRArrayLookup && ((IRArrayLookup)irq).isChecked())
+                     || (irq instanceof IRArrayAssign && ((IRArrayAssign)irq).isChecked()))
+                _key.append("checked");
+
+            appendSymbol(irq.getArg1());
+            appendSymbol(irq.getArg2());
+            appendSymbol(irq.getResult());
+            _key.append('\n');
+        }
+
+        public void appendSymbol(SymbolInfo sym)
+        {
+            _key.append(' ');
+            if (sym == null)
+            {
+                _key.append('-');
+            }
+            else if (sym instanceof ConstantSymbol)
+            {
+                _key.append("const:");
+                _key.append(((ConstantSymbol)sym).getValue());
+            }
+            else if (sym instanceof MethodSymbol)
+            {
+                _key.append("method:");
+                _key.append(((MethodSymbol)sym).getLabel());
+            }
+            else if (sym instanceof ClassSymbol)
+            {
+                _key.append("class:");
+                _key.append(_objLayoutMgr.getSizeInBytes(sym));
+            }
+            else if (_objLayoutMgr.isInstanceVariable(sym))
+            {
+                _key.append("field:");
+                _key.append(_objLayoutMgr.getByteOffset(sym));
+            }
+            else
+            {
+                Integer number = _variableNumbers.get(sym);
+                if (number == null)
+                {
+                    number = _variableNumbers.size();
+                    _variableNumbers.put(sym, number);
+                }
+                _key.append("var:");
+                _key.append(number);
+            }
+        }
+
+        public String toString()
+        {
+            return _key.toString();
+        }
+    }
+}
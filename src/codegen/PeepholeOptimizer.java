@@ -0,0 +1,561 @@
+package codegen;
+
+import java.util.*;
+
+// Cleans up each method's assembly after register allocation, by sliding a
+// window of up to two instructions over it and rewriting the windows that
+// match one of the rules in RULES. A window never spans a label, since
+// control can arrive in the middle of it there. Each rewrite gets another
+// look, together with the instruction before it, since one rewrite often
+// leaves a window another rule matches.
+//
+// Some rules need a register to be dead after the window. Inside a block we
+// scan forward for the next read or write of it. Across a label or a branch
+// we only know that about $v1 and $fp: the code generator loads them before
+// every use, so they never carry a value from one statement to the next.
+// After the epilogue's "jr $ra" only $v0 is still wanted.
+//
+// Shared by all of a compile's methods (and so its threads), which is why
+// the counts are only updated under its lock.
+public class PeepholeOptimizer
+{
+    // instructions that only write their first operand, from the rest
+    private static final Set<String> DEFINES_FIRST = new HashSet<String>(Arrays.asList(
+        "add", "addu", "addi", "addiu", "sub", "subu", "and", "andi", "or", "ori", "xor", "xori", "nor",
+        "slt", "slti", "sltu", "sltiu", "sll", "srl", "sra", "sllv", "srlv", "srav", "li", "la", "lui",
+        "lw", "lh", "lhu", "lb", "lbu", "mflo", "mfhi", "move"));
+    // instructions that read all of their operands and write none of them
+    private static final Set<String> READS_ALL = new HashSet<String>(Arrays.asList(
+        "sw", "sh", "sb", "mult", "multu", "div", "divu"));
+    // instructions after which the next one isn't necessarily the one below
+    private static final Set<String> BRANCHES = new HashSet<String>(Arrays.asList(
+        "beq", "bne", "blt", "bgt", "ble", "bge", "beqz", "bnez", "bltz", "bgtz", "blez", "bgez",
+        "j", "jal", "jr"));
+    // loaded before every use, so never live across a label or branch
+    private static final Set<String> SCRATCH = new HashSet<String>(Arrays.asList("$3", "$30"));
+
+    private static final Map<String, String> REGISTER_NUMBERS = new HashMap<String, String>();
+    static
+    {
+        String[] names = {
+            "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+            "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7",
+            "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra" };
+        for (int i = 0; i < names.length; i++)
+            REGISTER_NUMBERS.put("$" + names[i], "$" + i);
+    }
+
+    private static final Rule[] RULES = {
+        // copies to themselves
+        new Rule("self move",
+                 new String[] { "add %a, %a, $zero" },
+                 new String[] {}),
+
+        // a constant loaded into $v1 only to be the second operand of an
+        // instruction that could take it as an immediate
+        new Rule("immediate operand",
+                 new String[] { "li $v1, %c", "add %d, %a, $v1" },
+                 new String[] { "addi %d, %a, %c" })
+        {
+            boolean applies(Match match)
+            {
+                return isSigned16(match.getConstant("%c")) && match.isRegisterOtherThanV1("%a") && match.isDead("$v1");
+            }
+        },
+        new Rule("immediate operand",
+                 new String[] { "li $v1, %c", "add %d, $v1, %a" },
+                 new String[] { "addi %d, %a, %c" })
+        {
+            boolean applies(Match match)
+            {
+                return isSigned16(match.getConstant("%c")) && match.isRegisterOtherThanV1("%a") && match.isDead("$v1");
+            }
+        },
+        new Rule("immediate operand",
+                 new String[] { "li $v1, %c", "sub %d, %a, $v1" },
+                 new String[] { "addi %d, %a, %c" })
+        {
+            boolean applies(Match match)
+            {
+                Long c = match.getConstant("%c");
+                return c != null && isSigned16(-c) && match.isRegisterOtherThanV1("%a") && match.isDead("$v1");
+            }
+
+            List<String> rewrite(Match match)
+            {
+                // subtracting c overflows exactly when adding -c does
+                match.bind("%c", "" + (-match.getConstant("%c")));
+                return super.rewrite(match);
+            }
+        },
+        new Rule("immediate operand",
+                 new String[] { "li $v1, %c", "slt %d, %a, $v1" },
+                 new String[] { "slti %d, %a, %c" })
+        {
+            boolean applies(Match match)
+            {
+                return isSigned16(match.getConstant("%c")) && match.isRegisterOtherThanV1("%a") && match.isDead("$v1");
+            }
+        },
+        new Rule("immediate operand",
+                 new String[] { "li $v1, %c", "and %d, %a, $v1" },
+                 new String[] { "andi %d, %a, %c" })
+        {
+            boolean applies(Match match)
+            {
+                return isUnsigned16(match.getConstant("%c")) && match.isRegisterOtherThanV1("%a") && match.isDead("$v1");
+            }
+        },
+        new Rule("immediate operand",
+                 new String[] { "li $v1, %c", "and %d, $v1, %a" },
+                 new String[] { "andi %d, %a, %c" })
+        {
+            boolean applies(Match match)
+            {
+                return isUnsigned16(match.getConstant("%c")) && match.isRegisterOtherThanV1("%a") && match.isDead("$v1");
+            }
+        },
+
+        // a branch on a constant either always goes or never does
+        new Rule("constant branch",
+                 new String[] { "li $v1, %c", "beq $v1, $zero, %label" },
+                 new String[] { "j %label" })
+        {
+            boolean applies(Match match)
+            {
+                return match.getConstant("%c") != null && match.isDead("$v1");
+            }
+
+            List<String> rewrite(Match match)
+            {
+                if (match.getConstant("%c") != 0)
+                    return new ArrayList<String>();
+                return super.rewrite(match);
+            }
+        },
+
+        // boolean not. booleans are always 0 or 1, so flipping the low bit
+        // is enough.
+        new Rule("boolean not",
+                 new String[] { "nor %d, %a, $zero", "andi %d, %d, 1" },
+                 new String[] { "xori %d, %a, 1" }),
+
+        // reading back a field (or anything else) that was just stored
+        new Rule("store then load",
+                 new String[] { "sw %r, %m", "lw %r, %m" },
+                 new String[] { "sw %r, %m" }),
+
+        // a value computed only to be moved somewhere else, most often into
+        // $v0 just before the epilogue, can be computed there directly
+        new Rule("move into definition",
+                 new String[] { "%op %x, %a, %b", "add %d, %x, $zero" },
+                 new String[] { "%op %d, %a, %b" })
+        {
+            boolean applies(Match match)
+            {
+                return DEFINES_FIRST.contains(match.get("%op")) && match.isDead("%x");
+            }
+        },
+        new Rule("move into definition",
+                 new String[] { "%op %x, %a", "add %d, %x, $zero" },
+                 new String[] { "%op %d, %a" })
+        {
+            boolean applies(Match match)
+            {
+                return DEFINES_FIRST.contains(match.get("%op")) && match.isDead("%x");
+            }
+        },
+        new Rule("move into definition",
+                 new String[] { "%op %x", "add %d, %x, $zero" },
+                 new String[] { "%op %d" })
+        {
+            boolean applies(Match match)
+            {
+                return DEFINES_FIRST.contains(match.get("%op")) && match.isDead("%x");
+            }
+        },
+    };
+
+    private static final int WINDOW;
+    static
+    {
+        int window = 0;
+        for (Rule rule : RULES)
+            window = Math.max(window, rule._pattern.length);
+        WINDOW = window;
+    }
+
+    private Map<String, Integer> _hits = new LinkedHashMap<String, Integer>();
+    private int _instructionsBefore = 0;
+    private int _instructionsAfter = 0;
+
+    public PeepholeOptimizer()
+    {
+        for (Rule rule : RULES)
+            _hits.put(rule._name, 0);
+    }
+
+    // returns code with every rule applied wherever it matches
+    public StringBuilder optimize(CharSequence code)
+    {
+        List<Instruction> lines = new ArrayList<Instruction>();
+        for (String line : code.toString().split("\n", -1))
+            lines.add(new Instruction(line));
+        int before = countInstructions(lines);
+
+        Map<String, Integer> hits = new HashMap<String, Integer>();
+        int i = 0;
+        while (i < lines.size())
+        {
+            Rule applied = applyFirstRule(lines, i);
+            if (applied == null)
+            {
+                i++;
+                continue;
+            }
+            Integer count = hits.get(applied._name);
+            hits.put(applied._name, count == null ? 1 : count + 1);
+            // the rewrite might complete a window that starts just before it
+            int previous = i - 1;
+            while (previous >= 0 && lines.get(previous).isBlank())
+                previous--;
+            if (previous >= 0 && lines.get(previous).isInstruction())
+                i = previous;
+        }
+
+        StringBuilder result = new StringBuilder(code.length());
+        for (int j = 0; j < lines.size(); j++)
+        {
+            if (j > 0)
+                result.append('\n');
+            result.append(lines.get(j)._text);
+        }
+        record(hits, before, countInstructions(lines));
+        return result;
+    }
+
+    // a line per rule that matched anywhere, then the totals
+    public synchronized List<String> getStatistics()
+    {
+        List<String> statistics = new ArrayList<String>();
+        for (Map.Entry<String, Integer> hit : _hits.entrySet())
+        {
+            if (hit.getValue() > 0)
+                statistics.add("peephole " + hit.getKey() + ": " + hit.getValue() + " times");
+        }
+        int removed = _instructionsBefore - _instructionsAfter;
+        statistics.add("peephole: " + _instructionsBefore + " -> " + _instructionsAfter + " instructions ("
+                       + removed + " removed, "
+                       + String.format("%.1f", _instructionsBefore == 0 ? 0.0 : 100.0 * removed / _instructionsBefore) + "%)");
+        return statistics;
+    }
+
+    private synchronized void record(Map<String, Integer> hits, int before, int after)
+    {
+        for (Map.Entry<String, Integer> hit : hits.entrySet())
+            _hits.put(hit.getKey(), _hits.get(hit.getKey()) + hit.getValue());
+        _instructionsBefore += before;
+        _instructionsAfter += after;
+    }
+
+    private int countInstructions(List<Instruction> lines)
+    {
+        int count = 0;
+        for (Instruction line : lines)
+        {
+            if (line.isInstruction())
+                count++;
+        }
+        return count;
+    }
+
+    // tries the rules in order on the window starting at lines[start],
+    // rewriting it with the first one that matches. returns that rule, or
+    // null if none did.
+    private Rule applyFirstRule(List<Instruction> lines, int start)
+    {
+        if (!lines.get(start).isInstruction())
+            return null;
+
+        // the window's instructions, skipping blank lines
+        List<Integer> window = new ArrayList<Integer>();
+        for (int i = start; i < lines.size() && window.size() < WINDOW; i++)
+        {
+            if (lines.get(i).isBlank())
+                continue;
+            if (!lines.get(i).isInstruction())
+                break;
+            window.add(i);
+        }
+
+        for (Rule rule : RULES)
+        {
+            if (rule._pattern.length > window.size())
+                continue;
+            Match match = new Match(lines, window.get(rule._pattern.length - 1));
+            if (!rule.matches(lines, window, match) || !rule.applies(match))
+                continue;
+
+            List<String> replacement = rule.rewrite(match);
+            for (int i = rule._pattern.length - 1; i >= 0; i--)
+                lines.remove((int)window.get(i));
+            for (int i = replacement.size() - 1; i >= 0; i--)
+                lines.add(start, new Instruction(replacement.get(i)));
+            return rule;
+        }
+        return null;
+    }
+
+    private static boolean isSigned16(Long c)
+    {
+        return c != null && c >= Short.MIN_VALUE && c <= Short.MAX_VALUE;
+    }
+
+    private static boolean isUnsigned16(Long c)
+    {
+        return c != null && c >= 0 && c <= 0xffff;
+    }
+
+    // registers by number, and memory operands as offset(register), so the
+    // same operand always reads the same
+    private static String canonicalize(String operand)
+    {
+        int paren = operand.indexOf('(');
+        if (paren >= 0 && operand.endsWith(")"))
+        {
+            String offset = operand.substring(0, paren);
+            return (offset.isEmpty() ? "0" : offset) + "(" + canonicalize(operand.substring(paren + 1, operand.length() - 1)) + ")";
+        }
+        String number = REGISTER_NUMBERS.get(operand);
+        return number == null ? operand : number;
+    }
+
+    // the register a canonical operand reads, or null for a constant or label
+    private static String getRegister(String operand)
+    {
+        if (operand.startsWith("$"))
+            return operand;
+        int paren = operand.indexOf('(');
+        if (paren >= 0)
+            return operand.substring(paren + 1, operand.length() - 1);
+        return null;
+    }
+
+    // true iff nothing reads register after lines[end] before writing it
+    private static boolean isDead(List<Instruction> lines, int end, String register)
+    {
+        for (int i = end + 1; i < lines.size(); i++)
+        {
+            Instruction line = lines.get(i);
+            if (line.isBlank())
+                continue;
+            if (line.isLabel())
+                return SCRATCH.contains(register);
+            if (!line.isInstruction())
+                return false;
+
+            String[] operands = line._canonical;
+            boolean defines = DEFINES_FIRST.contains(line._op);
+            if (!defines && !READS_ALL.contains(line._op) && !BRANCHES.contains(line._op))
+                return false;
+            for (int j = defines ? 1 : 0; j < operands.length; j++)
+            {
+                if (register.equals(getRegister(operands[j])))
+                    return false;
+            }
+
+            if (line._op.equals("jr") && operands.length == 1 && operands[0].equals("$31"))
+                return !register.equals("$2") && !register.equals("$29") && !register.equals("$31");
+            if (BRANCHES.contains(line._op))
+                return SCRATCH.contains(register);
+            if (defines && operands.length > 0 && operands[0].equals(register))
+                return true;
+        }
+        return SCRATCH.contains(register);
+    }
+
+    // a line of assembly: an instruction, a label, a blank line, or something
+    // else (a directive, say) that we leave alone and never look past
+    private static class Instruction
+    {
+        private String _text;
+        private String _op;
+        private String[] _operands;
+        private String[] _canonical;
+        private boolean _label;
+
+        public Instruction(String text)
+        {
+            _text = text;
+            String trimmed = text.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith(".") || trimmed.contains("#") || trimmed.contains("\""))
+                return;
+            if (trimmed.endsWith(":"))
+            {
+                _label = true;
+                return;
+            }
+
+            String[] tokens = trimmed.split("[\\s,]+");
+            _op = tokens[0];
+            _operands = Arrays.copyOfRange(tokens, 1, tokens.length);
+            _canonical = new String[_operands.length];
+            for (int i = 0; i < _operands.length; i++)
+                _canonical[i] = canonicalize(_operands[i]);
+        }
+
+        public boolean isBlank()
+        {
+            return _text.trim().isEmpty();
+        }
+
+        public boolean isLabel()
+        {
+            return _label;
+        }
+
+        public boolean isInstruction()
+        {
+            return _op != null;
+        }
+    }
+
+    // what a rule's % operands matched, as written and canonicalized
+    private static class Match
+    {
+        private Map<String, String> _bindings = new HashMap<String, String>();
+        private Map<String, String> _canonical = new HashMap<String, String>();
+        private List<Instruction> _lines;
+        private int _end;
+
+        // end is the line the window ends at
+        public Match(List<Instruction> lines, int end)
+        {
+            _lines = lines;
+            _end = end;
+        }
+
+        // binds name to operand, or checks it matches what name is bound to
+        public boolean bind(String name, String operand, String canonical)
+        {
+            if (_canonical.containsKey(name))
+                return _canonical.get(name).equals(canonical);
+            _bindings.put(name, operand);
+            _canonical.put(name, canonical);
+            return true;
+        }
+
+        public void bind(String name, String operand)
+        {
+            _bindings.put(name, operand);
+            _canonical.put(name, canonicalize(operand));
+        }
+
+        public String get(String name)
+        {
+            return _bindings.get(name);
+        }
+
+        // the integer name is bound to, or null if it isn't one
+        public Long getConstant(String name)
+        {
+            try
+            {
+                return Long.parseLong(_bindings.get(name));
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+
+        public boolean isRegisterOtherThanV1(String name)
+        {
+            String operand = _canonical.get(name);
+            return operand.startsWith("$") && !operand.equals("$3");
+        }
+
+        // register is either a register or a name bound to one
+        public boolean isDead(String register)
+        {
+            if (_canonical.containsKey(register))
+                register = _canonical.get(register);
+            return PeepholeOptimizer.isDead(_lines, _end, canonicalize(register));
+        }
+    }
+
+    // a window of instructions to look for, and what to replace it with.
+    // operands (and ops) starting with % match anything, but the same name
+    // has to match the same operand each time; everything else has to match
+    // exactly. subclasses add any further conditions in applies.
+    private static class Rule
+    {
+        private String _name;
+        private Instruction[] _pattern;
+        private String[] _replacement;
+
+        public Rule(String name, String[] pattern, String[] replacement)
+        {
+            _name = name;
+            _pattern = new Instruction[pattern.length];
+            for (int i = 0; i < pattern.length; i++)
+                _pattern[i] = new Instruction(pattern[i]);
+            _replacement = replacement;
+        }
+
+        // true iff the instructions at window's lines have the pattern's shape,
+        // binding the % operands in match
+        boolean matches(List<Instruction> lines, List<Integer> window, Match match)
+        {
+            for (int i = 0; i < _pattern.length; i++)
+            {
+                Instruction expected = _pattern[i];
+                Instruction actual = lines.get(window.get(i));
+                if (expected._operands.length != actual._operands.length)
+                    return false;
+                if (!matches(expected._op, expected._op, actual._op, actual._op, match))
+                    return false;
+                for (int j = 0; j < expected._operands.length; j++)
+                {
+                    if (!matches(expected._operands[j], expected._canonical[j], actual._operands[j], actual._canonical[j], match))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(String expected, String expectedCanonical, String actual, String actualCanonical, Match match)
+        {
+            if (expected.startsWith("%"))
+                return match.bind(expected, actual, actualCanonical);
+            return expectedCanonical.equals(actualCanonical);
+        }
+
+        boolean applies(Match match)
+        {
+            return true;
+        }
+
+        // the replacement, with each % name replaced by what it matched
+        List<String> rewrite(Match match)
+        {
+            List<String> result = new ArrayList<String>();
+            for (String template : _replacement)
+            {
+                String[] tokens = template.split("[\\s,]+");
+                StringBuilder instruction = new StringBuilder();
+                for (int i = 0; i < tokens.length; i++)
+                {
+                    if (i == 1)
+                        instruction.append(' ');
+                    else if (i > 1)
+                        instruction.append(", ");
+                    instruction.append(tokens[i].startsWith("%") ? match.get(tokens[i]) : tokens[i]);
+                }
+                result.add(instruction.toString());
+            }
+            return result;
+        }
+    }
+}
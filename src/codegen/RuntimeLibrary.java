@@ -0,0 +1,43 @@
+package codegen;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+// The runtime library linked onto the end of every program. The file stays
+// open, so a compile server can keep one instance for all of its requests,
+// and it's copied channel to channel, which lets the kernel move the bytes
+// straight into the output file.
+public class RuntimeLibrary implements Closeable
+{
+
+    public static final String DEFAULT_PATH = "lib/runtime.asm";
+
+    private FileChannel _channel;
+
+    public RuntimeLibrary() throws IOException
+    {
+        this(DEFAULT_PATH);
+    }
+
+    public RuntimeLibrary(String fileName) throws IOException
+    {
+        _channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    }
+
+    // copies the whole library to out. uses absolute positions, so the
+    // library can be transferred any number of times.
+    public void transferTo(WritableByteChannel out) throws IOException
+    {
+        long size = _channel.size();
+        long position = 0;
+        while (position < size)
+            position += _channel.transferTo(position, size - position, out);
+    }
+
+    public void close() throws IOException
+    {
+        _channel.close();
+    }
+}
@@ -7,10 +7,23 @@ import irgeneration.*;
 public class BasicBlock
 {
     private List<IRQuadruple> _statements;
+    // dense id within the block's CFG, or -1 until it's added to one
+    private int _id;
 
     public BasicBlock()
     {
         _statements = new ArrayList<IRQuadruple>();
+        _id = -1;
+    }
+
+    public int getId()
+    {
+        return _id;
+    }
+
+    void setId(int id)
+    {
+        _id = id;
     }
 
     public void addStatement(IRQuadruple q)
@@ -18,6 +31,23 @@ public class BasicBlock
         _statements.add(q);
     }
 
+    // changing a block's statements in place goes through StatementIndex,
+    // which keeps track of where they are
+    void addStatement(int index, IRQuadruple q)
+    {
+        _statements.add(index, q);
+    }
+
+    void setStatement(int index, IRQuadruple q)
+    {
+        _statements.set(index, q);
+    }
+
+    void removeStatements(Set<IRQuadruple> statements)
+    {
+        _statements.removeAll(statements);
+    }
+
     public boolean isEmpty()
     {
         return _statements.isEmpty();
@@ -7,15 +7,20 @@ import objectimpl.*;
 import java.util.*;
 
 // computes defs and uses for all blocks in a CFG
+// a block's usages are the upward-exposed ones, i.e. those that aren't
+// preceded by a definition in the same block.
 public class CFGDefsAndUses
 {
-    private Map<BasicBlock, Set<SymbolInfo>> _defsPerBlock;
-    private Map<BasicBlock, Set<SymbolInfo>> _usesPerBlock;
+    private ControlFlowGraph _graph;
+    // indexed by block id
+    private List<Set<SymbolInfo>> _defsPerBlock;
+    private List<Set<SymbolInfo>> _usesPerBlock;
 
     public CFGDefsAndUses(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr)
     {
-        _defsPerBlock = new HashMap<BasicBlock, Set<SymbolInfo>>();
-        _usesPerBlock = new HashMap<BasicBlock, Set<SymbolInfo>>();
+        _graph = graph;
+        _defsPerBlock = new ArrayList<Set<SymbolInfo>>(graph.getBlockCount());
+        _usesPerBlock = new ArrayList<Set<SymbolInfo>>(graph.getBlockCount());
 
         for (BasicBlock b : graph.getAllBlocks())
             computeUsesAndDefs(b, objLayoutMgr);
@@ -24,20 +29,32 @@ public class CFGDefsAndUses
     // get definitions for a block
     public Set<SymbolInfo> getDefinitions(BasicBlock b)
     {
-        return _defsPerBlock.get(b);
+        return _defsPerBlock.get(b.getId());
     }
 
     // get usages for a block
     public Set<SymbolInfo> getUsages(BasicBlock b)
     {
-        return _usesPerBlock.get(b);
+        return _usesPerBlock.get(b.getId());
+    }
+
+    // get definitions for a single statement
+    public static Set<SymbolInfo> getStatementDefinitions(IRQuadruple irq, ObjectLayoutManager objLayoutMgr)
+    {
+        return new DefsAndUsesVisitor(Collections.singletonList(irq), objLayoutMgr).getDefinitions();
+    }
+
+    // get usages for a single statement
+    public static Set<SymbolInfo> getStatementUsages(IRQuadruple irq, ObjectLayoutManager objLayoutMgr)
+    {
+        return new DefsAndUsesVisitor(Collections.singletonList(irq), objLayoutMgr).getUsages();
     }
 
     public String toString()
     {
         StringBuilder result = new StringBuilder();
 
-        for (BasicBlock b : _defsPerBlock.keySet())
+        for (BasicBlock b : _graph.getAllBlocks())
         {
             result.append("BLOCK\n");
             result.append(b.toString());
@@ -61,8 +78,8 @@ public class CFGDefsAndUses
     private void computeUsesAndDefs(BasicBlock b, ObjectLayoutManager objLayoutMgr)
     {
         DefsAndUsesVisitor visitor = new DefsAndUsesVisitor(b.getStatements(), objLayoutMgr);
-        _defsPerBlock.put(b, visitor.getDefinitions());
-        _usesPerBlock.put(b, visitor.getUsages());
+        _defsPerBlock.add(visitor.getDefinitions());
+        _usesPerBlock.add(visitor.getUsages());
     }
 
     // visits IR statements to determine usages and defs
@@ -74,8 +91,8 @@ public class CFGDefsAndUses
 
         public DefsAndUsesVisitor(List<IRQuadruple> irList, ObjectLayoutManager objLayoutMgr)
         {
-            _definitions = new HashSet<SymbolInfo>();
-            _usages = new HashSet<SymbolInfo>();
+            _definitions = new LinkedHashSet<SymbolInfo>();
+            _usages = new LinkedHashSet<SymbolInfo>();
             _objLayoutMgr = objLayoutMgr;
 
             for (IRQuadruple irq : irList)
@@ -92,20 +109,22 @@ public class CFGDefsAndUses
             return _usages;
         }
 
+        // a statement's usages must be added before its definition, so
+        // e.g. x := x + 1 still counts as a usage of x.
         private void addUsage(SymbolInfo sym)
         {
-            if (!(sym instanceof ConstantSymbol))
+            if (!(sym instanceof ConstantSymbol) && !_definitions.contains(sym))
             {
                 _usages.add(sym);
             }
         }
         private void addDefinition(SymbolInfo sym)
         {
-            _definitions.add(sym);
             // for instance variables, a definition is also
             // a usage.
             if (_objLayoutMgr.isInstanceVariable(sym))
-                _usages.add(sym);
+                addUsage(sym);
+            _definitions.add(sym);
         }
 
         public void visit(IRArrayAssign n)
@@ -116,20 +135,20 @@ public class CFGDefsAndUses
         }
         public void visit(IRArrayLength n)
         {
-            addDefinition(n.getResult());
             addUsage(n.getArg1());
+            addDefinition(n.getResult());
         }
         public void visit(IRArrayLookup n)
         {
-            addDefinition(n.getResult());
             addUsage(n.getArg1());
             addUsage(n.getArg2());
+            addDefinition(n.getResult());
         }
         public void visit(IRAssignment n)
         {
-            addDefinition(n.getResult());
             addUsage(n.getArg1());
             addUsage(n.getArg2());
+            addDefinition(n.getResult());
         }
         public void visit(IRCall n)
         {
@@ -142,8 +161,14 @@ public class CFGDefsAndUses
         }
         public void visit(IRCopy n)
         {
+            addUsage(n.getArg1());
             addDefinition(n.getResult());
+        }
+        public void visit(IRElementAddress n)
+        {
             addUsage(n.getArg1());
+            addUsage(n.getArg2());
+            addDefinition(n.getResult());
         }
         public void visit(IRLabel n)
         {
@@ -151,8 +176,8 @@ public class CFGDefsAndUses
         }
         public void visit(IRNewArray n)
         {
-            addDefinition(n.getResult());
             addUsage(n.getArg2());
+            addDefinition(n.getResult());
         }
         public void visit(IRNewObject n)
         {
@@ -162,14 +187,24 @@ public class CFGDefsAndUses
         {
             addUsage(n.getArg1());
         }
+        public void visit(IRPointerLoad n)
+        {
+            addUsage(n.getArg1());
+            addDefinition(n.getResult());
+        }
+        public void visit(IRPointerStore n)
+        {
+            addUsage(n.getArg1());
+            addUsage(n.getArg2());
+        }
         public void visit(IRReturn n)
         {
             addUsage(n.getArg1());
         }
         public void visit(IRUnaryAssignment n)
         {
-            addDefinition(n.getResult());
             addUsage(n.getArg1());
+            addDefinition(n.getResult());
         }
         public void visit(IRUncondJump n)
         {
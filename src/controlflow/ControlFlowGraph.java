@@ -2,27 +2,51 @@ package controlflow;
 
 import java.util.*;
 
+// A method's control flow graph.
+//
+// Blocks are numbered densely in the order they're added (the root is 0), and
+// edges are kept in compressed sparse row form: the successors of block b are
+// _successors[_successorOffsets[b] .. _successorOffsets[b + 1]), and likewise
+// for predecessors. Analyses can walk the graph by id without any hashing.
+// The edge arrays, and the preorder/postorder numberings, are built the first
+// time they're needed after the graph changes.
 public class ControlFlowGraph
 {
-    private Map<BasicBlock, Set<BasicBlock>> _adjacencyList;
-    private Map<BasicBlock, Set<BasicBlock>> _predecessors;
-    private BasicBlock _root;
+    private List<BasicBlock> _blocks;
+
+    // edges as they're added, until the graph is compacted into the arrays
+    private List<BasicBlock> _edgeSources;
+    private List<BasicBlock> _edgeTargets;
+    private boolean _compacted;
+
+    private int[] _successorOffsets;
+    private int[] _successors;
+    private int[] _predecessorOffsets;
+    private int[] _predecessors;
+
+    // depth-first orderings of the blocks reachable from the root, and each
+    // block's position in the preorder (-1 if it's unreachable)
+    private int[] _preorderNumbers;
+    private int[] _preorder;
+    private int[] _postorder;
+    private int[] _reversePostorder;
 
     public ControlFlowGraph()
     {
-        _adjacencyList = new HashMap<BasicBlock, Set<BasicBlock>>();
-        _predecessors = new HashMap<BasicBlock, Set<BasicBlock>>();
-        _root = null;
+        _blocks = new ArrayList<BasicBlock>();
+        _edgeSources = new ArrayList<BasicBlock>();
+        _edgeTargets = new ArrayList<BasicBlock>();
+        _compacted = false;
     }
 
     public boolean isEmpty()
     {
-        return _root == null;
+        return _blocks.isEmpty();
     }
 
     public BasicBlock getRoot()
     {
-        return _root;
+        return isEmpty() ? null : _blocks.get(0);
     }
 
     public void addBlock(BasicBlock b)
@@ -30,47 +54,109 @@ public class ControlFlowGraph
         if (b.isEmpty())
             throw new IllegalArgumentException("basic block cannot be empty");
 
-        if (_adjacencyList.containsKey(b))
+        if (b.getId() >= 0)
             throw new IllegalArgumentException("duplicate block found");
 
-        if (_root == null)
-            _root = b;
-
-        _adjacencyList.put(b, new HashSet<BasicBlock>());
-        if (!_predecessors.containsKey(b))
-        {
-            _predecessors.put(b, new HashSet<BasicBlock>());
-        }
+        if (_compacted)
+            expand();
+        b.setId(_blocks.size());
+        _blocks.add(b);
     }
 
+    // the edge's target may not have been added yet, since the builder
+    // creates fallthrough edges before it finishes the block.
     public void addEdge(BasicBlock from, BasicBlock to)
     {
-        _adjacencyList.get(from).add(to);
+        if (_compacted)
+            expand();
+        _edgeSources.add(from);
+        _edgeTargets.add(to);
+        _compacted = false;
+    }
 
-        Set<BasicBlock> preds = _predecessors.get(to);
-        // TODO: hack because we add a predecessor edge before we
-        // actually add the to block.
-        if (preds == null)
-        {
-            preds = new HashSet<BasicBlock>();
-            _predecessors.put(to, preds);
-        }
-        preds.add(from);
+    public int getBlockCount()
+    {
+        return _blocks.size();
+    }
+
+    public BasicBlock getBlock(int id)
+    {
+        return _blocks.get(id);
+    }
+
+    // all blocks, in id order
+    public List<BasicBlock> getAllBlocks()
+    {
+        return Collections.unmodifiableList(_blocks);
+    }
+
+    public int getSuccessorCount(int id)
+    {
+        compact();
+        return _successorOffsets[id + 1] - _successorOffsets[id];
+    }
+
+    public int getSuccessor(int id, int i)
+    {
+        compact();
+        return _successors[_successorOffsets[id] + i];
+    }
+
+    public int getPredecessorCount(int id)
+    {
+        compact();
+        return _predecessorOffsets[id + 1] - _predecessorOffsets[id];
+    }
+
+    public int getPredecessor(int id, int i)
+    {
+        compact();
+        return _predecessors[_predecessorOffsets[id] + i];
+    }
+
+    public List<BasicBlock> getPredecessors(BasicBlock to)
+    {
+        List<BasicBlock> result = new ArrayList<BasicBlock>();
+        for (int i = 0; i < getPredecessorCount(to.getId()); i++)
+            result.add(getBlock(getPredecessor(to.getId(), i)));
+        return result;
+    }
+
+    public List<BasicBlock> getSuccessors(BasicBlock from)
+    {
+        List<BasicBlock> result = new ArrayList<BasicBlock>();
+        for (int i = 0; i < getSuccessorCount(from.getId()); i++)
+            result.add(getBlock(getSuccessor(from.getId(), i)));
+        return result;
+    }
+
+    // block ids in depth-first preorder from the root
+    public int[] getPreorder()
+    {
+        computeOrders();
+        return _preorder;
     }
 
-    public Set<BasicBlock> getPredecessors(BasicBlock to)
+    // block ids in depth-first postorder from the root
+    public int[] getPostorder()
     {
-        return _predecessors.get(to);
+        computeOrders();
+        return _postorder;
     }
 
-    public Set<BasicBlock> getSuccessors(BasicBlock from)
+    // block ids in reverse postorder, so every block comes before its
+    // successors (other than along back edges)
+    public int[] getReversePostorder()
     {
-        return _adjacencyList.get(from);
+        computeOrders();
+        return _reversePostorder;
     }
 
-    public Set<BasicBlock> getAllBlocks()
+    // the orderings only include the blocks reachable from the root
+    public boolean isReachable(int id)
     {
-        return _adjacencyList.keySet();
+        computeOrders();
+        return _preorderNumbers[id] >= 0;
     }
 
     public String toString()
@@ -90,4 +176,144 @@ public class ControlFlowGraph
 
         return result.toString();
     }
+
+    // build the edge arrays, dropping duplicate edges (e.g. a conditional
+    // jump to the block it would fall through to anyway)
+    private void compact()
+    {
+        if (_compacted)
+            return;
+
+        int blockCount = _blocks.size();
+        int edgeCount = _edgeSources.size();
+        int[] sources = new int[edgeCount];
+        int[] targets = new int[edgeCount];
+        boolean[] duplicate = new boolean[edgeCount];
+
+        // blocks have at most two successors, so checking each new edge
+        // against the earlier edges from the same block is cheap
+        int[] lastEdgeFrom = new int[blockCount];
+        Arrays.fill(lastEdgeFrom, -1);
+        int[] previousEdge = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++)
+        {
+            sources[e] = _edgeSources.get(e).getId();
+            targets[e] = _edgeTargets.get(e).getId();
+            for (int other = lastEdgeFrom[sources[e]]; other >= 0; other = previousEdge[other])
+            {
+                if (targets[other] == targets[e])
+                {
+                    duplicate[e] = true;
+                    break;
+                }
+            }
+            if (!duplicate[e])
+            {
+                previousEdge[e] = lastEdgeFrom[sources[e]];
+                lastEdgeFrom[sources[e]] = e;
+            }
+        }
+
+        _successorOffsets = new int[blockCount + 1];
+        _predecessorOffsets = new int[blockCount + 1];
+        int uniqueCount = 0;
+        for (int e = 0; e < edgeCount; e++)
+        {
+            if (duplicate[e])
+                continue;
+            _successorOffsets[sources[e] + 1]++;
+            _predecessorOffsets[targets[e] + 1]++;
+            uniqueCount++;
+        }
+        for (int b = 0; b < blockCount; b++)
+        {
+            _successorOffsets[b + 1] += _successorOffsets[b];
+            _predecessorOffsets[b + 1] += _predecessorOffsets[b];
+        }
+
+        // fill in edges in the order they were added
+        _successors = new int[uniqueCount];
+        _predecessors = new int[uniqueCount];
+        int[] nextSuccessor = Arrays.copyOf(_successorOffsets, blockCount);
+        int[] nextPredecessor = Arrays.copyOf(_predecessorOffsets, blockCount);
+        for (int e = 0; e < edgeCount; e++)
+        {
+            if (duplicate[e])
+                continue;
+            _successors[nextSuccessor[sources[e]]++] = targets[e];
+            _predecessors[nextPredecessor[targets[e]]++] = sources[e];
+        }
+
+        _edgeSources.clear();
+        _edgeTargets.clear();
+        _preorder = null;
+        _postorder = null;
+        _reversePostorder = null;
+        _compacted = true;
+    }
+
+    // turn the edge arrays back into a list of edges, so more can be added
+    private void expand()
+    {
+        for (int b = 0; b < _blocks.size(); b++)
+        {
+            for (int i = 0; i < getSuccessorCount(b); i++)
+            {
+                _edgeSources.add(_blocks.get(b));
+                _edgeTargets.add(_blocks.get(getSuccessor(b, i)));
+            }
+        }
+        _compacted = false;
+    }
+
+    // iterative DFS, since methods can have thousands of blocks
+    private void computeOrders()
+    {
+        compact();
+        if (_preorder != null)
+            return;
+
+        int blockCount = _blocks.size();
+        _preorderNumbers = new int[blockCount];
+        Arrays.fill(_preorderNumbers, -1);
+        int[] preorder = new int[blockCount];
+        int[] postorder = new int[blockCount];
+        int preCount = 0;
+        int postCount = 0;
+
+        if (blockCount > 0)
+        {
+            int[] stack = new int[blockCount];
+            int[] nextSuccessor = new int[blockCount];
+            int depth = 0;
+            stack[depth++] = 0;
+            _preorderNumbers[0] = preCount;
+            preorder[preCount++] = 0;
+            while (depth > 0)
+            {
+                int b = stack[depth - 1];
+                if (nextSuccessor[b] < getSuccessorCount(b))
+                {
+                    int succ = getSuccessor(b, nextSuccessor[b]++);
+                    if (_preorderNumbers[succ] < 0)
+                    {
+                        _preorderNumbers[succ] = preCount;
+                        preorder[preCount++] = succ;
+                        stack[depth++] = succ;
+                    }
+                }
+                else
+                {
+                    postorder[postCount++] = b;
+                    depth--;
+                }
+            }
+        }
+
+        _preorder = Arrays.copyOf(preorder, preCount);
+        _postorder = Arrays.copyOf(postorder, postCount);
+        _reversePostorder = new int[postCount];
+        for (int i = 0; i < postCount; i++)
+            _reversePostorder[i] = _postorder[postCount - 1 - i];
+    }
 }
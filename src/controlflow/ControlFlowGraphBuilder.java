@@ -5,6 +5,8 @@ import irgeneration.*;
 import symboltable.*;
 
 // Visits IRList and constructs a list of ControlFlowGraphs (one for each method)
+// Blocks are maximal: straight-line code stays in one block, which only ends
+// at a jump, conditional jump or return, or right before a label.
 public class ControlFlowGraphBuilder implements IRVisitor
 {
     private ControlFlowGraph _currentCfg = new ControlFlowGraph();
@@ -13,20 +15,17 @@ public class ControlFlowGraphBuilder implements IRVisitor
     private MethodSymbol _currentMethod = null;
 
     private Map<String, BasicBlock> _labelsToBlocks = new HashMap<String, BasicBlock>();
-    private Map<MethodSymbol, ControlFlowGraph> _controlFlowGraphs = new HashMap<MethodSymbol, ControlFlowGraph>();
+    private Map<MethodSymbol, ControlFlowGraph> _controlFlowGraphs = new LinkedHashMap<MethodSymbol, ControlFlowGraph>();
+    private StatementIndex _index = null;
 
     public ControlFlowGraphBuilder(List<IRQuadruple> irList)
     {
         for (IRQuadruple irq : irList)
             irq.accept(this);
 
-        // end the last block
+        // end the last block, unless a return already did
         if (!_currentBlock.isEmpty())
-        {
-            // this should never happen, since every statement besides
-            // a label ends a block, and nothing should end with a label.
-            throw new IllegalStateException("didn't finish current block");
-        }
+            endBlockAndCreateEdge();
 
         // finish the last CFG
         if (!_currentCfg.isEmpty())
@@ -49,6 +48,18 @@ public class ControlFlowGraphBuilder implements IRVisitor
         return _controlFlowGraphs;
     }
 
+    // where every statement in the CFGs is, built the first time it's asked for
+    public StatementIndex getStatementIndex()
+    {
+        if (_index == null)
+        {
+            _index = new StatementIndex();
+            for (ControlFlowGraph graph : _controlFlowGraphs.values())
+                _index.addGraph(graph);
+        }
+        return _index;
+    }
+
     private void finalizeCfg(ControlFlowGraph g)
     {
         // for each basic block
@@ -114,27 +125,22 @@ public class ControlFlowGraphBuilder implements IRVisitor
     public void visit(IRArrayAssign n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRArrayLength n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRArrayLookup n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRAssignment n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRCall n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRCondJump n)
     {
@@ -146,7 +152,10 @@ public class ControlFlowGraphBuilder implements IRVisitor
     public void visit(IRCopy n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
+    }
+    public void visit(IRElementAddress n)
+    {
+        _currentBlock.addStatement(n);
     }
     public void visit(IRLabel n)
     {
@@ -173,29 +182,34 @@ public class ControlFlowGraphBuilder implements IRVisitor
     public void visit(IRNewArray n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRNewObject n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRParam n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
+    }
+    public void visit(IRPointerLoad n)
+    {
+        _currentBlock.addStatement(n);
+    }
+    public void visit(IRPointerStore n)
+    {
+        _currentBlock.addStatement(n);
     }
     public void visit(IRReturn n)
     {
         _currentBlock.addStatement(n);
         endBlockAndCreateEdge();
-
-        addControlFlowGraph();
+        // nothing falls through a return. a method can have several, so its
+        // CFG only ends at the next method's label.
+        _previous = null;
     }
     public void visit(IRUnaryAssignment n)
     {
         _currentBlock.addStatement(n);
-        endBlockAndCreateEdge();
     }
     public void visit(IRUncondJump n)
     {
@@ -0,0 +1,305 @@
+package controlflow;
+
+import java.util.*;
+
+// Dominance information for a CFG.
+//
+// Immediate dominators are computed with the Cooper-Harvey-Kennedy iterative
+// algorithm ("A Simple, Fast Dominance Algorithm"), which walks the blocks
+// in reverse postorder and converges in a couple of passes on the reducible
+// graphs MiniJava produces. The dominator tree is then numbered in pre- and
+// postorder, so "a dominates b" is an O(1) interval check, and dominance
+// frontiers are found by walking up from each join point's predecessors.
+//
+// Only blocks reachable from the root take part: an unreachable block has no
+// immediate dominator, dominates nothing and is dominated by nothing.
+public class DominatorTree
+{
+    private ControlFlowGraph _graph;
+
+    // immediate dominator of each block id (-1 for the root and unreachable blocks)
+    private int[] _idom;
+
+    // children in the dominator tree, CSR-style like the CFG's edges
+    private int[] _childOffsets;
+    private int[] _children;
+
+    // dominator tree pre/postorder numbers, and the blocks in preorder
+    private int[] _treePre;
+    private int[] _treePost;
+    private int[] _treePreorder;
+
+    // dominance frontiers, CSR-style
+    private int[] _frontierOffsets;
+    private int[] _frontiers;
+
+    public DominatorTree(ControlFlowGraph graph)
+    {
+        _graph = graph;
+        computeImmediateDominators();
+        buildTree();
+        numberTree();
+        computeFrontiers();
+    }
+
+    public ControlFlowGraph getGraph()
+    {
+        return _graph;
+    }
+
+    // returns the immediate dominator of block id, or -1 if it has none
+    public int getImmediateDominator(int id)
+    {
+        return _idom[id];
+    }
+
+    public BasicBlock getImmediateDominator(BasicBlock b)
+    {
+        int idom = _idom[b.getId()];
+        return idom < 0 ? null : _graph.getBlock(idom);
+    }
+
+    public int getChildCount(int id)
+    {
+        return _childOffsets[id + 1] - _childOffsets[id];
+    }
+
+    public int getChild(int id, int i)
+    {
+        return _children[_childOffsets[id] + i];
+    }
+
+    // true iff a dominates b (every block dominates itself)
+    public boolean dominates(int a, int b)
+    {
+        if (_treePre[a] < 0 || _treePre[b] < 0)
+            return false;
+        return _treePre[a] <= _treePre[b] && _treePost[b] <= _treePost[a];
+    }
+
+    public boolean dominates(BasicBlock a, BasicBlock b)
+    {
+        return dominates(a.getId(), b.getId());
+    }
+
+    // true iff a dominates b and a != b
+    public boolean strictlyDominates(int a, int b)
+    {
+        return a != b && dominates(a, b);
+    }
+
+    // reachable block ids in dominator tree preorder, so every block comes
+    // after its dominators
+    public int[] getTreePreorder()
+    {
+        return _treePreorder;
+    }
+
+    public int getFrontierSize(int id)
+    {
+        return _frontierOffsets[id + 1] - _frontierOffsets[id];
+    }
+
+    public int getFrontier(int id, int i)
+    {
+        return _frontiers[_frontierOffsets[id] + i];
+    }
+
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int b = 0; b < _graph.getBlockCount(); b++)
+        {
+            result.append(b);
+            result.append(": idom ");
+            result.append(_idom[b]);
+            result.append(", frontier {");
+            for (int i = 0; i < getFrontierSize(b); i++)
+            {
+                result.append(' ');
+                result.append(getFrontier(b, i));
+            }
+            result.append(" }\n");
+        }
+        return result.toString();
+    }
+
+    private void computeImmediateDominators()
+    {
+        int blockCount = _graph.getBlockCount();
+        _idom = new int[blockCount];
+        Arrays.fill(_idom, -1);
+        if (blockCount == 0)
+            return;
+
+        // postorder numbers, which intersect() uses to walk up the tree
+        int[] postorder = _graph.getPostorder();
+        int[] postNumber = new int[blockCount];
+        Arrays.fill(postNumber, -1);
+        for (int i = 0; i < postorder.length; i++)
+            postNumber[postorder[i]] = i;
+
+        int root = 0;
+        int[] reversePostorder = _graph.getReversePostorder();
+        _idom[root] = root;
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int b : reversePostorder)
+            {
+                if (b == root)
+                    continue;
+
+                // intersect the dominators of every processed predecessor
+                int newIdom = -1;
+                for (int i = 0; i < _graph.getPredecessorCount(b); i++)
+                {
+                    int pred = _graph.getPredecessor(b, i);
+                    if (_idom[pred] < 0)
+                        continue;
+                    newIdom = (newIdom < 0) ? pred : intersect(pred, newIdom, postNumber);
+                }
+
+                if (_idom[b] != newIdom)
+                {
+                    _idom[b] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        // the root's entry was only a sentinel for intersect()
+        _idom[root] = -1;
+    }
+
+    private int intersect(int a, int b, int[] postNumber)
+    {
+        while (a != b)
+        {
+            while (postNumber[a] < postNumber[b])
+                a = _idom[a];
+            while (postNumber[b] < postNumber[a])
+                b = _idom[b];
+        }
+        return a;
+    }
+
+    private void buildTree()
+    {
+        int blockCount = _graph.getBlockCount();
+        _childOffsets = new int[blockCount + 1];
+        for (int b = 0; b < blockCount; b++)
+        {
+            if (_idom[b] >= 0)
+                _childOffsets[_idom[b] + 1]++;
+        }
+        for (int b = 0; b < blockCount; b++)
+            _childOffsets[b + 1] += _childOffsets[b];
+
+        _children = new int[_childOffsets[blockCount]];
+        int[] next = Arrays.copyOf(_childOffsets, blockCount);
+        for (int b = 0; b < blockCount; b++)
+        {
+            if (_idom[b] >= 0)
+                _children[next[_idom[b]]++] = b;
+        }
+    }
+
+    // iterative DFS over the dominator tree, since it can be as deep as the CFG
+    private void numberTree()
+    {
+        int blockCount = _graph.getBlockCount();
+        _treePre = new int[blockCount];
+        _treePost = new int[blockCount];
+        Arrays.fill(_treePre, -1);
+        Arrays.fill(_treePost, -1);
+        _treePreorder = new int[_graph.getPostorder().length];
+        if (blockCount == 0)
+            return;
+
+        int preCount = 0;
+        int postCount = 0;
+        int[] stack = new int[blockCount];
+        int[] nextChild = new int[blockCount];
+        int depth = 0;
+        stack[depth++] = 0;
+        _treePreorder[preCount] = 0;
+        _treePre[0] = preCount++;
+        while (depth > 0)
+        {
+            int b = stack[depth - 1];
+            if (nextChild[b] < getChildCount(b))
+            {
+                int child = getChild(b, nextChild[b]++);
+                _treePreorder[preCount] = child;
+                _treePre[child] = preCount++;
+                stack[depth++] = child;
+            }
+            else
+            {
+                _treePost[b] = postCount++;
+                depth--;
+            }
+        }
+    }
+
+    private void computeFrontiers()
+    {
+        int blockCount = _graph.getBlockCount();
+
+        // collect (block, frontier member) pairs. a join point b is in the
+        // frontier of every block from each predecessor up to, but not
+        // including, b's immediate dominator.
+        int[] owners = new int[Math.max(16, blockCount)];
+        int[] members = new int[owners.length];
+        int pairCount = 0;
+        // last join point added to each block's frontier, to skip duplicates
+        int[] lastAdded = new int[blockCount];
+        Arrays.fill(lastAdded, -1);
+
+        for (int b = 0; b < blockCount; b++)
+        {
+            // the root has an implicit edge from the method's caller, so any
+            // edge into it makes it a join point too
+            int joinCount = (b == 0) ? 1 : 2;
+            if (_treePre[b] < 0 || _graph.getPredecessorCount(b) < joinCount)
+                continue;
+
+            for (int i = 0; i < _graph.getPredecessorCount(b); i++)
+            {
+                int runner = _graph.getPredecessor(b, i);
+                if (_treePre[runner] < 0)
+                    continue;
+
+                while (runner != _idom[b] && runner >= 0)
+                {
+                    if (lastAdded[runner] != b)
+                    {
+                        lastAdded[runner] = b;
+                        if (pairCount == owners.length)
+                        {
+                            owners = Arrays.copyOf(owners, pairCount * 2);
+                            members = Arrays.copyOf(members, pairCount * 2);
+                        }
+                        owners[pairCount] = runner;
+                        members[pairCount] = b;
+                        pairCount++;
+                    }
+                    runner = _idom[runner];
+                }
+            }
+        }
+
+        _frontierOffsets = new int[blockCount + 1];
+        for (int i = 0; i < pairCount; i++)
+            _frontierOffsets[owners[i] + 1]++;
+        for (int b = 0; b < blockCount; b++)
+            _frontierOffsets[b + 1] += _frontierOffsets[b];
+
+        _frontiers = new int[pairCount];
+        int[] next = Arrays.copyOf(_frontierOffsets, blockCount);
+        for (int i = 0; i < pairCount; i++)
+            _frontiers[next[owners[i]]++] = members[i];
+    }
+}
@@ -9,35 +9,80 @@ import java.util.*;
 
 // Performs liveness analysis on a CFG
 // Determines live-in and live-out variables for each block
+//
+// The method's variables are numbered densely and the live sets are kept as
+// bit vectors, which are solved with a worklist. Since liveness flows
+// backward, the worklist starts out in postorder (the reverse of the CFG's
+// reverse postorder), so a block is usually visited after its successors and
+// most blocks settle on their first visit.
 public class LivenessAnalysis
 {
-    private Map<BasicBlock, Set<SymbolInfo>> _liveIn;
-    private Map<BasicBlock, Set<SymbolInfo>> _liveOut;
     private CFGDefsAndUses _defsAndUses;
+    private ObjectLayoutManager _objLayouts;
+
+    // dense numbering of the method's variables
+    private Map<SymbolInfo, Integer> _variableNumbers;
+    private List<SymbolInfo> _variables;
+
+    private ControlFlowGraph _graph;
+
+    private BitSet[] _uses;
+    private BitSet[] _defs;
+    private BitSet[] _liveIn;
+    private BitSet[] _liveOut;
+
+    // instance variables, and the number of 'this' (or -1 if none are used)
+    private BitSet _instanceVariables;
+    private int _thisNumber;
 
     public LivenessAnalysis(ControlFlowGraph graph, MethodSymbol method, ObjectLayoutManager objLayouts)
     {
-        _liveIn = new HashMap<BasicBlock, Set<SymbolInfo>>();
-        _liveOut = new HashMap<BasicBlock, Set<SymbolInfo>>();
         _defsAndUses = new CFGDefsAndUses(graph, objLayouts);
+        _objLayouts = objLayouts;
 
-        calculateLiveness(graph, method, objLayouts);
+        _graph = graph;
+        numberVariables(method, objLayouts);
+        calculateLiveness();
     }
 
     public Set<SymbolInfo> getLiveIn(BasicBlock b)
     {
-        return _liveIn.get(b);
+        return new LiveSet(_liveIn[b.getId()]);
     }
 
     public Set<SymbolInfo> getLiveOut(BasicBlock b)
     {
-        return _liveOut.get(b);
+        return new LiveSet(_liveOut[b.getId()]);
+    }
+
+    // the live sets at each point in b: before each of its statements, then
+    // after the last one. so the first set is b's live-in, the last its live-out.
+    public List<Set<SymbolInfo>> getLiveSetsWithin(BasicBlock b)
+    {
+        List<IRQuadruple> statements = b.getStatements();
+        BitSet live = _liveOut[b.getId()];
+        LiveSet[] points = new LiveSet[statements.size() + 1];
+        points[statements.size()] = new LiveSet(live);
+
+        // walk backward from the live-out set, one statement at a time
+        for (int i = statements.size() - 1; i >= 0; i--)
+        {
+            IRQuadruple irq = statements.get(i);
+            live = (BitSet)live.clone();
+            for (SymbolInfo def : CFGDefsAndUses.getStatementDefinitions(irq, _objLayouts))
+                live.clear(_variableNumbers.get(def));
+            for (SymbolInfo use : CFGDefsAndUses.getStatementUsages(irq, _objLayouts))
+                live.set(_variableNumbers.get(use));
+            processInstanceVariables(live);
+            points[i] = new LiveSet(live);
+        }
+        return Arrays.<Set<SymbolInfo>>asList(points);
     }
 
     public String toString()
     {
         StringBuilder result = new StringBuilder();
-        for (BasicBlock b : _liveIn.keySet())
+        for (BasicBlock b : _graph.getAllBlocks())
         {
             result.append("BLOCK\n");
             result.append(b.toString());
@@ -58,87 +103,168 @@ public class LivenessAnalysis
         return result.toString();
     }
 
-    private void calculateLiveness(ControlFlowGraph graph, MethodSymbol method, ObjectLayoutManager objLayouts)
+    // number variables in order of first appearance, and build each block's
+    // use and def vectors
+    private void numberVariables(MethodSymbol method, ObjectLayoutManager objLayouts)
+    {
+        _variableNumbers = new HashMap<SymbolInfo, Integer>();
+        _variables = new ArrayList<SymbolInfo>();
+        _instanceVariables = new BitSet();
+        _uses = new BitSet[_graph.getBlockCount()];
+        _defs = new BitSet[_graph.getBlockCount()];
+
+        for (BasicBlock b : _graph.getAllBlocks())
+        {
+            _uses[b.getId()] = toBits(_defsAndUses.getUsages(b), objLayouts);
+            _defs[b.getId()] = toBits(_defsAndUses.getDefinitions(b), objLayouts);
+        }
+
+        // instance variables are accessed through 'this', so it's live
+        // wherever any of them are.
+        _thisNumber = -1;
+        if (!_instanceVariables.isEmpty())
+            _thisNumber = getVariableNumber(method.getVariable("this"), objLayouts);
+    }
+
+    private BitSet toBits(Set<SymbolInfo> symbols, ObjectLayoutManager objLayouts)
+    {
+        BitSet result = new BitSet();
+        for (SymbolInfo sym : symbols)
+            result.set(getVariableNumber(sym, objLayouts));
+        return result;
+    }
+
+    private int getVariableNumber(SymbolInfo sym, ObjectLayoutManager objLayouts)
+    {
+        Integer number = _variableNumbers.get(sym);
+        if (number == null)
+        {
+            number = _variables.size();
+            _variableNumbers.put(sym, number);
+            _variables.add(sym);
+            if (objLayouts.isInstanceVariable(sym))
+                _instanceVariables.set(number);
+        }
+        return number;
+    }
+
+    private void calculateLiveness()
     {
         // initialize to empty sets
-        for (BasicBlock b : graph.getAllBlocks())
+        int blockCount = _graph.getBlockCount();
+        _liveIn = new BitSet[blockCount];
+        _liveOut = new BitSet[blockCount];
+        for (int i = 0; i < blockCount; i++)
+        {
+            _liveIn[i] = new BitSet();
+            _liveOut[i] = new BitSet();
+        }
+
+        // blocks that can't be reached from the root still get live sets,
+        // so they go on the worklist after the reachable ones
+        ArrayDeque<Integer> worklist = new ArrayDeque<Integer>(blockCount);
+        boolean[] onWorklist = new boolean[blockCount];
+        for (int b : _graph.getPostorder())
+        {
+            worklist.add(b);
+            onWorklist[b] = true;
+        }
+        for (int b = 0; b < blockCount; b++)
         {
-            _liveIn.put(b, new HashSet<SymbolInfo>());
-            _liveOut.put(b, new HashSet<SymbolInfo>());
+            if (!onWorklist[b])
+            {
+                worklist.add(b);
+                onWorklist[b] = true;
+            }
         }
 
-        boolean changed = false;
-        do
+        while (!worklist.isEmpty())
         {
-            changed = false;
-            for (BasicBlock b : graph.getAllBlocks())
+            int b = worklist.poll();
+            onWorklist[b] = false;
+
+            // out is union of all of the successor's ins
+            BitSet out = _liveOut[b];
+            for (int i = 0; i < _graph.getSuccessorCount(b); i++)
+                out.or(_liveIn[_graph.getSuccessor(b, i)]);
+            processInstanceVariables(out);
+
+            // in = use[b] U (out[b] - def[b])
+            BitSet in = (BitSet)out.clone();
+            in.andNot(_defs[b]);
+            in.or(_uses[b]);
+            processInstanceVariables(in);
+
+            if (!in.equals(_liveIn[b]))
             {
-                // get new in set
-                Set<SymbolInfo> newIn = computeLiveIn(b);
-                processInstanceVariables(newIn, method, objLayouts);
-                // get new out set
-                Set<SymbolInfo> newOut = computeLiveOut(graph, b);
-                processInstanceVariables(newOut, method, objLayouts);
-
-                // compare new live-in/out with the old sets
-                Set<SymbolInfo> oldIn = _liveIn.get(b);
-                Set<SymbolInfo> oldOut = _liveOut.get(b);
-
-                if (!newIn.equals(oldIn) || !newOut.equals(oldOut))
+                _liveIn[b] = in;
+                for (int i = 0; i < _graph.getPredecessorCount(b); i++)
                 {
-                    _liveIn.put(b, newIn);
-                    _liveOut.put(b, newOut);
-                    changed = true;
+                    int pred = _graph.getPredecessor(b, i);
+                    if (!onWorklist[pred])
+                    {
+                        worklist.add(pred);
+                        onWorklist[pred] = true;
+                    }
                 }
             }
-        } while (changed);
+        }
     }
 
-    private Set<SymbolInfo> computeLiveIn(BasicBlock b)
+    // If symbols contains any instance variables, this method will add the 'this' symbol
+    // to symbols.
+    private void processInstanceVariables(BitSet symbols)
     {
-        // initialize with use[b]
-        Set<SymbolInfo> in = new HashSet<SymbolInfo>();
-        in.addAll(_defsAndUses.getUsages(b));
-
-        // compute out[n] - def[n]
-        Set<SymbolInfo> outsLessDefs = new HashSet<SymbolInfo>();
-        outsLessDefs.addAll(_liveOut.get(b));
-        outsLessDefs.removeAll(_defsAndUses.getDefinitions(b));
-
-        // in = use[b] U (out[n] - def[n])
-        in.addAll(outsLessDefs);
-        return in;
+        if (_thisNumber >= 0 && symbols.intersects(_instanceVariables))
+            symbols.set(_thisNumber);
     }
 
-    private Set<SymbolInfo> computeLiveOut(ControlFlowGraph graph, BasicBlock b)
+    // read-only view of a live set's bit vector
+    private class LiveSet extends AbstractSet<SymbolInfo>
     {
-        Set<SymbolInfo> out = new HashSet<SymbolInfo>();
+        private BitSet _bits;
 
-        // out is union of all of the successor's ins
-        for (BasicBlock succ : graph.getSuccessors(b))
+        public LiveSet(BitSet bits)
         {
-            out.addAll(_liveIn.get(succ));
+            _bits = bits;
         }
 
-        return out;
-    }
+        public boolean contains(Object o)
+        {
+            Integer number = _variableNumbers.get(o);
+            return number != null && _bits.get(number);
+        }
 
-    // If symbols contains any instance variables, this method will add the 'this' symbol
-    // to symbols.
-    private void processInstanceVariables(Set<SymbolInfo> symbols, MethodSymbol method, ObjectLayoutManager objLayouts)
-    {
-        boolean hasInstance = false;
-        for (SymbolInfo sym : symbols)
+        public int size()
         {
-            if (objLayouts.isInstanceVariable(sym))
-            {
-                hasInstance = true;
-                break;
-            }
+            return _bits.cardinality();
         }
 
-        // add the 'this' symbol to the set of symbols.
-        if (hasInstance)
-            symbols.add(method.getVariable("this"));
+        public Iterator<SymbolInfo> iterator()
+        {
+            return new Iterator<SymbolInfo>()
+            {
+                private int _next = _bits.nextSetBit(0);
+
+                public boolean hasNext()
+                {
+                    return _next >= 0;
+                }
+
+                public SymbolInfo next()
+                {
+                    if (_next < 0)
+                        throw new NoSuchElementException();
+                    SymbolInfo result = _variables.get(_next);
+                    _next = _bits.nextSetBit(_next + 1);
+                    return result;
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
     }
 }
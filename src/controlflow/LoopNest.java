@@ -0,0 +1,256 @@
+package controlflow;
+
+import java.util.*;
+
+// The natural loops of a CFG, and how they nest.
+//
+// A back edge is an edge t -> h where h dominates t, and h's loop is h plus
+// every block that reaches one of its back edges without going through h.
+// Headers are visited innermost first (in reverse dominator tree preorder),
+// so when a walk runs into a block already claimed by an inner loop it jumps
+// straight to the outermost loop found so far around that block, which
+// becomes a child of the current loop.
+//
+// Loops are numbered in that order, so every loop comes before the loops
+// enclosing it. Irreducible cycles (which MiniJava can't produce) aren't
+// found, since they have no back edges.
+public class LoopNest
+{
+    private ControlFlowGraph _graph;
+    private DominatorTree _dominators;
+
+    private int[] _headers;
+    private int[] _parents;
+    private int[] _depths;
+    private int _loopCount;
+
+    // the innermost loop containing each block, or -1
+    private int[] _innermostLoops;
+
+    // each loop's blocks (including those of nested loops), CSR-style
+    private int[] _blockOffsets;
+    private int[] _blocks;
+
+    public LoopNest(ControlFlowGraph graph, DominatorTree dominators)
+    {
+        _graph = graph;
+        _dominators = dominators;
+
+        findLoops();
+        computeDepths();
+        collectBlocks();
+    }
+
+    public int getLoopCount()
+    {
+        return _loopCount;
+    }
+
+    public int getHeader(int loop)
+    {
+        return _headers[loop];
+    }
+
+    // the loop directly enclosing loop, or -1 if it's outermost
+    public int getParent(int loop)
+    {
+        return _parents[loop];
+    }
+
+    // 1 for outermost loops
+    public int getDepth(int loop)
+    {
+        return _depths[loop];
+    }
+
+    public int getInnermostLoop(int block)
+    {
+        return _innermostLoops[block];
+    }
+
+    // how many loops contain block
+    public int getLoopDepth(int block)
+    {
+        return _innermostLoops[block] < 0 ? 0 : _depths[_innermostLoops[block]];
+    }
+
+    public boolean contains(int loop, int block)
+    {
+        int inner = _innermostLoops[block];
+        while (inner >= 0 && _depths[inner] > _depths[loop])
+            inner = _parents[inner];
+        return inner == loop;
+    }
+
+    public int getBlockCount(int loop)
+    {
+        return _blockOffsets[loop + 1] - _blockOffsets[loop];
+    }
+
+    // the loop's blocks in id order
+    public int getBlock(int loop, int i)
+    {
+        return _blocks[_blockOffsets[loop] + i];
+    }
+
+    // the unique predecessor of the header outside the loop, if the header
+    // is its only successor. otherwise -1.
+    public int getPreheader(int loop)
+    {
+        int entry = getEntry(loop);
+        if (entry < 0 || _graph.getSuccessorCount(entry) != 1)
+            return -1;
+        return entry;
+    }
+
+    // the unique reachable predecessor of the header outside the loop, or
+    // -1 if there are several
+    public int getEntry(int loop)
+    {
+        int header = _headers[loop];
+        int entry = -1;
+        for (int i = 0; i < _graph.getPredecessorCount(header); i++)
+        {
+            int pred = _graph.getPredecessor(header, i);
+            if (contains(loop, pred) || !_graph.isReachable(pred))
+                continue;
+            if (entry >= 0)
+                return -1;
+            entry = pred;
+        }
+        return entry;
+    }
+
+    // true iff control can leave the loop from block
+    public boolean isExiting(int loop, int block)
+    {
+        for (int i = 0; i < _graph.getSuccessorCount(block); i++)
+        {
+            if (!contains(loop, _graph.getSuccessor(block, i)))
+                return true;
+        }
+        return false;
+    }
+
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int loop = 0; loop < _loopCount; loop++)
+        {
+            result.append("LOOP ");
+            result.append(loop);
+            result.append(": header ");
+            result.append(_headers[loop]);
+            result.append(", parent ");
+            result.append(_parents[loop]);
+            result.append(", blocks {");
+            for (int i = 0; i < getBlockCount(loop); i++)
+            {
+                result.append(' ');
+                result.append(getBlock(loop, i));
+            }
+            result.append(" }\n");
+        }
+        return result.toString();
+    }
+
+    private void findLoops()
+    {
+        int blockCount = _graph.getBlockCount();
+        _innermostLoops = new int[blockCount];
+        Arrays.fill(_innermostLoops, -1);
+        _headers = new int[4];
+        _parents = new int[4];
+
+        int[] preorder = _dominators.getTreePreorder();
+        int[] worklist = new int[blockCount];
+        for (int i = preorder.length - 1; i >= 0; i--)
+        {
+            int header = preorder[i];
+            int size = 0;
+            for (int j = 0; j < _graph.getPredecessorCount(header); j++)
+            {
+                int pred = _graph.getPredecessor(header, j);
+                if (_dominators.dominates(header, pred))
+                    worklist[size++] = pred;
+            }
+            if (size == 0)
+                continue;
+
+            int loop = newLoop(header);
+            _innermostLoops[header] = loop;
+            while (size > 0)
+            {
+                int b = worklist[--size];
+                if (!_graph.isReachable(b))
+                    continue;
+
+                if (_innermostLoops[b] < 0)
+                {
+                    _innermostLoops[b] = loop;
+                    pushPredecessors(b, worklist, size);
+                    size += _graph.getPredecessorCount(b);
+                    continue;
+                }
+
+                // b belongs to a loop found earlier. find the outermost one,
+                // and nest it in this loop
+                int inner = _innermostLoops[b];
+                while (_parents[inner] >= 0)
+                    inner = _parents[inner];
+                if (inner == loop)
+                    continue;
+                _parents[inner] = loop;
+                pushPredecessors(_headers[inner], worklist, size);
+                size += _graph.getPredecessorCount(_headers[inner]);
+            }
+        }
+    }
+
+    private void pushPredecessors(int b, int[] worklist, int size)
+    {
+        for (int i = 0; i < _graph.getPredecessorCount(b); i++)
+            worklist[size + i] = _graph.getPredecessor(b, i);
+    }
+
+    private int newLoop(int header)
+    {
+        if (_loopCount == _headers.length)
+        {
+            _headers = Arrays.copyOf(_headers, _loopCount * 2);
+            _parents = Arrays.copyOf(_parents, _loopCount * 2);
+        }
+        _headers[_loopCount] = header;
+        _parents[_loopCount] = -1;
+        return _loopCount++;
+    }
+
+    // parents are numbered after their children, so walk backward
+    private void computeDepths()
+    {
+        _depths = new int[_loopCount];
+        for (int loop = _loopCount - 1; loop >= 0; loop--)
+            _depths[loop] = (_parents[loop] < 0) ? 1 : _depths[_parents[loop]] + 1;
+    }
+
+    private void collectBlocks()
+    {
+        int blockCount = _graph.getBlockCount();
+        _blockOffsets = new int[_loopCount + 1];
+        for (int b = 0; b < blockCount; b++)
+        {
+            for (int loop = _innermostLoops[b]; loop >= 0; loop = _parents[loop])
+                _blockOffsets[loop + 1]++;
+        }
+        for (int loop = 0; loop < _loopCount; loop++)
+            _blockOffsets[loop + 1] += _blockOffsets[loop];
+
+        _blocks = new int[_blockOffsets[_loopCount]];
+        int[] next = Arrays.copyOf(_blockOffsets, _loopCount);
+        for (int b = 0; b < blockCount; b++)
+        {
+            for (int loop = _innermostLoops[b]; loop >= 0; loop = _parents[loop])
+                _blocks[next[loop]++] = b;
+        }
+    }
+}
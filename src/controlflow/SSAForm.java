@@ -0,0 +1,664 @@
+package controlflow;
+
+import symboltable.*;
+import irgeneration.*;
+import objectimpl.*;
+
+import java.util.*;
+
+// Static single assignment form for a method's CFG, kept as a side table.
+//
+// The IR itself isn't rewritten. Instead every definition of a variable gets
+// a value number, phis are placed at the iterated dominance frontiers of each
+// variable's definitions, and renaming records which value each statement's
+// uses (and each phi's operands) read. Leaving SSA is then just dropping the
+// table: every version of a variable coalesces back into the variable, which
+// is valid as long as a pass never makes two versions of one variable live at
+// the same time (e.g. it only substitutes constants for uses, or deletes code).
+//
+// Phis are only placed for variables used in some block before being defined
+// there (semi-pruned SSA), so block-local temporaries never get them.
+// Instance variables live in memory and can change across any call, so they
+// aren't part of the form.
+//
+// Statements are numbered densely: block b's statements are
+// getStatementNumber(b, 0) .. getStatementNumber(b, size - 1). Blocks that
+// aren't reachable from the root aren't renamed, so their uses read value -1.
+public class SSAForm
+{
+    // value kinds
+    private static final int ENTRY = 0;
+    private static final int STATEMENT = 1;
+    private static final int PHI = 2;
+
+    private ControlFlowGraph _graph;
+    private DominatorTree _dominators;
+    private ObjectLayoutManager _objLayouts;
+
+    // dense numbering of the method's variables
+    private Map<SymbolInfo, Integer> _variableNumbers;
+    private List<SymbolInfo> _variables;
+
+    // statements, numbered densely in block order
+    private int[] _statementOffsets;
+    private int[] _statementBlocks;
+    private int[][] _useVariables;
+    private int[][] _useValues;
+    private int[] _definedVariables;
+    private int[] _definedValues;
+
+    // values: their kind, variable, and the statement or block defining them
+    private int _valueCount;
+    private int[] _valueKinds;
+    private int[] _valueVariables;
+    private int[] _valueDefinitions;
+    private int[] _entryValues;
+
+    // phis: each phi value's operands, in predecessor order, and each block's phis
+    private int[][] _phiOperands;
+    private int[][] _blockPhis;
+    private int[] _blockPhiCounts;
+
+    // def-use chains, CSR-style. a user is a statement number, or ~v for phi v
+    private int[] _userOffsets;
+    private int[] _users;
+
+    // per variable: how many statements define it, and whether any of its
+    // phis or entry values is ever read
+    private int[] _definitionCounts;
+    private boolean[] _readsOtherValues;
+
+    public SSAForm(ControlFlowGraph graph, DominatorTree dominators, ObjectLayoutManager objLayouts)
+    {
+        _graph = graph;
+        _dominators = dominators;
+        _objLayouts = objLayouts;
+
+        numberStatements();
+        placePhis();
+        rename();
+        buildUsers();
+        countDefinitions();
+    }
+
+    public ControlFlowGraph getGraph()
+    {
+        return _graph;
+    }
+
+    public DominatorTree getDominators()
+    {
+        return _dominators;
+    }
+
+    // true iff sym is renamed by the form, i.e. it isn't a constant or an
+    // instance variable
+    public boolean isVariable(SymbolInfo sym)
+    {
+        return _variableNumbers.containsKey(sym);
+    }
+
+    // true iff sym is defined by exactly one statement, and every read of
+    // it reads that statement's value
+    public boolean isSingleAssignment(SymbolInfo sym)
+    {
+        Integer number = _variableNumbers.get(sym);
+        return number != null && _definitionCounts[number] == 1 && !_readsOtherValues[number];
+    }
+
+    public int getVariableCount()
+    {
+        return _variables.size();
+    }
+
+    // sym's number in the form, or -1 if it isn't renamed
+    public int getVariableNumber(SymbolInfo sym)
+    {
+        Integer number = _variableNumbers.get(sym);
+        return number == null ? -1 : number;
+    }
+
+    public SymbolInfo getVariable(int number)
+    {
+        return _variables.get(number);
+    }
+
+    public int getStatementCount()
+    {
+        return _statementBlocks.length;
+    }
+
+    public int getStatementNumber(int block, int index)
+    {
+        return _statementOffsets[block] + index;
+    }
+
+    public int getStatementBlock(int statement)
+    {
+        return _statementBlocks[statement];
+    }
+
+    public IRQuadruple getStatement(int statement)
+    {
+        int block = _statementBlocks[statement];
+        return _graph.getBlock(block).getStatement(statement - _statementOffsets[block]);
+    }
+
+    // the variables a statement reads, and the values they read
+    public int getUseCount(int statement)
+    {
+        return _useVariables[statement].length;
+    }
+
+    public SymbolInfo getUseVariable(int statement, int i)
+    {
+        return _variables.get(_useVariables[statement][i]);
+    }
+
+    public int getUseValue(int statement, int i)
+    {
+        return _useValues[statement][i];
+    }
+
+    // the value of sym read by statement, or -1 if it doesn't read sym
+    public int getUseValue(int statement, SymbolInfo sym)
+    {
+        Integer number = _variableNumbers.get(sym);
+        if (number == null)
+            return -1;
+        for (int i = 0; i < _useVariables[statement].length; i++)
+        {
+            if (_useVariables[statement][i] == number)
+                return _useValues[statement][i];
+        }
+        return -1;
+    }
+
+    // the value a statement defines, or -1
+    public int getDefinedValue(int statement)
+    {
+        return _definedValues[statement];
+    }
+
+    public int getValueCount()
+    {
+        return _valueCount;
+    }
+
+    public SymbolInfo getValueVariable(int value)
+    {
+        return _variables.get(_valueVariables[value]);
+    }
+
+    public int getValueVariableNumber(int value)
+    {
+        return _valueVariables[value];
+    }
+
+    // a variable's value on entry to the method (a formal, 'this', or
+    // whatever an uninitialized local happens to hold)
+    public boolean isEntryValue(int value)
+    {
+        return _valueKinds[value] == ENTRY;
+    }
+
+    public boolean isPhi(int value)
+    {
+        return _valueKinds[value] == PHI;
+    }
+
+    // the statement defining a value, or -1 for phis and entry values
+    public int getDefiningStatement(int value)
+    {
+        return _valueKinds[value] == STATEMENT ? _valueDefinitions[value] : -1;
+    }
+
+    // the block defining a value. entry values are defined in the root.
+    public int getDefiningBlock(int value)
+    {
+        switch (_valueKinds[value])
+        {
+            case STATEMENT:
+                return _statementBlocks[_valueDefinitions[value]];
+            case PHI:
+                return _valueDefinitions[value];
+            default:
+                return 0;
+        }
+    }
+
+    public int getPhiCount(int block)
+    {
+        return _blockPhiCounts[block];
+    }
+
+    public int getPhi(int block, int i)
+    {
+        return _blockPhis[block][i];
+    }
+
+    // the value flowing into phi along its block's i'th predecessor edge,
+    // or -1 if that predecessor is unreachable
+    public int getPhiOperand(int phi, int i)
+    {
+        return _phiOperands[phi][i];
+    }
+
+    public int getUserCount(int value)
+    {
+        return _userOffsets[value + 1] - _userOffsets[value];
+    }
+
+    // the i'th user of a value: a statement number, or ~phi for a phi
+    public int getUser(int value, int i)
+    {
+        return _users[_userOffsets[value] + i];
+    }
+
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int b = 0; b < _graph.getBlockCount(); b++)
+        {
+            result.append("BLOCK ");
+            result.append(b);
+            result.append('\n');
+            for (int i = 0; i < getPhiCount(b); i++)
+            {
+                int phi = getPhi(b, i);
+                result.append('\t');
+                appendValue(result, phi);
+                result.append(" := phi(");
+                for (int j = 0; j < _phiOperands[phi].length; j++)
+                {
+                    if (j > 0)
+                        result.append(", ");
+                    appendValue(result, _phiOperands[phi][j]);
+                }
+                result.append(")\n");
+            }
+            for (int i = 0; i < _graph.getBlock(b).size(); i++)
+            {
+                int statement = getStatementNumber(b, i);
+                result.append('\t');
+                result.append(getStatement(statement));
+                if (_definedValues[statement] >= 0)
+                {
+                    result.append("\t; defines ");
+                    appendValue(result, _definedValues[statement]);
+                }
+                for (int j = 0; j < getUseCount(statement); j++)
+                {
+                    result.append(j == 0 ? "\t; reads " : ", ");
+                    appendValue(result, _useValues[statement][j]);
+                }
+                result.append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    private void appendValue(StringBuilder result, int value)
+    {
+        if (value < 0)
+        {
+            result.append('?');
+            return;
+        }
+        result.append(getValueVariable(value).getName());
+        result.append('_');
+        result.append(value);
+    }
+
+    // number the statements, and find which variables each one reads and writes
+    private void numberStatements()
+    {
+        _variableNumbers = new HashMap<SymbolInfo, Integer>();
+        _variables = new ArrayList<SymbolInfo>();
+
+        int blockCount = _graph.getBlockCount();
+        _statementOffsets = new int[blockCount + 1];
+        for (int b = 0; b < blockCount; b++)
+            _statementOffsets[b + 1] = _statementOffsets[b] + _graph.getBlock(b).size();
+
+        int statementCount = _statementOffsets[blockCount];
+        _statementBlocks = new int[statementCount];
+        _useVariables = new int[statementCount][];
+        _useValues = new int[statementCount][];
+        _definedVariables = new int[statementCount];
+        _definedValues = new int[statementCount];
+        Arrays.fill(_definedValues, -1);
+
+        for (int b = 0; b < blockCount; b++)
+        {
+            List<IRQuadruple> statements = _graph.getBlock(b).getStatements();
+            for (int i = 0; i < statements.size(); i++)
+            {
+                int statement = _statementOffsets[b] + i;
+                IRQuadruple irq = statements.get(i);
+                _statementBlocks[statement] = b;
+
+                int[] uses = new int[3];
+                int useCount = 0;
+                for (SymbolInfo use : CFGDefsAndUses.getStatementUsages(irq, _objLayouts))
+                {
+                    if (!_objLayouts.isInstanceVariable(use))
+                        uses[useCount++] = numberVariable(use);
+                }
+                _useVariables[statement] = Arrays.copyOf(uses, useCount);
+                _useValues[statement] = new int[useCount];
+                Arrays.fill(_useValues[statement], -1);
+
+                _definedVariables[statement] = -1;
+                for (SymbolInfo def : CFGDefsAndUses.getStatementDefinitions(irq, _objLayouts))
+                {
+                    if (!_objLayouts.isInstanceVariable(def))
+                        _definedVariables[statement] = numberVariable(def);
+                }
+            }
+        }
+
+        _valueKinds = new int[Math.max(16, statementCount)];
+        _valueVariables = new int[_valueKinds.length];
+        _valueDefinitions = new int[_valueKinds.length];
+        _phiOperands = new int[_valueKinds.length][];
+        _entryValues = new int[_variables.size()];
+        Arrays.fill(_entryValues, -1);
+    }
+
+    private void countDefinitions()
+    {
+        _definitionCounts = new int[_variables.size()];
+        _readsOtherValues = new boolean[_variables.size()];
+        for (int value = 0; value < _valueCount; value++)
+        {
+            if (_valueKinds[value] == STATEMENT)
+                _definitionCounts[_valueVariables[value]]++;
+            else if (getUserCount(value) > 0)
+                _readsOtherValues[_valueVariables[value]] = true;
+        }
+    }
+
+    private int numberVariable(SymbolInfo sym)
+    {
+        Integer number = _variableNumbers.get(sym);
+        if (number == null)
+        {
+            number = _variables.size();
+            _variableNumbers.put(sym, number);
+            _variables.add(sym);
+        }
+        return number;
+    }
+
+    private int newValue(int kind, int variable, int definition)
+    {
+        if (_valueCount == _valueKinds.length)
+        {
+            int capacity = _valueCount * 2;
+            _valueKinds = Arrays.copyOf(_valueKinds, capacity);
+            _valueVariables = Arrays.copyOf(_valueVariables, capacity);
+            _valueDefinitions = Arrays.copyOf(_valueDefinitions, capacity);
+            _phiOperands = Arrays.copyOf(_phiOperands, capacity);
+        }
+        _valueKinds[_valueCount] = kind;
+        _valueVariables[_valueCount] = variable;
+        _valueDefinitions[_valueCount] = definition;
+        return _valueCount++;
+    }
+
+    private int getEntryValue(int variable)
+    {
+        if (_entryValues[variable] < 0)
+            _entryValues[variable] = newValue(ENTRY, variable, -1);
+        return _entryValues[variable];
+    }
+
+    // Cytron et al.'s phi placement, for each variable that's live across blocks
+    private void placePhis()
+    {
+        int blockCount = _graph.getBlockCount();
+        int variableCount = _variables.size();
+        _blockPhis = new int[blockCount][];
+        _blockPhiCounts = new int[blockCount];
+
+        // find the variables read before they're written in some block, and
+        // the blocks defining each variable, as linked lists threaded through
+        // nextDef (a block defining a variable twice is only listed once)
+        boolean[] crossesBlocks = new boolean[variableCount];
+        int[] firstDef = new int[variableCount];
+        Arrays.fill(firstDef, -1);
+        int[] defBlocks = new int[Math.max(16, getStatementCount())];
+        int[] nextDef = new int[defBlocks.length];
+        int defCount = 0;
+        int[] definedIn = new int[variableCount];
+        Arrays.fill(definedIn, -1);
+
+        for (int b = 0; b < blockCount; b++)
+        {
+            if (!_graph.isReachable(b))
+                continue;
+            for (int statement = _statementOffsets[b]; statement < _statementOffsets[b + 1]; statement++)
+            {
+                for (int variable : _useVariables[statement])
+                {
+                    if (definedIn[variable] != b)
+                        crossesBlocks[variable] = true;
+                }
+                int variable = _definedVariables[statement];
+                if (variable >= 0 && definedIn[variable] != b)
+                {
+                    definedIn[variable] = b;
+                    defBlocks[defCount] = b;
+                    nextDef[defCount] = firstDef[variable];
+                    firstDef[variable] = defCount;
+                    defCount++;
+                }
+            }
+        }
+
+        // place phis at the iterated dominance frontier of each variable's
+        // definitions. the stamps avoid clearing per-variable arrays.
+        int[] hasPhi = new int[blockCount];
+        int[] onWorklist = new int[blockCount];
+        Arrays.fill(hasPhi, -1);
+        Arrays.fill(onWorklist, -1);
+        int[] worklist = new int[blockCount];
+        for (int variable = 0; variable < variableCount; variable++)
+        {
+            if (!crossesBlocks[variable])
+                continue;
+
+            int size = 0;
+            for (int d = firstDef[variable]; d >= 0; d = nextDef[d])
+            {
+                onWorklist[defBlocks[d]] = variable;
+                worklist[size++] = defBlocks[d];
+            }
+            while (size > 0)
+            {
+                int b = worklist[--size];
+                for (int i = 0; i < _dominators.getFrontierSize(b); i++)
+                {
+                    int join = _dominators.getFrontier(b, i);
+                    if (hasPhi[join] == variable)
+                        continue;
+                    hasPhi[join] = variable;
+                    addPhi(join, variable);
+                    if (onWorklist[join] != variable)
+                    {
+                        onWorklist[join] = variable;
+                        worklist[size++] = join;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addPhi(int block, int variable)
+    {
+        int phi = newValue(PHI, variable, block);
+        _phiOperands[phi] = new int[_graph.getPredecessorCount(block)];
+        Arrays.fill(_phiOperands[phi], -1);
+
+        if (_blockPhis[block] == null)
+            _blockPhis[block] = new int[2];
+        else if (_blockPhiCounts[block] == _blockPhis[block].length)
+            _blockPhis[block] = Arrays.copyOf(_blockPhis[block], _blockPhiCounts[block] * 2);
+        _blockPhis[block][_blockPhiCounts[block]++] = phi;
+    }
+
+    // walk the dominator tree, tracking each variable's current value. the
+    // undo log records the values a block replaced, so they can be restored
+    // once its subtree is done.
+    private void rename()
+    {
+        int blockCount = _graph.getBlockCount();
+        if (blockCount == 0)
+            return;
+
+        int[] current = new int[_variables.size()];
+        Arrays.fill(current, -1);
+        int[] undoVariables = new int[Math.max(16, getStatementCount())];
+        int[] undoValues = new int[undoVariables.length];
+        int undoSize = 0;
+
+        int[] stack = new int[blockCount];
+        int[] nextChild = new int[blockCount];
+        int[] undoMarks = new int[blockCount];
+        int depth = 0;
+        stack[depth++] = 0;
+        boolean entering = true;
+        while (depth > 0)
+        {
+            int b = stack[depth - 1];
+            if (entering)
+            {
+                undoMarks[b] = undoSize;
+
+                // phis, then statements, define new values
+                for (int i = 0; i < _blockPhiCounts[b]; i++)
+                {
+                    int phi = _blockPhis[b][i];
+                    if (undoSize == undoVariables.length)
+                    {
+                        undoVariables = Arrays.copyOf(undoVariables, undoSize * 2);
+                        undoValues = Arrays.copyOf(undoValues, undoSize * 2);
+                    }
+                    undoVariables[undoSize] = _valueVariables[phi];
+                    undoValues[undoSize++] = current[_valueVariables[phi]];
+                    current[_valueVariables[phi]] = phi;
+                }
+                for (int statement = _statementOffsets[b]; statement < _statementOffsets[b + 1]; statement++)
+                {
+                    int[] uses = _useVariables[statement];
+                    for (int i = 0; i < uses.length; i++)
+                        _useValues[statement][i] = (current[uses[i]] >= 0) ? current[uses[i]] : getEntryValue(uses[i]);
+
+                    int variable = _definedVariables[statement];
+                    if (variable >= 0)
+                    {
+                        int value = newValue(STATEMENT, variable, statement);
+                        _definedValues[statement] = value;
+                        if (undoSize == undoVariables.length)
+                        {
+                            undoVariables = Arrays.copyOf(undoVariables, undoSize * 2);
+                            undoValues = Arrays.copyOf(undoValues, undoSize * 2);
+                        }
+                        undoVariables[undoSize] = variable;
+                        undoValues[undoSize++] = current[variable];
+                        current[variable] = value;
+                    }
+                }
+
+                // fill in this block's operand of each successor's phis
+                for (int i = 0; i < _graph.getSuccessorCount(b); i++)
+                {
+                    int succ = _graph.getSuccessor(b, i);
+                    int predIndex = getPredecessorIndex(succ, b);
+                    for (int j = 0; j < _blockPhiCounts[succ]; j++)
+                    {
+                        int phi = _blockPhis[succ][j];
+                        int variable = _valueVariables[phi];
+                        _phiOperands[phi][predIndex] = (current[variable] >= 0) ? current[variable] : getEntryValue(variable);
+                    }
+                }
+            }
+
+            if (nextChild[b] < _dominators.getChildCount(b))
+            {
+                stack[depth++] = _dominators.getChild(b, nextChild[b]++);
+                entering = true;
+            }
+            else
+            {
+                // restore the values live on entry to b
+                while (undoSize > undoMarks[b])
+                {
+                    undoSize--;
+                    current[undoVariables[undoSize]] = undoValues[undoSize];
+                }
+                depth--;
+                entering = false;
+            }
+        }
+    }
+
+    private int getPredecessorIndex(int block, int pred)
+    {
+        for (int i = 0; i < _graph.getPredecessorCount(block); i++)
+        {
+            if (_graph.getPredecessor(block, i) == pred)
+                return i;
+        }
+        throw new IllegalArgumentException("block " + pred + " is not a predecessor of " + block);
+    }
+
+    private void buildUsers()
+    {
+        _userOffsets = new int[_valueCount + 1];
+        for (int statement = 0; statement < getStatementCount(); statement++)
+        {
+            for (int value : _useValues[statement])
+            {
+                if (value >= 0)
+                    _userOffsets[value + 1]++;
+            }
+        }
+        for (int value = 0; value < _valueCount; value++)
+        {
+            if (_valueKinds[value] == PHI)
+            {
+                for (int operand : _phiOperands[value])
+                {
+                    if (operand >= 0)
+                        _userOffsets[operand + 1]++;
+                }
+            }
+        }
+        for (int value = 0; value < _valueCount; value++)
+            _userOffsets[value + 1] += _userOffsets[value];
+
+        _users = new int[_userOffsets[_valueCount]];
+        int[] next = Arrays.copyOf(_userOffsets, _valueCount);
+        for (int statement = 0; statement < getStatementCount(); statement++)
+        {
+            for (int value : _useValues[statement])
+            {
+                if (value >= 0)
+                    _users[next[value]++] = statement;
+            }
+        }
+        for (int value = 0; value < _valueCount; value++)
+        {
+            if (_valueKinds[value] == PHI)
+            {
+                for (int operand : _phiOperands[value])
+                {
+                    if (operand >= 0)
+                        _users[next[operand]++] = ~value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package controlflow;
+
+import java.util.*;
+
+import irgeneration.*;
+
+// Where each statement is: its CFG, its basic block and its position in the
+// block. ControlFlowGraphBuilder builds one along with the CFGs, and passes
+// that replace, insert or remove statements do it through the index, so the
+// index and the blocks stay in step without rebuilding anything.
+//
+// Statements are looked up by identity. After a block changes, its positions
+// are renumbered the next time one is asked for, so removing many statements
+// from a block costs a single walk over it.
+//
+// Only straight-line statements can be changed: jumps, labels and returns
+// shape the CFG, so changing them means building it again.
+public class StatementIndex
+{
+    private Map<IRQuadruple, ControlFlowGraph> _graphs;
+    private Map<IRQuadruple, BasicBlock> _blocks;
+    private Map<IRQuadruple, Integer> _positions;
+    // blocks whose positions are out of date
+    private Set<BasicBlock> _stale;
+
+    public StatementIndex()
+    {
+        _graphs = new IdentityHashMap<IRQuadruple, ControlFlowGraph>();
+        _blocks = new IdentityHashMap<IRQuadruple, BasicBlock>();
+        _positions = new IdentityHashMap<IRQuadruple, Integer>();
+        _stale = Collections.newSetFromMap(new IdentityHashMap<BasicBlock, Boolean>());
+    }
+
+    // index every statement in graph
+    public void addGraph(ControlFlowGraph graph)
+    {
+        for (BasicBlock block : graph.getAllBlocks())
+        {
+            for (int i = 0; i < block.size(); i++)
+                put(graph, block, block.getStatement(i), i);
+        }
+    }
+
+    public boolean contains(IRQuadruple irq)
+    {
+        return _blocks.containsKey(irq);
+    }
+
+    // the CFG containing irq
+    public ControlFlowGraph getGraph(IRQuadruple irq)
+    {
+        ControlFlowGraph graph = _graphs.get(irq);
+        if (graph == null)
+            throw new IllegalArgumentException("statement not found in any CFG");
+        return graph;
+    }
+
+    // the block containing irq
+    public BasicBlock getBlock(IRQuadruple irq)
+    {
+        BasicBlock block = _blocks.get(irq);
+        if (block == null)
+            throw new IllegalArgumentException("statement not found in any BasicBlock");
+        return block;
+    }
+
+    // irq's index within its block
+    public int getPosition(IRQuadruple irq)
+    {
+        BasicBlock block = getBlock(irq);
+        if (_stale.remove(block))
+        {
+            for (int i = 0; i < block.size(); i++)
+                _positions.put(block.getStatement(i), i);
+        }
+        return _positions.get(irq);
+    }
+
+    // put replacement where irq is
+    public void replace(IRQuadruple irq, IRQuadruple replacement)
+    {
+        checkStraightLine(irq);
+        checkStraightLine(replacement);
+        int position = getPosition(irq);
+        BasicBlock block = getBlock(irq);
+        block.setStatement(position, replacement);
+        put(getGraph(irq), block, replacement, position);
+        forget(irq);
+    }
+
+    // put irq right after previous, in previous's block
+    public void insertAfter(IRQuadruple previous, IRQuadruple irq)
+    {
+        checkStraightLine(irq);
+        int position = getPosition(previous) + 1;
+        BasicBlock block = getBlock(previous);
+        block.addStatement(position, irq);
+        put(getGraph(previous), block, irq, position);
+        _stale.add(block);
+    }
+
+    public void remove(IRQuadruple irq)
+    {
+        removeAll(Collections.singleton(irq));
+    }
+
+    // remove every statement in statements from its block
+    public void removeAll(Collection<IRQuadruple> statements)
+    {
+        Set<IRQuadruple> removed = Collections.newSetFromMap(new IdentityHashMap<IRQuadruple, Boolean>());
+        Set<BasicBlock> blocks = new LinkedHashSet<BasicBlock>();
+        for (IRQuadruple irq : statements)
+        {
+            checkStraightLine(irq);
+            blocks.add(getBlock(irq));
+            removed.add(irq);
+        }
+
+        for (BasicBlock block : blocks)
+        {
+            block.removeStatements(removed);
+            _stale.add(block);
+        }
+        for (IRQuadruple irq : removed)
+            forget(irq);
+    }
+
+    private void put(ControlFlowGraph graph, BasicBlock block, IRQuadruple irq, int position)
+    {
+        _graphs.put(irq, graph);
+        _blocks.put(irq, block);
+        _positions.put(irq, position);
+    }
+
+    private void forget(IRQuadruple irq)
+    {
+        _graphs.remove(irq);
+        _blocks.remove(irq);
+        _positions.remove(irq);
+    }
+
+    private void checkStraightLine(IRQuadruple irq)
+    {
+        if (irq instanceof IRCondJump || irq instanceof IRUncondJump || irq instanceof IRLabel || irq instanceof IRReturn)
+            throw new IllegalArgumentException("cannot change " + irq + " without rebuilding the CFG");
+    }
+}
@@ -5,6 +5,9 @@ import codegen.CodeGenerator;
 
 public class IRArrayAssign extends IRQuadruple{
 
+  // a checked assignment traps if the index is out of bounds (see -safe)
+  private boolean _checked;
+
   public IRArrayAssign(SymbolInfo arg1, SymbolInfo arg2, SymbolInfo result)
   {
     super(null, arg1, arg2, result);
@@ -12,7 +15,10 @@ public class IRArrayAssign extends IRQuadruple{
 
   public String toString()
   {
-      StringBuilder output = new StringBuilder(_arg1.getName());
+      StringBuilder output = new StringBuilder();
+      if(_checked)
+        output.append("checked ");
+      output.append(_arg1.getName());
       output.append("[");
       output.append(_arg2.getName());
       output.append("]");
@@ -34,6 +40,16 @@ public class IRArrayAssign extends IRQuadruple{
     return changed;
   }
 
+  public boolean isChecked()
+  {
+    return _checked;
+  }
+
+  public void setChecked(boolean checked)
+  {
+    _checked = checked;
+  }
+
   public boolean isDefOf(SymbolInfo sym)
   {
     return false;
@@ -5,6 +5,9 @@ import codegen.CodeGenerator;
 
 public class IRArrayLookup extends IRQuadruple{
 
+  // a checked lookup traps if the index is out of bounds (see -safe)
+  private boolean _checked;
+
   public IRArrayLookup(SymbolInfo arg1, SymbolInfo arg2, SymbolInfo result)
   {
     super(null, arg1, arg2, result);
@@ -14,6 +17,8 @@ public class IRArrayLookup extends IRQuadruple{
   {
       StringBuilder output = new StringBuilder(_result.getName());
       output.append(" := ");
+      if(_checked)
+        output.append("checked ");
       output.append(_arg1.getName());
       output.append("[");
       output.append(_arg2.getName());
@@ -21,6 +26,16 @@ public class IRArrayLookup extends IRQuadruple{
       return output.toString();
   }
 
+  public boolean isChecked()
+  {
+    return _checked;
+  }
+
+  public void setChecked(boolean checked)
+  {
+    _checked = checked;
+  }
+
   public void accept(IRVisitor g)
   {
     g.visit(this);
@@ -7,6 +7,8 @@ public class IRCall extends IRQuadruple{
 
   private int _numParams;
   private String _label;
+  // a tail call jumps to the method, which returns straight to our caller
+  private boolean _tail;
 
   public IRCall(MethodSymbol arg1, int numParams, SymbolInfo result)
   {
@@ -23,6 +25,8 @@ public class IRCall extends IRQuadruple{
         output.append(_result.getName());
         output.append(" := ");
       }
+      if(_tail)
+        output.append("tail ");
       output.append(_op);
       output.append(" ");
       output.append(_arg1.getName());
@@ -31,6 +35,22 @@ public class IRCall extends IRQuadruple{
       return output.toString();
   }
 
+  // including the receiver
+  public int getParamCount()
+  {
+    return _numParams;
+  }
+
+  public boolean isTail()
+  {
+    return _tail;
+  }
+
+  public void setTail(boolean tail)
+  {
+    _tail = tail;
+  }
+
   public void accept(IRVisitor g)
   {
     g.visit(this);
@@ -0,0 +1,29 @@
+package irgeneration;
+
+import symboltable.SymbolInfo;
+import codegen.CodeGenerator;
+
+// the address of an array element: result := &arg1[arg2]
+public class IRElementAddress extends IRQuadruple{
+
+  public IRElementAddress(SymbolInfo arg1, SymbolInfo arg2, SymbolInfo result)
+  {
+    super(null, arg1, arg2, result);
+  }
+
+  public String toString()
+  {
+      StringBuilder output = new StringBuilder(_result.getName());
+      output.append(" := &");
+      output.append(_arg1.getName());
+      output.append("[");
+      output.append(_arg2.getName());
+      output.append("]");
+      return output.toString();
+  }
+
+  public void accept(IRVisitor g)
+  {
+    g.visit(this);
+  }
+}
@@ -14,8 +14,15 @@ public class IRGenVisitor {
   private int _ifCount;
   private int _loopCount;
   private int _loopEndCount;
+  // whether array accesses are bounds checked
+  private boolean _checkBounds;
 
   public IRGenVisitor(SymbolTable symbols)
+  {
+    this(symbols, false);
+  }
+
+  public IRGenVisitor(SymbolTable symbols, boolean checkBounds)
   {
     _irList = new ArrayList<IRQuadruple>();
     _tempCount = 0;
@@ -23,6 +30,7 @@ public class IRGenVisitor {
     _loopCount = 0;
     _loopEndCount = 0;
     _symbolTable = symbols;
+    _checkBounds = checkBounds;
   }
 
   //// UTILITY FUNCTIONS /////
@@ -276,6 +284,7 @@ public class IRGenVisitor {
     SymbolInfo arg2 = n.e1.accept(this);
     SymbolInfo result = n.e2.accept(this);
     IRArrayAssign quad = new IRArrayAssign(arg1, arg2, result);
+    quad.setChecked(_checkBounds);
     _irList.add(quad);
     return null;
   }
@@ -341,6 +350,7 @@ public class IRGenVisitor {
     SymbolInfo arg2 = n.e2.accept(this);
     SymbolInfo result = getNextTemp(new IntegerType());
     IRArrayLookup quad = new IRArrayLookup(arg1, arg2, result);
+    quad.setChecked(_checkBounds);
     _irList.add(quad);
     return result;
   }
@@ -5,6 +5,8 @@ import symboltable.SymbolInfo;
 public class IRNewArray extends IRQuadruple{
 
   private String _type;
+  // a stack array lives in the allocating method's frame
+  private boolean _stack;
 
   public IRNewArray(SymbolInfo arg2, SymbolInfo result)
   {
@@ -16,6 +18,8 @@ public class IRNewArray extends IRQuadruple{
   {
       StringBuilder output = new StringBuilder(_result.getName());
       output.append(" := ");
+      if(_stack)
+        output.append("stack ");
       output.append(_op);
       output.append(" ");
       output.append(_type);
@@ -24,6 +28,16 @@ public class IRNewArray extends IRQuadruple{
       return output.toString();
   }
 
+  public boolean isStack()
+  {
+    return _stack;
+  }
+
+  public void setStack(boolean stack)
+  {
+    _stack = stack;
+  }
+
   public void accept(IRVisitor g)
   {
     g.visit(this);
@@ -5,6 +5,9 @@ import codegen.CodeGenerator;
 
 public class IRNewObject extends IRQuadruple{
 
+  // a stack object lives in the allocating method's frame
+  private boolean _stack;
+
   public IRNewObject(SymbolInfo arg1, SymbolInfo result)
   {
     super("new", arg1, null, result);
@@ -14,12 +17,24 @@ public class IRNewObject extends IRQuadruple{
   {
       StringBuilder output = new StringBuilder(_result.getName());
       output.append(" := ");
+      if(_stack)
+        output.append("stack ");
       output.append(_op);
       output.append(" ");
       output.append(_arg1.getName());
       return output.toString();
   }
 
+  public boolean isStack()
+  {
+    return _stack;
+  }
+
+  public void setStack(boolean stack)
+  {
+    _stack = stack;
+  }
+
   public void accept(IRVisitor g)
   {
     g.visit(this);
@@ -0,0 +1,35 @@
+package irgeneration;
+
+import symboltable.SymbolInfo;
+import codegen.CodeGenerator;
+
+// load a word through a pointer: result := *(arg1 + offset)
+public class IRPointerLoad extends IRQuadruple{
+
+  private int _offset;
+
+  public IRPointerLoad(SymbolInfo arg1, int offset, SymbolInfo result)
+  {
+    super(null, arg1, null, result);
+    _offset = offset;
+  }
+
+  public String toString()
+  {
+      StringBuilder output = new StringBuilder(_result.getName());
+      output.append(" := ");
+      IRPointerStore.appendPointer(output, _arg1, _offset);
+      return output.toString();
+  }
+
+  // in bytes
+  public int getOffset()
+  {
+    return _offset;
+  }
+
+  public void accept(IRVisitor g)
+  {
+    g.visit(this);
+  }
+}
@@ -0,0 +1,52 @@
+package irgeneration;
+
+import symboltable.SymbolInfo;
+import codegen.CodeGenerator;
+
+// store a word through a pointer: *(arg1 + offset) := arg2
+public class IRPointerStore extends IRQuadruple{
+
+  private int _offset;
+
+  public IRPointerStore(SymbolInfo arg1, int offset, SymbolInfo arg2)
+  {
+    super(null, arg1, arg2, null);
+    _offset = offset;
+  }
+
+  public String toString()
+  {
+      StringBuilder output = new StringBuilder();
+      appendPointer(output, _arg1, _offset);
+      output.append(" := ");
+      output.append(_arg2.getName());
+      return output.toString();
+  }
+
+  // in bytes
+  public int getOffset()
+  {
+    return _offset;
+  }
+
+  // *p, or *(p + offset)
+  static void appendPointer(StringBuilder output, SymbolInfo pointer, int offset)
+  {
+      output.append("*");
+      if (offset == 0)
+      {
+        output.append(pointer.getName());
+        return;
+      }
+      output.append("(");
+      output.append(pointer.getName());
+      output.append(offset < 0 ? " - " : " + ");
+      output.append(Math.abs(offset));
+      output.append(")");
+  }
+
+  public void accept(IRVisitor g)
+  {
+    g.visit(this);
+  }
+}
@@ -9,10 +9,13 @@ public interface IRVisitor
     public void visit(IRCall n);
     public void visit(IRCondJump n);
     public void visit(IRCopy n);
+    public void visit(IRElementAddress n);
     public void visit(IRLabel n);
     public void visit(IRNewArray n);
     public void visit(IRNewObject n);
     public void visit(IRParam n);
+    public void visit(IRPointerLoad n);
+    public void visit(IRPointerStore n);
     public void visit(IRReturn n);
     public void visit(IRUnaryAssignment n);
     public void visit(IRUncondJump n);
@@ -0,0 +1,132 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Mark-and-sweep dead code elimination over a method's SSA form.
+//
+// Statements with side effects are roots: calls and their params, array and
+// instance variable stores, returns, jumps and labels. Marking follows each
+// live statement's uses back to the statements and phis defining them, so a
+// computation is kept only if some root transitively depends on it. Each
+// statement and value is visited at most once.
+//
+// Everything else is swept, including arithmetic, lookups and lengths that
+// would have trapped: a computation nothing reads is removed even if running
+// it would have ended the program. Bounds checked lookups (see -safe) are
+// the exception, since reporting a bad index is the point of checking.
+public class AggressiveDeadCodeEliminator
+{
+    private ControlFlowGraph _graph;
+    private SSAForm _ssa;
+
+    private boolean[] _liveStatements;
+    private boolean[] _liveValues;
+    private int _removed = 0;
+
+    public AggressiveDeadCodeEliminator(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr)
+    {
+        this(new SSAForm(graph, new DominatorTree(graph), objLayoutMgr));
+    }
+
+    public AggressiveDeadCodeEliminator(SSAForm ssa)
+    {
+        _graph = ssa.getGraph();
+        _ssa = ssa;
+
+        mark();
+    }
+
+    public boolean wasOptimized()
+    {
+        return _removed > 0;
+    }
+
+    // how many statements were removed
+    public int getRemovedCount()
+    {
+        return _removed;
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (int statement = 0; statement < _ssa.getStatementCount(); statement++)
+        {
+            if (_liveStatements[statement])
+                result.add(_ssa.getStatement(statement));
+        }
+        return result;
+    }
+
+    private void mark()
+    {
+        _liveStatements = new boolean[_ssa.getStatementCount()];
+        _liveValues = new boolean[_ssa.getValueCount()];
+        int[] worklist = new int[_ssa.getValueCount()];
+        int size = 0;
+
+        for (int statement = 0; statement < _ssa.getStatementCount(); statement++)
+        {
+            if (!isRemovable(_ssa.getStatement(statement)))
+                size = markStatement(statement, worklist, size);
+        }
+
+        while (size > 0)
+        {
+            int value = worklist[--size];
+            if (_ssa.isPhi(value))
+            {
+                int block = _ssa.getDefiningBlock(value);
+                for (int i = 0; i < _graph.getPredecessorCount(block); i++)
+                    size = markValue(_ssa.getPhiOperand(value, i), worklist, size);
+            }
+            else
+            {
+                int statement = _ssa.getDefiningStatement(value);
+                if (statement >= 0 && !_liveStatements[statement])
+                    size = markStatement(statement, worklist, size);
+            }
+        }
+
+        for (int statement = 0; statement < _ssa.getStatementCount(); statement++)
+        {
+            if (!_liveStatements[statement])
+                _removed++;
+        }
+    }
+
+    private int markStatement(int statement, int[] worklist, int size)
+    {
+        _liveStatements[statement] = true;
+        for (int i = 0; i < _ssa.getUseCount(statement); i++)
+            size = markValue(_ssa.getUseValue(statement, i), worklist, size);
+        return size;
+    }
+
+    private int markValue(int value, int[] worklist, int size)
+    {
+        if (value < 0 || _liveValues[value])
+            return size;
+        _liveValues[value] = true;
+        worklist[size] = value;
+        return size + 1;
+    }
+
+    // true iff irq only computes its result, and the result is an SSA
+    // variable (not an instance variable, whose store is a side effect)
+    private boolean isRemovable(IRQuadruple irq)
+    {
+        if (irq instanceof IRArrayLookup && ((IRArrayLookup)irq).isChecked())
+            return false;
+        boolean pure = irq instanceof IRAssignment || irq instanceof IRUnaryAssignment || irq instanceof IRCopy
+            || irq instanceof IRArrayLength || irq instanceof IRArrayLookup || irq instanceof IRPointerLoad
+            || irq instanceof IRElementAddress || irq instanceof IRNewArray || irq instanceof IRNewObject;
+        return pure && _ssa.isVariable(irq.getResult());
+    }
+}
@@ -0,0 +1,720 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Removes array bounds checks (see -safe) that can never fail.
+//
+// A value range analysis over the method's SSA form gives each value an
+// interval of the ints it can hold. Intervals start empty and grow until
+// nothing changes; one that's still growing after MAX_CHANGES rounds is
+// widened to the end of the int range, so the analysis stops. Arithmetic
+// that might wrap around gives the whole int range.
+//
+// Branches add facts: past iffalse t, with t := x < y (or a copy, ! or && of
+// comparisons), x < y holds after the fall-through edge and y <= x after the
+// jump, so in every block only reachable through that edge. A value's
+// interval in a block is narrowed by the facts holding there, which is what
+// keeps i + 1 from wrapping in a loop guarded by i < n.
+//
+// A check on a[x] goes when x's interval in its block starts at 0 or more,
+// and x is below a's length: either x's interval ends below the length a was
+// allocated with, or a fact x < y holds with y <= a.length (y being the
+// length itself, or bounded by it in turn), x possibly being y - c. A check
+// on the same array and index as a check dominating it goes too, since the
+// first one already passed.
+public class BoundsCheckEliminator
+{
+    private static final int MAX_CHANGES = 3;
+    // how far proofs follow facts and definitions
+    private static final int MAX_DEPTH = 4;
+
+    private static final long[] FULL = { Integer.MIN_VALUE, Integer.MAX_VALUE };
+    private static final long[] EMPTY = { 1, 0 };
+
+    private ControlFlowGraph _graph;
+    private DominatorTree _dominators;
+    private SSAForm _ssa;
+
+    // each value's interval, empty until it's reached
+    private long[] _lower;
+    private long[] _upper;
+    // the facts holding in each block
+    private List<List<Fact>> _facts;
+
+    private int _proven = 0;
+    private int _redundant = 0;
+    private int _remaining = 0;
+
+    public BoundsCheckEliminator(SSAForm ssa)
+    {
+        _ssa = ssa;
+        _graph = ssa.getGraph();
+        _dominators = ssa.getDominators();
+
+        List<Integer> checks = findChecks();
+        if (checks.isEmpty())
+            return;
+        findFacts();
+        findRanges();
+        removeChecks(checks);
+    }
+
+    public boolean wasOptimized()
+    {
+        return _proven > 0 || _redundant > 0;
+    }
+
+    // checks removed because the index is always in bounds
+    public int getProvenCount()
+    {
+        return _proven;
+    }
+
+    // checks removed because a dominating check tested the same index
+    public int getRedundantCount()
+    {
+        return _redundant;
+    }
+
+    // checks left in the method
+    public int getRemainingCount()
+    {
+        return _remaining;
+    }
+
+    // how many of statements are checked array accesses
+    static int countChecks(List<IRQuadruple> statements)
+    {
+        int checks = 0;
+        for (IRQuadruple irq : statements)
+        {
+            if (isChecked(irq))
+                checks++;
+        }
+        return checks;
+    }
+
+    // the checked accesses in reachable blocks
+    private List<Integer> findChecks()
+    {
+        List<Integer> checks = new ArrayList<Integer>();
+        for (int statement = 0; statement < _ssa.getStatementCount(); statement++)
+        {
+            if (isChecked(_ssa.getStatement(statement)))
+            {
+                _remaining++;
+                if (_graph.isReachable(_ssa.getStatementBlock(statement)))
+                    checks.add(statement);
+            }
+        }
+        return checks;
+    }
+
+    // each block inherits the facts of its immediate dominator, and a block
+    // with a single predecessor adds those of the edge into it
+    private void findFacts()
+    {
+        _facts = new ArrayList<List<Fact>>();
+        for (int b = 0; b < _graph.getBlockCount(); b++)
+            _facts.add(Collections.<Fact>emptyList());
+
+        for (int b : _dominators.getTreePreorder())
+        {
+            int idom = _dominators.getImmediateDominator(b);
+            if (idom < 0)
+                continue;
+            if (_graph.getPredecessorCount(b) == 1)
+            {
+                List<Fact> facts = new ArrayList<Fact>(_facts.get(idom));
+                addEdgeFacts(idom, b, facts);
+                _facts.set(b, facts);
+            }
+            else
+                _facts.set(b, _facts.get(idom));
+        }
+    }
+
+    private void addEdgeFacts(int from, int to, List<Fact> facts)
+    {
+        BasicBlock block = _graph.getBlock(from);
+        IRQuadruple last = block.getStatement(block.size() - 1);
+        if (!(last instanceof IRCondJump) || _graph.getSuccessorCount(from) != 2)
+            return;
+        int statement = _ssa.getStatementNumber(from, block.size() - 1);
+        Operand condition = getOperand(statement, last.getArg1());
+        if (condition == null || condition.value < 0)
+            return;
+        // iffalse: the condition held if the jump wasn't taken
+        boolean holds = !isJumpTarget(to, (IRCondJump)last);
+        addConditionFacts(condition.value, holds, facts, 0);
+    }
+
+    private boolean isJumpTarget(int b, IRCondJump jump)
+    {
+        IRQuadruple first = _graph.getBlock(b).getStatement(0);
+        return first instanceof IRLabel && ((IRLabel)first).getLabel().equals(jump.getLabel());
+    }
+
+    // add what's known when value is holds (true or false)
+    private void addConditionFacts(int value, boolean holds, List<Fact> facts, int depth)
+    {
+        int statement = _ssa.getDefiningStatement(value);
+        if (statement < 0 || depth > MAX_DEPTH)
+            return;
+        IRQuadruple irq = _ssa.getStatement(statement);
+        if (irq instanceof IRCopy || (irq instanceof IRUnaryAssignment && irq.getOp().equals("!")))
+        {
+            Operand operand = getOperand(statement, irq.getArg1());
+            if (operand != null && operand.value >= 0)
+                addConditionFacts(operand.value, (irq instanceof IRCopy) == holds, facts, depth + 1);
+        }
+        else if (irq instanceof IRAssignment && irq.getOp().equals("&&"))
+        {
+            if (!holds)
+                return;
+            for (SymbolInfo sym : Arrays.asList(irq.getArg1(), irq.getArg2()))
+            {
+                Operand operand = getOperand(statement, sym);
+                if (operand != null && operand.value >= 0)
+                    addConditionFacts(operand.value, true, facts, depth + 1);
+            }
+        }
+        else if (irq instanceof IRAssignment && irq.getOp().equals("<"))
+        {
+            Operand x = getOperand(statement, irq.getArg1());
+            Operand y = getOperand(statement, irq.getArg2());
+            if (x == null || y == null)
+                return;
+            facts.add(holds ? new Fact(x, y, true) : new Fact(y, x, false));
+        }
+    }
+
+    // round robin over the blocks in reverse postorder until no interval grows
+    private void findRanges()
+    {
+        int values = _ssa.getValueCount();
+        _lower = new long[values];
+        _upper = new long[values];
+        int[] changes = new int[values];
+        for (int value = 0; value < values; value++)
+        {
+            long[] range = _ssa.isEntryValue(value) ? FULL : EMPTY;
+            _lower[value] = range[0];
+            _upper[value] = range[1];
+        }
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int b : _graph.getReversePostorder())
+            {
+                for (int i = 0; i < _ssa.getPhiCount(b); i++)
+                {
+                    int phi = _ssa.getPhi(b, i);
+                    long[] range = EMPTY;
+                    for (int p = 0; p < _graph.getPredecessorCount(b); p++)
+                    {
+                        int operand = _ssa.getPhiOperand(phi, p);
+                        if (operand >= 0)
+                            range = union(range, getRange(Operand.value(operand), _graph.getPredecessor(b, p)));
+                    }
+                    changed |= grow(phi, range, changes);
+                }
+                for (int i = 0; i < _graph.getBlock(b).size(); i++)
+                {
+                    int statement = _ssa.getStatementNumber(b, i);
+                    int value = _ssa.getDefinedValue(statement);
+                    if (value >= 0)
+                        changed |= grow(value, evaluate(statement, b), changes);
+                }
+            }
+        }
+    }
+
+    // widen value's interval to take in range, returning true iff it grew
+    private boolean grow(int value, long[] range, int[] changes)
+    {
+        if (isEmpty(range))
+            return false;
+        long lower = _lower[value];
+        long upper = _upper[value];
+        if (!isEmpty(new long[] { lower, upper }) && range[0] >= lower && range[1] <= upper)
+            return false;
+
+        boolean wasEmpty = lower > upper;
+        if (++changes[value] > MAX_CHANGES && !wasEmpty)
+        {
+            _lower[value] = (range[0] < lower) ? FULL[0] : lower;
+            _upper[value] = (range[1] > upper) ? FULL[1] : upper;
+        }
+        else
+        {
+            _lower[value] = wasEmpty ? range[0] : Math.min(lower, range[0]);
+            _upper[value] = wasEmpty ? range[1] : Math.max(upper, range[1]);
+        }
+        return true;
+    }
+
+    // the interval of the value statement defines, from its operands'
+    // intervals in block b
+    private long[] evaluate(int statement, int b)
+    {
+        return evaluate(statement, b, 0);
+    }
+
+    private long[] evaluate(int statement, int b, int depth)
+    {
+        IRQuadruple irq = _ssa.getStatement(statement);
+        if (irq instanceof IRCopy)
+            return getRange(getOperand(statement, irq.getArg1()), b, depth);
+        if (irq instanceof IRArrayLength)
+            return new long[] { 0, Integer.MAX_VALUE };
+        if (irq instanceof IRUnaryAssignment)
+            return new long[] { 0, 1 };
+        if (!(irq instanceof IRAssignment))
+            return FULL;
+
+        String op = irq.getOp();
+        if (op.equals("<") || op.equals("&&"))
+            return new long[] { 0, 1 };
+        long[] x = getRange(getOperand(statement, irq.getArg1()), b, depth);
+        long[] y = getRange(getOperand(statement, irq.getArg2()), b, depth);
+        if (isEmpty(x) || isEmpty(y))
+            return EMPTY;
+
+        long[] result;
+        if (op.equals("+"))
+            result = new long[] { x[0] + y[0], x[1] + y[1] };
+        else if (op.equals("-"))
+            result = new long[] { x[0] - y[1], x[1] - y[0] };
+        else if (op.equals("*"))
+        {
+            long[] products = { x[0] * y[0], x[0] * y[1], x[1] * y[0], x[1] * y[1] };
+            result = new long[] { products[0], products[0] };
+            for (long product : products)
+            {
+                result[0] = Math.min(result[0], product);
+                result[1] = Math.max(result[1], product);
+            }
+        }
+        else
+            return FULL;
+        // it might wrap around
+        if (result[0] < FULL[0] || result[1] > FULL[1])
+            return FULL;
+        return result;
+    }
+
+    // operand's interval in block b, narrowed by the facts holding there.
+    // null (an instance variable) could be anything.
+    private long[] getRange(Operand operand, int b)
+    {
+        return getRange(operand, b, 0);
+    }
+
+    private long[] getRange(Operand operand, int b, int depth)
+    {
+        if (operand == null)
+            return FULL;
+        if (operand.value < 0)
+            return new long[] { operand.constant, operand.constant };
+
+        long lower = _lower[operand.value];
+        long upper = _upper[operand.value];
+        if (lower > upper)
+            return EMPTY;
+        for (Fact fact : _facts.get(b))
+        {
+            int strict = fact.strict ? 1 : 0;
+            if (fact.less.isValue(operand.value))
+            {
+                long[] greater = getBaseRange(fact.greater);
+                if (isEmpty(greater))
+                    return EMPTY;
+                upper = Math.min(upper, greater[1] - strict);
+            }
+            if (fact.greater.isValue(operand.value))
+            {
+                long[] less = getBaseRange(fact.less);
+                if (isEmpty(less))
+                    return EMPTY;
+                lower = Math.max(lower, less[0] + strict);
+            }
+        }
+
+        // the facts here may bound the value's operands more tightly than
+        // where it was defined, e.g. i + 1 in a loop guarded by i < 4
+        int statement = _ssa.getDefiningStatement(operand.value);
+        if (statement >= 0 && depth < MAX_DEPTH && _ssa.getStatementBlock(statement) != b)
+        {
+            long[] derived = evaluate(statement, b, depth + 1);
+            if (!isEmpty(derived))
+            {
+                lower = Math.max(lower, derived[0]);
+                upper = Math.min(upper, derived[1]);
+            }
+        }
+        return new long[] { lower, upper };
+    }
+
+    private long[] getBaseRange(Operand operand)
+    {
+        if (operand.value < 0)
+            return new long[] { operand.constant, operand.constant };
+        return new long[] { _lower[operand.value], _upper[operand.value] };
+    }
+
+    private void removeChecks(List<Integer> checks)
+    {
+        // the checks left, by array and index
+        Map<String, List<Integer>> remaining = new HashMap<String, List<Integer>>();
+        for (int statement : checks)
+        {
+            IRQuadruple irq = _ssa.getStatement(statement);
+            if (isInBounds(statement, irq))
+            {
+                setChecked(irq, false);
+                _proven++;
+                continue;
+            }
+
+            String key = getCheckKey(statement, irq);
+            if (key == null)
+                continue;
+            if (!remaining.containsKey(key))
+                remaining.put(key, new ArrayList<Integer>());
+            remaining.get(key).add(statement);
+        }
+
+        for (List<Integer> same : remaining.values())
+        {
+            for (int statement : same)
+            {
+                for (int other : same)
+                {
+                    if (other != statement && dominates(other, statement))
+                    {
+                        setChecked(_ssa.getStatement(statement), false);
+                        _redundant++;
+                        break;
+                    }
+                }
+            }
+        }
+        _remaining -= _proven + _redundant;
+    }
+
+    // true iff 0 <= index < length for the access at statement
+    private boolean isInBounds(int statement, IRQuadruple irq)
+    {
+        int b = _ssa.getStatementBlock(statement);
+        Operand index = getOperand(statement, irq.getArg2());
+        Operand array = getOperand(statement, irq.getArg1());
+        if (index == null || array == null || array.value < 0)
+            return false;
+        if (getRange(index, b)[0] < 0)
+            return false;
+        return isBelowLength(index, getArray(array.value), b, 0);
+    }
+
+    // true iff x < array's length in block b
+    private boolean isBelowLength(Operand x, int array, int b, int depth)
+    {
+        if (depth > MAX_DEPTH)
+            return false;
+        if (getRange(x, b)[1] < getMinimumLength(array))
+            return true;
+        for (Fact fact : _facts.get(b))
+        {
+            if (fact.less.equals(x))
+            {
+                if (fact.strict ? isAtMostLength(fact.greater, array, b, depth + 1)
+                                : isBelowLength(fact.greater, array, b, depth + 1))
+                    return true;
+            }
+            // x < x + c <= y, as in !(a.length < i + 1)
+            else if (isAbove(fact.less, x, b) && isAtMostLength(fact.greater, array, b, depth + 1))
+                return true;
+        }
+
+        // x := y - c
+        Operand base = getBase(x, b);
+        if (base == null)
+            return false;
+        long offset = getOffset(x);
+        return (offset < 0) ? isAtMostLength(base, array, b, depth + 1) : isBelowLength(base, array, b, depth + 1);
+    }
+
+    // true iff x <= array's length in block b
+    private boolean isAtMostLength(Operand x, int array, int b, int depth)
+    {
+        if (depth > MAX_DEPTH)
+            return false;
+        if (x.value >= 0 && isLengthOf(x.value, array))
+            return true;
+        if (getRange(x, b)[1] <= getMinimumLength(array))
+            return true;
+        for (Fact fact : _facts.get(b))
+        {
+            if (fact.less.equals(x) && isAtMostLength(fact.greater, array, b, depth + 1))
+                return true;
+        }
+
+        Operand base = getBase(x, b);
+        return base != null && isAtMostLength(base, array, b, depth + 1);
+    }
+
+    // y, when x := y, x := y - c or x := y + -c (c >= 0) and that can't have
+    // wrapped around given y's interval in block b, so x <= y. null otherwise.
+    private Operand getBase(Operand x, int b)
+    {
+        int statement = (x.value < 0) ? -1 : _ssa.getDefiningStatement(x.value);
+        if (statement < 0)
+            return null;
+        IRQuadruple irq = _ssa.getStatement(statement);
+        if (irq instanceof IRCopy)
+            return getOperand(statement, irq.getArg1());
+        if (!(irq instanceof IRAssignment) || (!irq.getOp().equals("-") && !irq.getOp().equals("+")))
+            return null;
+
+        Operand y = getOperand(statement, irq.getArg1());
+        Operand c = getOperand(statement, irq.getArg2());
+        if (irq.getOp().equals("+") && y != null && y.value < 0)
+        {
+            Operand swap = y;
+            y = c;
+            c = swap;
+        }
+        if (y == null || c == null || c.value >= 0 || y.value < 0)
+            return null;
+        long offset = irq.getOp().equals("-") ? -c.constant : c.constant;
+        if (offset > 0 || getRange(y, b)[0] + offset < FULL[0])
+            return null;
+        return y;
+    }
+
+    // true iff w := x + c for some c > 0, and that can't have wrapped around
+    // given x's interval in block b
+    private boolean isAbove(Operand w, Operand x, int b)
+    {
+        int statement = (w.value < 0) ? -1 : _ssa.getDefiningStatement(w.value);
+        if (statement < 0 || x.value < 0)
+            return false;
+        IRQuadruple irq = _ssa.getStatement(statement);
+        if (!(irq instanceof IRAssignment) || !irq.getOp().equals("+"))
+            return false;
+        Operand y = getOperand(statement, irq.getArg1());
+        Operand c = getOperand(statement, irq.getArg2());
+        if (y != null && y.value < 0)
+        {
+            Operand swap = y;
+            y = c;
+            c = swap;
+        }
+        if (y == null || c == null || !y.equals(x) || c.value >= 0 || c.constant <= 0)
+            return false;
+        return getRange(y, b)[1] + c.constant <= FULL[1];
+    }
+
+    // c when x := y + c, 0 for copies
+    private long getOffset(Operand x)
+    {
+        IRQuadruple irq = _ssa.getStatement(_ssa.getDefiningStatement(x.value));
+        if (irq instanceof IRCopy)
+            return 0;
+        SymbolInfo c = (irq.getArg2() instanceof ConstantSymbol) ? irq.getArg2() : irq.getArg1();
+        long value = getConstant(c);
+        return irq.getOp().equals("-") ? -value : value;
+    }
+
+    // true iff value is the length of array
+    private boolean isLengthOf(int value, int array)
+    {
+        int statement = _ssa.getDefiningStatement(value);
+        if (statement < 0)
+            return false;
+        IRQuadruple irq = _ssa.getStatement(statement);
+        if (irq instanceof IRCopy)
+        {
+            Operand operand = getOperand(statement, irq.getArg1());
+            return operand != null && operand.value >= 0 && isLengthOf(operand.value, array);
+        }
+        if (!(irq instanceof IRArrayLength))
+            return false;
+        Operand operand = getOperand(statement, irq.getArg1());
+        return operand != null && operand.value >= 0 && getArray(operand.value) == array;
+    }
+
+    // the smallest length array can have been allocated with, or 0
+    private long getMinimumLength(int array)
+    {
+        int statement = _ssa.getDefiningStatement(array);
+        if (statement < 0 || !(_ssa.getStatement(statement) instanceof IRNewArray))
+            return 0;
+        IRQuadruple irq = _ssa.getStatement(statement);
+        long[] length = getRange(getOperand(statement, irq.getArg2()), _ssa.getStatementBlock(statement));
+        return isEmpty(length) ? 0 : Math.max(length[0], 0);
+    }
+
+    // the value array was copied from, so copies of one array compare equal
+    private int getArray(int array)
+    {
+        for (int depth = 0; depth <= MAX_DEPTH; depth++)
+        {
+            int statement = _ssa.getDefiningStatement(array);
+            if (statement < 0 || !(_ssa.getStatement(statement) instanceof IRCopy))
+                return array;
+            Operand operand = getOperand(statement, _ssa.getStatement(statement).getArg1());
+            if (operand == null || operand.value < 0)
+                return array;
+            array = operand.value;
+        }
+        return array;
+    }
+
+    // the array and index a check tests, or null if the array isn't a value
+    private String getCheckKey(int statement, IRQuadruple irq)
+    {
+        Operand array = getOperand(statement, irq.getArg1());
+        Operand index = getOperand(statement, irq.getArg2());
+        if (array == null || array.value < 0 || index == null)
+            return null;
+        return getArray(array.value) + " " + index;
+    }
+
+    private boolean dominates(int a, int b)
+    {
+        int blockA = _ssa.getStatementBlock(a);
+        int blockB = _ssa.getStatementBlock(b);
+        if (blockA == blockB)
+            return a < b;
+        return _dominators.dominates(blockA, blockB);
+    }
+
+    // sym as read by statement: a constant, an SSA value, or null for an
+    // instance variable
+    private Operand getOperand(int statement, SymbolInfo sym)
+    {
+        if (sym instanceof ConstantSymbol)
+        {
+            Long constant = getConstant(sym);
+            return (constant == null) ? null : Operand.constant(constant);
+        }
+        int value = _ssa.getUseValue(statement, sym);
+        return (value < 0) ? null : Operand.value(value);
+    }
+
+    private Long getConstant(SymbolInfo sym)
+    {
+        String value = ((ConstantSymbol)sym).getValue();
+        if (value.equalsIgnoreCase("true"))
+            return 1L;
+        if (value.equalsIgnoreCase("false"))
+            return 0L;
+        try
+        {
+            return (long)Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private static boolean isEmpty(long[] range)
+    {
+        return range[0] > range[1];
+    }
+
+    private static long[] union(long[] a, long[] b)
+    {
+        if (isEmpty(a))
+            return b;
+        if (isEmpty(b))
+            return a;
+        return new long[] { Math.min(a[0], b[0]), Math.max(a[1], b[1]) };
+    }
+
+    private static boolean isChecked(IRQuadruple irq)
+    {
+        if (irq instanceof IRArrayLookup)
+            return ((IRArrayLookup)irq).isChecked();
+        if (irq instanceof IRArrayAssign)
+            return ((IRArrayAssign)irq).isChecked();
+        return false;
+    }
+
+    private static void setChecked(IRQuadruple irq, boolean checked)
+    {
+        if (irq instanceof IRArrayLookup)
+            ((IRArrayLookup)irq).setChecked(checked);
+        else
+            ((IRArrayAssign)irq).setChecked(checked);
+    }
+
+    // an SSA value, or a constant if value is -1
+    private static class Operand
+    {
+        int value;
+        long constant;
+
+        static Operand value(int value)
+        {
+            Operand operand = new Operand();
+            operand.value = value;
+            return operand;
+        }
+
+        static Operand constant(long constant)
+        {
+            Operand operand = new Operand();
+            operand.value = -1;
+            operand.constant = constant;
+            return operand;
+        }
+
+        boolean isValue(int v)
+        {
+            return value >= 0 && value == v;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Operand))
+                return false;
+            Operand other = (Operand)o;
+            return value == other.value && (value >= 0 || constant == other.constant);
+        }
+
+        public int hashCode()
+        {
+            return (value >= 0) ? value : (int)constant * 31 + 7;
+        }
+
+        public String toString()
+        {
+            return (value >= 0) ? "v" + value : "" + constant;
+        }
+    }
+
+    // less < greater, or less <= greater if it isn't strict
+    private static class Fact
+    {
+        Operand less;
+        Operand greater;
+        boolean strict;
+
+        Fact(Operand less, Operand greater, boolean strict)
+        {
+            this.less = less;
+            this.greater = greater;
+            this.strict = strict;
+        }
+    }
+}
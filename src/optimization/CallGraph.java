@@ -0,0 +1,154 @@
+package optimization;
+
+import java.util.*;
+
+import irgeneration.*;
+import symboltable.*;
+
+// Which of the program's methods each method calls directly, split into
+// strongly connected components: methods in the same component can call
+// each other, directly or not. Built from the statements as they are when
+// it's constructed.
+class CallGraph
+{
+    private Map<MethodSymbol, MethodAnalyses> _methods;
+    private Map<MethodAnalyses, Set<MethodAnalyses>> _callees;
+    private Map<MethodAnalyses, Set<MethodAnalyses>> _callers;
+    private Map<MethodAnalyses, Integer> _components;
+    private Map<Integer, Integer> _componentSizes;
+    // callees before their callers, except within a component
+    private List<MethodAnalyses> _order;
+
+    CallGraph(List<MethodAnalyses> methods)
+    {
+        _methods = new IdentityHashMap<MethodSymbol, MethodAnalyses>();
+        for (MethodAnalyses method : methods)
+            _methods.put(method.getMethod(), method);
+
+        _callees = new HashMap<MethodAnalyses, Set<MethodAnalyses>>();
+        _callers = new HashMap<MethodAnalyses, Set<MethodAnalyses>>();
+        for (MethodAnalyses method : methods)
+            _callers.put(method, new LinkedHashSet<MethodAnalyses>());
+        for (MethodAnalyses method : methods)
+        {
+            _callees.put(method, findCallees(method));
+            for (MethodAnalyses callee : _callees.get(method))
+                _callers.get(callee).add(method);
+        }
+        _order = findComponents(methods);
+    }
+
+    // the program method sym is, or null if it isn't one (e.g. a runtime call)
+    MethodAnalyses getMethod(SymbolInfo sym)
+    {
+        return _methods.get(sym);
+    }
+
+    Set<MethodAnalyses> getCallees(MethodAnalyses method)
+    {
+        return _callees.get(method);
+    }
+
+    Set<MethodAnalyses> getCallers(MethodAnalyses method)
+    {
+        return _callers.get(method);
+    }
+
+    boolean isSameComponent(MethodAnalyses a, MethodAnalyses b)
+    {
+        return _components.get(a).equals(_components.get(b));
+    }
+
+    // true iff method can call itself, directly or not
+    boolean isRecursive(MethodAnalyses method)
+    {
+        return _componentSizes.get(_components.get(method)) > 1 || _callees.get(method).contains(method);
+    }
+
+    List<MethodAnalyses> getCalleesFirst()
+    {
+        return _order;
+    }
+
+    private Set<MethodAnalyses> findCallees(MethodAnalyses method)
+    {
+        Set<MethodAnalyses> callees = new LinkedHashSet<MethodAnalyses>();
+        for (IRQuadruple irq : method.getStatements())
+        {
+            if (irq instanceof IRCall && _methods.containsKey(irq.getArg1()))
+                callees.add(_methods.get(irq.getArg1()));
+        }
+        return callees;
+    }
+
+    // split the call graph into strongly connected components with Tarjan's
+    // algorithm, returning the methods callees first. the walk keeps its own
+    // stack, since call chains can be too long to recurse down.
+    private List<MethodAnalyses> findComponents(List<MethodAnalyses> methods)
+    {
+        _components = new HashMap<MethodAnalyses, Integer>();
+        _componentSizes = new HashMap<Integer, Integer>();
+        List<MethodAnalyses> order = new ArrayList<MethodAnalyses>();
+        Map<MethodAnalyses, Integer> indexes = new HashMap<MethodAnalyses, Integer>();
+        Map<MethodAnalyses, Integer> lowLinks = new HashMap<MethodAnalyses, Integer>();
+        Deque<MethodAnalyses> stack = new ArrayDeque<MethodAnalyses>();
+        Set<MethodAnalyses> onStack = new HashSet<MethodAnalyses>();
+        int components = 0;
+
+        for (MethodAnalyses root : methods)
+        {
+            if (indexes.containsKey(root))
+                continue;
+
+            Deque<MethodAnalyses> path = new ArrayDeque<MethodAnalyses>();
+            Deque<Iterator<MethodAnalyses>> callees = new ArrayDeque<Iterator<MethodAnalyses>>();
+            MethodAnalyses next = root;
+            while (next != null || !path.isEmpty())
+            {
+                if (next != null)
+                {
+                    indexes.put(next, indexes.size());
+                    lowLinks.put(next, indexes.get(next));
+                    stack.push(next);
+                    onStack.add(next);
+                    path.push(next);
+                    callees.push(_callees.get(next).iterator());
+                    next = null;
+                    continue;
+                }
+
+                MethodAnalyses method = path.peek();
+                if (callees.peek().hasNext())
+                {
+                    MethodAnalyses callee = callees.peek().next();
+                    if (!indexes.containsKey(callee))
+                        next = callee;
+                    else if (onStack.contains(callee))
+                        lowLinks.put(method, Math.min(lowLinks.get(method), indexes.get(callee)));
+                    continue;
+                }
+
+                path.pop();
+                callees.pop();
+                if (!path.isEmpty())
+                    lowLinks.put(path.peek(), Math.min(lowLinks.get(path.peek()), lowLinks.get(method)));
+                if (lowLinks.get(method).equals(indexes.get(method)))
+                {
+                    MethodAnalyses member;
+                    int size = 0;
+                    do
+                    {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        _components.put(member, components);
+                        order.add(member);
+                        size++;
+                    } while (member != method);
+                    _componentSizes.put(components, size);
+                    components++;
+                }
+            }
+        }
+        return order;
+    }
+}
@@ -1,6 +1,7 @@
 package optimization;
 
 import java.util.*;
+import controlflow.*;
 import irgeneration.*;
 import symboltable.*;
 import syntaxtree.*;
@@ -12,13 +13,22 @@ public class ConstantFolder
     // folds constant expressions into single constant values by
     // evaluation them at compile-time.
     public ConstantFolder(List<IRQuadruple> irList)
+    {
+        this(irList, null);
+    }
+
+    // the same, but also replaces folded statements in their CFGs' blocks
+    public ConstantFolder(List<IRQuadruple> irList, StatementIndex index)
     {
         for (int i = 0; i < irList.size(); ++i)
         {
             IRQuadruple irq = irList.get(i);
             if (irq instanceof IRAssignment)
             {
-                irList.set(i, tryFoldAssignment((IRAssignment)irq, irList));
+                IRQuadruple folded = tryFoldAssignment((IRAssignment)irq, irList);
+                irList.set(i, folded);
+                if (index != null && folded != irq)
+                    index.replace(irq, folded);
             }
         }
     }
@@ -41,12 +51,27 @@ public class ConstantFolder
             Type constantType = null;
             switch (n.getOp())
             {
+                // add and sub trap on overflow, so leave that for run time
                 case "+":
-                    constant = "" + (Integer.parseInt(value1) + Integer.parseInt(value2));
+                    try
+                    {
+                        constant = "" + Math.addExact(Integer.parseInt(value1), Integer.parseInt(value2));
+                    }
+                    catch (ArithmeticException e)
+                    {
+                        return n;
+                    }
                     constantType = new IntegerType();
                     break;
                 case "-":
-                    constant = "" + (Integer.parseInt(value1) - Integer.parseInt(value2));
+                    try
+                    {
+                        constant = "" + Math.subtractExact(Integer.parseInt(value1), Integer.parseInt(value2));
+                    }
+                    catch (ArithmeticException e)
+                    {
+                        return n;
+                    }
                     constantType = new IntegerType();
                     break;
                 case "*":
@@ -11,7 +11,7 @@ public class ConstantPropagator
 {
     private boolean _optimized = false;
 
-    public ConstantPropagator(List<IRQuadruple> irList, Collection<ControlFlowGraph> cfgs, ObjectLayoutManager objLayoutMgr)
+    public ConstantPropagator(List<IRQuadruple> irList, StatementIndex index, ObjectLayoutManager objLayoutMgr)
     {
         List<Integer> copyIndices = new ArrayList<Integer>();
 
@@ -26,13 +26,20 @@ public class ConstantPropagator
             }
         }
 
+        VariableOccurrences occurrences = new VariableOccurrences(irList);
+        Map<BasicBlock, boolean[]> reachable = new HashMap<BasicBlock, boolean[]>();
         for (Integer statementIndex : copyIndices)
         {
             IRQuadruple irq = irList.get(statementIndex);
-            ControlFlowGraph cfg = CFGUtility.getCFGFromStatement(cfgs, irq);
-            Set<IRQuadruple> reducibles = getReducibleStatements(cfg, irq);
-
-            if (propagateConstant(irList, irq, reducibles))
+            boolean propagated;
+            // IR generation puts every constant in a temporary of its own, which
+            // would otherwise be followed all the way to the end of the method
+            if (occurrences.getDefinitionCount(irq.getResult()) == 1)
+                propagated = propagateOnlyDefinition(index, irq, occurrences.getMentions(irq.getResult()), reachable);
+            else
+                propagated = propagateConstant(irq, getReducibleStatements(index, irq));
+
+            if (propagated)
                 _optimized = true;
         }
     }
@@ -44,7 +51,7 @@ public class ConstantPropagator
 
     // propagates the constant to all qualifying statements.
     // returns true if at least one statement was modified.
-    private boolean propagateConstant(List<IRQuadruple> irList, IRQuadruple constCopy, Set<IRQuadruple> reducibles)
+    private boolean propagateConstant(IRQuadruple constCopy, Set<IRQuadruple> reducibles)
     {
         // first, remove the copy from the IR
         SymbolInfo removed = constCopy.getResult();
@@ -52,13 +59,8 @@ public class ConstantPropagator
 
         boolean result = false;
 
-        for (int i = 0; i < irList.size(); ++i)
+        for (IRQuadruple next : reducibles)
         {
-            IRQuadruple next = irList.get(i);
-
-            if (!reducibles.contains(next))
-                continue;
-
             if (next.replaceArgs(removed, constant))
                 result = true;
         }
@@ -66,21 +68,73 @@ public class ConstantPropagator
         return result;
     }
 
+    // propagates the constant of a variable's only definition. nothing can
+    // conflict with it, so it reaches every statement after it in its block,
+    // and every statement in a block reachable from there (without going
+    // back through its block), which only the statements using it care about.
+    private boolean propagateOnlyDefinition(StatementIndex index, IRQuadruple constCopy, List<IRQuadruple> mentions,
+                                            Map<BasicBlock, boolean[]> reachable)
+    {
+        BasicBlock start = index.getBlock(constCopy);
+        int position = index.getPosition(constCopy);
+        boolean[] reached = reachable.get(start);
+        if (reached == null)
+        {
+            reached = getReachableBlocks(index.getGraph(constCopy), start);
+            reachable.put(start, reached);
+        }
+
+        boolean result = false;
+        for (IRQuadruple irq : mentions)
+        {
+            BasicBlock block = index.getBlock(irq);
+            boolean reduces = (block == start) ? index.getPosition(irq) > position : reached[block.getId()];
+            if (reduces && irq.replaceArgs(constCopy.getResult(), constCopy.getArg1()))
+                result = true;
+        }
+        return result;
+    }
+
+    // the blocks reachable from start's successors without going through start
+    private boolean[] getReachableBlocks(ControlFlowGraph graph, BasicBlock start)
+    {
+        boolean[] reached = new boolean[graph.getBlockCount()];
+        reached[start.getId()] = true;
+        Deque<Integer> worklist = new ArrayDeque<Integer>();
+        worklist.add(start.getId());
+        while (!worklist.isEmpty())
+        {
+            int b = worklist.removeFirst();
+            for (int i = 0; i < graph.getSuccessorCount(b); i++)
+            {
+                int succ = graph.getSuccessor(b, i);
+                if (!reached[succ])
+                {
+                    reached[succ] = true;
+                    worklist.add(succ);
+                }
+            }
+        }
+        reached[start.getId()] = false;
+        return reached;
+    }
+
     private boolean isConstantCopy(IRQuadruple irq)
     {
         return (irq instanceof IRCopy) && (irq.getArg1() instanceof ConstantSymbol);
     }
 
     // collect all of the IRQuadruple statements that the constant could be propagated to
-    private Set<IRQuadruple> getReducibleStatements(ControlFlowGraph graph, IRQuadruple origDef)
+    private Set<IRQuadruple> getReducibleStatements(StatementIndex index, IRQuadruple origDef)
     {
-        BasicBlock start = CFGUtility.getBasicBlockFromStatement(graph, origDef);
+        ControlFlowGraph graph = index.getGraph(origDef);
+        BasicBlock start = index.getBlock(origDef);
 
         Set<IRQuadruple> reducibles = new HashSet<IRQuadruple>();
 
         // get reducible statements from the current block
         // start at the statement immediately after ours
-        for (int i = start.indexOf(origDef) + 1; i < start.size(); ++i)
+        for (int i = index.getPosition(origDef) + 1; i < start.size(); ++i)
         {
             IRQuadruple next = start.getStatement(i);
 
@@ -90,8 +144,9 @@ public class ConstantPropagator
         }
 
         // recursively gather reducible statements from successor blocks
-        Set<BasicBlock> visited = new HashSet<BasicBlock>();
-        visited.add(start);
+        // visited blocks are tracked by id
+        boolean[] visited = new boolean[graph.getBlockCount()];
+        visited[start.getId()] = true;
         for (BasicBlock succ : graph.getSuccessors(start))
         {
             getReducibleStatements(graph, succ, origDef, visited, reducibles);
@@ -101,17 +156,17 @@ public class ConstantPropagator
     }
 
     private void getReducibleStatements(ControlFlowGraph graph, BasicBlock current,
-                                        IRQuadruple origDef, Set<BasicBlock> visited, Set<IRQuadruple> reducibles)
+                                        IRQuadruple origDef, boolean[] visited, Set<IRQuadruple> reducibles)
     {
         // visit the current block
-        visited.add(current);
+        visited[current.getId()] = true;
 
         // bust out if a predecessor contains a conflicting definition
         // we can pass visited here because all of our visited nodes are valid,
         // otherwise we would have escaped
-        if (parentsContainConflictingDef(graph, current, origDef, new HashSet<BasicBlock>(visited)))
+        if (parentsContainConflictingDef(graph, current, origDef, visited.clone()))
         {
-            visited.remove(current);
+            visited[current.getId()] = false;
             return;
         }
 
@@ -121,7 +176,7 @@ public class ConstantPropagator
             // check if we found a conflicting definition of the candidate along this path
             if (isConflictingDef(irq, origDef))
             {
-                visited.remove(current);
+                visited[current.getId()] = false;
                 return;
             }
             reducibles.add(irq);
@@ -130,37 +185,37 @@ public class ConstantPropagator
         // check successors for reducible statements
         for (BasicBlock succ : graph.getSuccessors(current))
         {
-            if (!visited.contains(succ))
+            if (!visited[succ.getId()])
             {
                 getReducibleStatements(graph, succ, origDef, visited, reducibles);
             }
         }
 
-        visited.remove(current);
+        visited[current.getId()] = false;
     }
 
     // returns true iff some block along the path of predecessors from current contains a def
     // that conflicts with origDef
     private boolean parentsContainConflictingDef(ControlFlowGraph graph, BasicBlock current,
-                                                    IRQuadruple origDef, Set<BasicBlock> visited)
+                                                    IRQuadruple origDef, boolean[] visited)
     {
-        visited.add(current);
+        visited[current.getId()] = true;
 
         //System.out.println("visited parents: " + visited);
 
         for (BasicBlock pred : graph.getPredecessors(current))
         {
-            if (!visited.contains(pred))
+            if (!visited[pred.getId()])
             {
                 if (containsConflictingDef(pred, origDef) || parentsContainConflictingDef(graph, pred, origDef, visited))
                 {
-                    visited.remove(current);
+                    visited[current.getId()] = false;
                     return true;
                 }
             }
         }
 
-        visited.remove(current);
+        visited[current.getId()] = false;
         return false;
     }
 
@@ -0,0 +1,245 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import symboltable.*;
+
+// Simplifies a method's control flow, repeating until nothing changes:
+//
+// - conditional jumps on constants become gotos, or are removed
+// - jumps to a label whose block is just another goto are threaded through
+//   to that goto's target, and jumps to one of a run of labels all go to the
+//   first label of the run
+// - jumps to the statement right after them are removed, which merges the
+//   blocks on either side once the label goes too
+// - blocks that can't be reached from the method's label are removed
+// - labels no jump targets are removed
+//
+// Blocks are laid out in textual order, and fall through into each other, so
+// a block is only ever merged with the block right after it.
+public class ControlFlowSimplifier
+{
+    private List<IRQuadruple> _statements;
+
+    private int _folded = 0;
+    private int _threaded = 0;
+    private int _removedJumps = 0;
+    private int _removedStatements = 0;
+    private int _removedLabels = 0;
+
+    public ControlFlowSimplifier(ControlFlowGraph graph)
+    {
+        _statements = new ArrayList<IRQuadruple>();
+        for (BasicBlock block : graph.getAllBlocks())
+            _statements.addAll(block.getStatements());
+
+        boolean changed = true;
+        while (changed)
+        {
+            changed = foldBranches();
+            changed |= threadJumps();
+            changed |= removeJumpsToNext();
+            changed |= removeUnreachableBlocks();
+            changed |= removeDeadLabels();
+        }
+    }
+
+    public boolean wasOptimized()
+    {
+        return _folded > 0 || _threaded > 0 || _removedJumps > 0 || _removedStatements > 0 || _removedLabels > 0;
+    }
+
+    public int getFoldedCount()
+    {
+        return _folded;
+    }
+
+    public int getThreadedCount()
+    {
+        return _threaded;
+    }
+
+    // jumps removed because they jumped to the next statement
+    public int getRemovedJumpCount()
+    {
+        return _removedJumps;
+    }
+
+    // statements removed with unreachable blocks
+    public int getRemovedStatementCount()
+    {
+        return _removedStatements;
+    }
+
+    public int getRemovedLabelCount()
+    {
+        return _removedLabels;
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        return _statements;
+    }
+
+    private boolean foldBranches()
+    {
+        int folded = _folded;
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>(_statements.size());
+        for (IRQuadruple irq : _statements)
+        {
+            String value = null;
+            if (irq instanceof IRCondJump && irq.getArg1() instanceof ConstantSymbol)
+                value = ((ConstantSymbol)irq.getArg1()).getValue();
+
+            if ("false".equals(value))
+                result.add(new IRUncondJump(((IRCondJump)irq).getLabel()));
+            else if (!"true".equals(value))
+                result.add(irq);
+
+            if ("false".equals(value) || "true".equals(value))
+                _folded++;
+        }
+
+        _statements = result;
+        return _folded > folded;
+    }
+
+    private boolean threadJumps()
+    {
+        Map<String, Integer> labels = getLabelIndexes();
+        boolean changed = false;
+        for (int i = 0; i < _statements.size(); i++)
+        {
+            IRQuadruple irq = _statements.get(i);
+            String label = getTarget(irq);
+            if (label == null)
+                continue;
+
+            String target = resolve(label, labels);
+            if (target.equals(label))
+                continue;
+            if (irq instanceof IRCondJump)
+                _statements.set(i, new IRCondJump(irq.getArg1(), target));
+            else
+                _statements.set(i, new IRUncondJump(target));
+            _threaded++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    // where a jump to label really ends up: follow gotos, then pick the
+    // first label of the run of labels there
+    private String resolve(String label, Map<String, Integer> labels)
+    {
+        Set<String> visited = new HashSet<String>();
+        int index = labels.get(label);
+        while (visited.add(label))
+        {
+            int next = index;
+            while (next < _statements.size() && _statements.get(next) instanceof IRLabel)
+                next++;
+            if (next == _statements.size() || !(_statements.get(next) instanceof IRUncondJump))
+                break;
+            label = ((IRUncondJump)_statements.get(next)).getLabel();
+            index = labels.get(label);
+        }
+
+        while (index > 0 && _statements.get(index - 1) instanceof IRLabel
+               && !((IRLabel)_statements.get(index - 1)).isMethod())
+            index--;
+        return ((IRLabel)_statements.get(index)).getLabel();
+    }
+
+    private boolean removeJumpsToNext()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>(_statements.size());
+        for (int i = 0; i < _statements.size(); i++)
+        {
+            IRQuadruple irq = _statements.get(i);
+            if (!jumpsToNext(i, getTarget(irq)))
+                result.add(irq);
+        }
+
+        int removed = _statements.size() - result.size();
+        _removedJumps += removed;
+        _statements = result;
+        return removed > 0;
+    }
+
+    // true iff label is one of the labels right after statement i
+    private boolean jumpsToNext(int i, String label)
+    {
+        if (label == null)
+            return false;
+        for (int next = i + 1; next < _statements.size() && _statements.get(next) instanceof IRLabel; next++)
+        {
+            if (((IRLabel)_statements.get(next)).getLabel().equals(label))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean removeUnreachableBlocks()
+    {
+        ControlFlowGraph graph = new ControlFlowGraphBuilder(_statements).getControlFlowGraphs().iterator().next();
+        List<IRQuadruple> reachable = new ArrayList<IRQuadruple>(_statements.size());
+        for (int b = 0; b < graph.getBlockCount(); b++)
+        {
+            BasicBlock block = graph.getBlock(b);
+            if (graph.isReachable(b))
+                reachable.addAll(block.getStatements());
+        }
+
+        int removed = _statements.size() - reachable.size();
+        _removedStatements += removed;
+        _statements = reachable;
+        return removed > 0;
+    }
+
+    private boolean removeDeadLabels()
+    {
+        Set<String> targets = new HashSet<String>();
+        for (IRQuadruple irq : _statements)
+        {
+            if (getTarget(irq) != null)
+                targets.add(getTarget(irq));
+        }
+
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>(_statements.size());
+        for (IRQuadruple irq : _statements)
+        {
+            if (!(irq instanceof IRLabel) || ((IRLabel)irq).isMethod() || targets.contains(((IRLabel)irq).getLabel()))
+                result.add(irq);
+        }
+
+        int removed = _statements.size() - result.size();
+        _removedLabels += removed;
+        _statements = result;
+        return removed > 0;
+    }
+
+    private Map<String, Integer> getLabelIndexes()
+    {
+        Map<String, Integer> labels = new HashMap<String, Integer>();
+        for (int i = 0; i < _statements.size(); i++)
+        {
+            if (_statements.get(i) instanceof IRLabel)
+                labels.put(((IRLabel)_statements.get(i)).getLabel(), i);
+        }
+        return labels;
+    }
+
+    // the label a jump goes to, or null if irq isn't a jump
+    private String getTarget(IRQuadruple irq)
+    {
+        if (irq instanceof IRCondJump)
+            return ((IRCondJump)irq).getLabel();
+        if (irq instanceof IRUncondJump)
+            return ((IRUncondJump)irq).getLabel();
+        return null;
+    }
+}
@@ -0,0 +1,252 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Copy propagation and copy coalescing over a method's SSA form.
+//
+// For a copy x := y, uses of x are rewritten to read y instead, as long as y
+// still holds the same SSA value at the use (the dominator tree walk tracks
+// each variable's current value, like SSA renaming). Chains of copies are
+// followed back to the original source. A copy is removed once nothing
+// reads its value anymore, which also removes copies that were never read.
+//
+// Then each remaining copy x := t whose source was computed by the statement
+// right before it, and is read nowhere else, is coalesced into that
+// statement: t := a + b; x := t becomes x := a + b.
+//
+// Instance variables aren't in SSA form and can change across any call, so
+// copies from them aren't propagated, and stores to them are never removed.
+public class CopyPropagator
+{
+    private ControlFlowGraph _graph;
+    private SSAForm _ssa;
+    private DominatorTree _dominators;
+    private ObjectLayoutManager _objLayoutMgr;
+
+    // the variable and value a copy's value can be replaced with, if any
+    private int[] _sourceValues;
+    // how many statements or phis still read each value
+    private int[] _remainingUses;
+
+    private int _propagated = 0;
+    private int _removed = 0;
+    private int _coalesced = 0;
+    private List<IRQuadruple> _statements;
+
+    public CopyPropagator(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr)
+    {
+        this(new SSAForm(graph, new DominatorTree(graph), objLayoutMgr), objLayoutMgr);
+    }
+
+    public CopyPropagator(SSAForm ssa, ObjectLayoutManager objLayoutMgr)
+    {
+        _graph = ssa.getGraph();
+        _dominators = ssa.getDominators();
+        _ssa = ssa;
+        _objLayoutMgr = objLayoutMgr;
+
+        propagate();
+        _statements = coalesce(removeDeadCopies());
+    }
+
+    public boolean wasOptimized()
+    {
+        return _propagated > 0 || _removed > 0 || _coalesced > 0;
+    }
+
+    public int getPropagatedCount()
+    {
+        return _propagated;
+    }
+
+    public int getRemovedCount()
+    {
+        return _removed;
+    }
+
+    public int getCoalescedCount()
+    {
+        return _coalesced;
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        return _statements;
+    }
+
+    private void propagate()
+    {
+        int valueCount = _ssa.getValueCount();
+        _sourceValues = new int[valueCount];
+        Arrays.fill(_sourceValues, -1);
+        _remainingUses = new int[valueCount];
+        for (int value = 0; value < valueCount; value++)
+            _remainingUses[value] = _ssa.getUserCount(value);
+
+        int blockCount = _graph.getBlockCount();
+        if (blockCount == 0)
+            return;
+
+        int[] current = new int[_ssa.getVariableCount()];
+        Arrays.fill(current, -1);
+        List<Integer> undoVariables = new ArrayList<Integer>();
+        List<Integer> undoCurrent = new ArrayList<Integer>();
+
+        int[] stack = new int[blockCount];
+        int[] nextChild = new int[blockCount];
+        int[] undoMarks = new int[blockCount];
+        int depth = 0;
+        stack[depth++] = 0;
+        boolean entering = true;
+        while (depth > 0)
+        {
+            int b = stack[depth - 1];
+            if (entering)
+            {
+                undoMarks[b] = undoVariables.size();
+                for (int i = 0; i < _ssa.getPhiCount(b); i++)
+                    setCurrent(current, _ssa.getPhi(b, i), undoVariables, undoCurrent);
+
+                BasicBlock block = _graph.getBlock(b);
+                for (int i = 0; i < block.size(); i++)
+                {
+                    int statement = _ssa.getStatementNumber(b, i);
+                    IRQuadruple irq = block.getStatement(i);
+                    propagateInto(statement, irq, current);
+
+                    int value = _ssa.getDefinedValue(statement);
+                    if (value >= 0)
+                    {
+                        if (irq instanceof IRCopy && _ssa.isVariable(irq.getArg1()))
+                        {
+                            // the copy's source may itself have been propagated
+                            int source = _ssa.getUseValue(statement, 0);
+                            _sourceValues[value] = (_sourceValues[source] >= 0 && isCurrent(current, _sourceValues[source]))
+                                ? _sourceValues[source] : source;
+                        }
+                        setCurrent(current, value, undoVariables, undoCurrent);
+                    }
+                }
+            }
+
+            if (nextChild[b] < _dominators.getChildCount(b))
+            {
+                stack[depth++] = _dominators.getChild(b, nextChild[b]++);
+                entering = true;
+            }
+            else
+            {
+                for (int i = undoVariables.size() - 1; i >= undoMarks[b]; i--)
+                {
+                    current[undoVariables.get(i)] = undoCurrent.get(i);
+                    undoVariables.remove(i);
+                    undoCurrent.remove(i);
+                }
+                depth--;
+                entering = false;
+            }
+        }
+    }
+
+    // rewrite the statement's uses of copies to read the copies' sources
+    private void propagateInto(int statement, IRQuadruple irq, int[] current)
+    {
+        for (int i = 0; i < _ssa.getUseCount(statement); i++)
+        {
+            int value = _ssa.getUseValue(statement, i);
+            int source = _sourceValues[value];
+            if (source < 0 || !isCurrent(current, source))
+                continue;
+
+            irq.replaceArgs(_ssa.getUseVariable(statement, i), _ssa.getValueVariable(source));
+            _remainingUses[value]--;
+            _remainingUses[source]++;
+            _propagated++;
+        }
+    }
+
+    private boolean isCurrent(int[] current, int value)
+    {
+        return current[_ssa.getValueVariableNumber(value)] == value;
+    }
+
+    private void setCurrent(int[] current, int value, List<Integer> undoVariables, List<Integer> undoCurrent)
+    {
+        int variable = _ssa.getValueVariableNumber(value);
+        undoVariables.add(variable);
+        undoCurrent.add(current[variable]);
+        current[variable] = value;
+    }
+
+    // drop copies into variables whose value nothing reads
+    private List<IRQuadruple> removeDeadCopies()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (int b = 0; b < _graph.getBlockCount(); b++)
+        {
+            BasicBlock block = _graph.getBlock(b);
+            for (int i = 0; i < block.size(); i++)
+            {
+                IRQuadruple irq = block.getStatement(i);
+                int value = _ssa.getDefinedValue(_ssa.getStatementNumber(b, i));
+                if (irq instanceof IRCopy && value >= 0 && _remainingUses[value] == 0)
+                    _removed++;
+                else
+                    result.add(irq);
+            }
+        }
+        return result;
+    }
+
+    // merge each copy x := t into the statement right before it, if that
+    // statement computes t and nothing else reads or writes t
+    private List<IRQuadruple> coalesce(List<IRQuadruple> statements)
+    {
+        Map<SymbolInfo, Integer> defCounts = new HashMap<SymbolInfo, Integer>();
+        Map<SymbolInfo, Integer> useCounts = new HashMap<SymbolInfo, Integer>();
+        for (IRQuadruple irq : statements)
+        {
+            for (SymbolInfo def : CFGDefsAndUses.getStatementDefinitions(irq, _objLayoutMgr))
+                increment(defCounts, def);
+            for (SymbolInfo use : CFGDefsAndUses.getStatementUsages(irq, _objLayoutMgr))
+                increment(useCounts, use);
+        }
+
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>(statements.size());
+        for (IRQuadruple irq : statements)
+        {
+            if (!result.isEmpty() && irq instanceof IRCopy)
+            {
+                IRQuadruple previous = result.get(result.size() - 1);
+                SymbolInfo temp = irq.getArg1();
+                if (temp == previous.getResult() && _ssa.isVariable(temp)
+                    && count(defCounts, temp) == 1 && count(useCounts, temp) == 1
+                    && CFGDefsAndUses.getStatementDefinitions(previous, _objLayoutMgr).contains(temp))
+                {
+                    previous.setResult(irq.getResult());
+                    _coalesced++;
+                    continue;
+                }
+            }
+            result.add(irq);
+        }
+        return result;
+    }
+
+    private void increment(Map<SymbolInfo, Integer> counts, SymbolInfo sym)
+    {
+        counts.put(sym, count(counts, sym) + 1);
+    }
+
+    private int count(Map<SymbolInfo, Integer> counts, SymbolInfo sym)
+    {
+        Integer count = counts.get(sym);
+        return count == null ? 0 : count;
+    }
+}
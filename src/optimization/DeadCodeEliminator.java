@@ -13,19 +13,29 @@ public class DeadCodeEliminator
     private boolean _optimized = false;
 
 
-    public DeadCodeEliminator(List<IRQuadruple> irList, Collection<ControlFlowGraph> graphs, ObjectLayoutManager objLayoutMgr)
+    // removes dead statements from irList, and from their blocks in index
+    public DeadCodeEliminator(List<IRQuadruple> irList, StatementIndex index, ObjectLayoutManager objLayoutMgr)
     {
-        Set<IRQuadruple> removable = new HashSet<IRQuadruple>();
+        Set<IRQuadruple> removable = Collections.newSetFromMap(new IdentityHashMap<IRQuadruple, Boolean>());
+        VariableOccurrences occurrences = new VariableOccurrences(irList);
 
         for (IRQuadruple irq : irList)
         {
             if (isConstantCopy(irq) && !objLayoutMgr.isInstanceVariable(irq.getResult()))
             {
-                ControlFlowGraph graph = CFGUtility.getCFGFromStatement(graphs, irq);
-                BasicBlock b = CFGUtility.getBasicBlockFromStatement(graph, irq);
+                // a variable whose only mention is this copy is never read,
+                // without having to look for reads
+                if (occurrences.getMentions(irq.getResult()).size() == 1)
+                {
+                    removable.add(irq);
+                    continue;
+                }
+
+                ControlFlowGraph graph = index.getGraph(irq);
+                BasicBlock b = index.getBlock(irq);
 
                 //System.out.println("attempting to reduce: " + irq);
-                if (!containsUsageBeforeDef(graph, b, irq))
+                if (!containsUsageBeforeDef(graph, b, index.getPosition(irq), irq))
                 {
                     removable.add(irq);
                 }
@@ -35,8 +45,9 @@ public class DeadCodeEliminator
         if (!removable.isEmpty())
             _optimized = true;
 
-        for (IRQuadruple r : removable)
-            irList.remove(r);
+        // one pass over the list and each block, rather than one per removal
+        irList.removeAll(removable);
+        index.removeAll(removable);
     }
 
     public boolean wasOptimized()
@@ -44,13 +55,13 @@ public class DeadCodeEliminator
         return _optimized;
     }
 
-    private boolean containsUsageBeforeDef(ControlFlowGraph graph, BasicBlock containsDef, IRQuadruple candidate)
+    private boolean containsUsageBeforeDef(ControlFlowGraph graph, BasicBlock containsDef, int position, IRQuadruple candidate)
     {
         //System.out.println("CFG: " + graph);
 
         SymbolInfo sym = candidate.getResult();
 
-        for (int i = containsDef.indexOf(candidate) + 1; i < containsDef.size(); ++i)
+        for (int i = position + 1; i < containsDef.size(); ++i)
         {
             IRQuadruple next = containsDef.getStatement(i);
 
@@ -68,33 +79,42 @@ public class DeadCodeEliminator
                 return false;
         }
 
-        return checkSuccsForUsagesBeforeDef(graph, containsDef, sym, new HashSet<BasicBlock>());
+        // containsDef isn't marked visited: if a loop leads back to it, the
+        // statements before candidate still have to be checked for usages.
+        boolean[] visited = new boolean[graph.getBlockCount()];
+        for (BasicBlock succ : graph.getSuccessors(containsDef))
+        {
+            if (containsUsageBeforeDef(graph, succ, sym, visited))
+                return true;
+        }
+
+        return false;
     }
 
-    private boolean checkSuccsForUsagesBeforeDef(ControlFlowGraph graph, BasicBlock b, SymbolInfo sym, Set<BasicBlock> visited)
+    private boolean checkSuccsForUsagesBeforeDef(ControlFlowGraph graph, BasicBlock b, SymbolInfo sym, boolean[] visited)
     {
-        visited.add(b);
+        visited[b.getId()] = true;
 
         for (BasicBlock succ : graph.getSuccessors(b))
         {
-            if (visited.contains(succ))
+            if (visited[succ.getId()])
                 continue;
 
             // if any of the successors paths encounter a usage before a def,
             // return true
             if (containsUsageBeforeDef(graph, succ, sym, visited))
             {
-                visited.remove(b);
+                visited[b.getId()] = false;
                 return true;
             }
         }
 
-        visited.remove(b);
+        visited[b.getId()] = false;
 
         return false;
     }
 
-    private boolean containsUsageBeforeDef(ControlFlowGraph graph, BasicBlock b, SymbolInfo sym, Set<BasicBlock> visited)
+    private boolean containsUsageBeforeDef(ControlFlowGraph graph, BasicBlock b, SymbolInfo sym, boolean[] visited)
     {
         //System.out.println("visiting: " + b);
         for (IRQuadruple irq : b.getStatements())
@@ -0,0 +1,428 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+import syntaxtree.*;
+
+// Finds allocations whose object never outlives the method making it, and
+// keeps them off the heap.
+//
+// An object escapes when a variable holding it is returned, stored into a
+// field, an array or through a pointer, or passed to a call that lets it
+// escape. Variables holding it are the allocation's result and whatever it's
+// copied into, each of which has to be defined exactly once, before all its
+// uses; then every one of them holds the object the allocation made last.
+// Whether a call lets its receiver or an argument escape is worked out for
+// every method from its own statements, starting from "never" and going
+// round the call graph until nothing changes. Runtime calls let everything
+// escape.
+//
+// An object that doesn't escape and is only read and written through
+// pointers (as inlined methods do) is replaced by a temporary per field,
+// starting out zero like a new object's fields. One that's also passed to
+// calls, or a constant-size array with at most MAX_STACK_ARRAY elements, is
+// allocated in the method's stack frame instead, which may grow by at most
+// MAX_FRAME_SIZE bytes. Recursive methods don't get stack objects, since
+// their frames pile up and tail calls can't reuse them. An object of a class
+// with no fields needs no memory at all, so it's never allocated on the heap,
+// escaping or not: nothing can tell it from any other.
+public class EscapeAnalyzer
+{
+    private static final int MAX_STACK_ARRAY = 32;
+    private static final int MAX_FRAME_SIZE = 512;
+
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+    private CallGraph _graph;
+    private Map<MethodAnalyses, VariableOccurrences> _occurrences;
+    // the method and parameter (0 for the receiver) each param passes to
+    private Map<IRQuadruple, ParamTarget> _targets;
+    // whether each method's receiver and formals can escape through it
+    private Map<MethodAnalyses, boolean[]> _escapes;
+
+    private Map<MethodAnalyses, Integer> _replaced;
+    private Map<MethodAnalyses, Integer> _stack;
+    private int _replacedCount = 0;
+    private int _stackCount = 0;
+
+    public EscapeAnalyzer(List<MethodAnalyses> methods, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = temporaries;
+        _graph = new CallGraph(methods);
+        _occurrences = new HashMap<MethodAnalyses, VariableOccurrences>();
+        _targets = new IdentityHashMap<IRQuadruple, ParamTarget>();
+        _escapes = new HashMap<MethodAnalyses, boolean[]>();
+        _replaced = new HashMap<MethodAnalyses, Integer>();
+        _stack = new HashMap<MethodAnalyses, Integer>();
+
+        for (MethodAnalyses method : methods)
+        {
+            _occurrences.put(method, new VariableOccurrences(method.getStatements()));
+            _escapes.put(method, new boolean[method.getMethod().getFormalSymbols().size() + 1]);
+            findTargets(method);
+        }
+        findEscapingParameters(methods);
+        for (MethodAnalyses method : methods)
+            optimize(method);
+    }
+
+    public boolean wasOptimized()
+    {
+        return _replacedCount > 0 || _stackCount > 0;
+    }
+
+    // allocations eliminated over the whole program
+    public int getEliminatedCount()
+    {
+        return _replacedCount + _stackCount;
+    }
+
+    // allocations replaced by a temporary per field
+    public int getReplacedCount()
+    {
+        return _replacedCount;
+    }
+
+    public int getReplacedCount(MethodAnalyses method)
+    {
+        Integer count = _replaced.get(method);
+        return (count == null) ? 0 : count;
+    }
+
+    // allocations moved into their method's stack frame
+    public int getStackCount()
+    {
+        return _stackCount;
+    }
+
+    public int getStackCount(MethodAnalyses method)
+    {
+        Integer count = _stack.get(method);
+        return (count == null) ? 0 : count;
+    }
+
+    // bytes a stack allocation takes in its method's frame
+    private int getFrameBytes(MethodAnalyses method, IRQuadruple allocation)
+    {
+        if (allocation instanceof IRNewObject)
+            return _objLayoutMgr.getSizeInBytes(allocation.getArg1());
+        // the length, then the elements
+        return 4 * (Integer.parseInt(getConstantLength(method, allocation).getValue()) + 1);
+    }
+
+    // the constant an array's length is, whether written directly or copied
+    // once into a variable before the allocation, or null
+    private ConstantSymbol getConstantLength(MethodAnalyses method, IRQuadruple allocation)
+    {
+        SymbolInfo length = allocation.getArg2();
+        if (length instanceof ConstantSymbol)
+            return (ConstantSymbol)length;
+        VariableOccurrences occurrences = _occurrences.get(method);
+        if (_objLayoutMgr.isInstanceVariable(length) || occurrences.getDefinitionCount(length) != 1)
+            return null;
+        for (IRQuadruple irq : occurrences.getMentions(length))
+        {
+            if (irq.isDefOf(length))
+            {
+                if (irq instanceof IRCopy && irq.getArg1() instanceof ConstantSymbol && dominates(method, irq, allocation))
+                    return (ConstantSymbol)irq.getArg1();
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // match each param in method with the call it's passed to
+    private void findTargets(MethodAnalyses method)
+    {
+        List<IRQuadruple> statements = method.getStatements();
+        for (int i = 0; i < statements.size(); i++)
+        {
+            if (!(statements.get(i) instanceof IRCall))
+                continue;
+            IRCall call = (IRCall)statements.get(i);
+            MethodAnalyses callee = _graph.getMethod(call.getArg1());
+            int params = call.getParamCount();
+            if (callee == null || params != callee.getMethod().getFormalSymbols().size() + 1 || i < params)
+                continue;
+            for (int p = i - params; p < i; p++)
+            {
+                if (statements.get(p) instanceof IRParam)
+                    _targets.put(statements.get(p), new ParamTarget(callee, p - (i - params)));
+            }
+        }
+    }
+
+    private void findEscapingParameters(List<MethodAnalyses> methods)
+    {
+        Deque<MethodAnalyses> worklist = new ArrayDeque<MethodAnalyses>(methods);
+        Set<MethodAnalyses> queued = new HashSet<MethodAnalyses>(methods);
+        while (!worklist.isEmpty())
+        {
+            MethodAnalyses method = worklist.removeFirst();
+            queued.remove(method);
+            boolean[] escapes = _escapes.get(method);
+            List<VariableSymbol> parameters = getParameters(method);
+            boolean changed = false;
+            for (int p = 0; p < escapes.length; p++)
+            {
+                if (!escapes[p] && findUses(method, parameters.get(p), null).escapes)
+                {
+                    escapes[p] = true;
+                    changed = true;
+                }
+            }
+            if (!changed)
+                continue;
+            for (MethodAnalyses caller : _graph.getCallers(method))
+            {
+                if (queued.add(caller))
+                    worklist.addLast(caller);
+            }
+        }
+    }
+
+    // the receiver, then the formals
+    private List<VariableSymbol> getParameters(MethodAnalyses method)
+    {
+        List<VariableSymbol> parameters = new ArrayList<VariableSymbol>();
+        parameters.add(method.getMethod().getVariable("this"));
+        parameters.addAll(method.getMethod().getFormalSymbols());
+        return parameters;
+    }
+
+    // how the object root holds is used, following it through copies. root
+    // is either the result of allocation, or a parameter if allocation is
+    // null.
+    private Uses findUses(MethodAnalyses method, SymbolInfo root, IRQuadruple allocation)
+    {
+        Uses uses = new Uses();
+        if (root == null || _objLayoutMgr.isInstanceVariable(root))
+            return uses.escape();
+        VariableOccurrences occurrences = _occurrences.get(method);
+        Map<SymbolInfo, IRQuadruple> definitions = new IdentityHashMap<SymbolInfo, IRQuadruple>();
+        definitions.put(root, allocation);
+        Deque<SymbolInfo> worklist = new ArrayDeque<SymbolInfo>();
+        worklist.add(root);
+
+        while (!worklist.isEmpty())
+        {
+            SymbolInfo var = worklist.removeFirst();
+            // parameters are only defined on entry
+            if (occurrences.getDefinitionCount(var) != ((var == root && allocation == null) ? 0 : 1))
+                return uses.escape();
+
+            for (IRQuadruple irq : occurrences.getMentions(var))
+            {
+                if (irq == definitions.get(var))
+                    continue;
+                // the object has to be the one the allocation made last
+                if (allocation != null && !dominates(method, definitions.get(var), irq))
+                    return uses.escape();
+
+                if (irq instanceof IRCopy && irq.getArg1() == var)
+                {
+                    SymbolInfo copy = irq.getResult();
+                    if (_objLayoutMgr.isInstanceVariable(copy) || definitions.containsKey(copy))
+                        return uses.escape();
+                    definitions.put(copy, irq);
+                    uses.copies.add(irq);
+                    worklist.addLast(copy);
+                }
+                else if (irq instanceof IRPointerLoad || (irq instanceof IRPointerStore && irq.getArg2() != var))
+                    uses.fields.add(irq);
+                else if ((irq instanceof IRArrayLookup && irq.getArg1() == var) || irq instanceof IRArrayLength
+                         || (irq instanceof IRArrayAssign && irq.getResult() != var))
+                    uses.other = true;
+                else if (irq instanceof IRParam && !escapesThrough((IRParam)irq))
+                    uses.other = true;
+                else
+                    return uses.escape();
+            }
+        }
+        return uses;
+    }
+
+    private boolean escapesThrough(IRParam param)
+    {
+        ParamTarget target = _targets.get(param);
+        return target == null || _escapes.get(target.callee)[target.position];
+    }
+
+    // true iff definition runs before use on every path to use
+    private boolean dominates(MethodAnalyses method, IRQuadruple definition, IRQuadruple use)
+    {
+        StatementIndex index = method.getIndex();
+        if (!index.contains(definition) || !index.contains(use))
+            return false;
+        BasicBlock defBlock = index.getBlock(definition);
+        BasicBlock useBlock = index.getBlock(use);
+        if (defBlock == useBlock)
+            return index.getPosition(definition) < index.getPosition(use);
+        return method.getDominators().dominates(defBlock, useBlock);
+    }
+
+    private void optimize(MethodAnalyses method)
+    {
+        boolean recursive = _graph.isRecursive(method);
+        int frame = 0;
+        Map<IRQuadruple, Uses> replaced = new LinkedHashMap<IRQuadruple, Uses>();
+        int stack = 0;
+        boolean edited = false;
+        for (IRQuadruple irq : method.getStatements())
+        {
+            if (!(irq instanceof IRNewObject) && !(irq instanceof IRNewArray))
+                continue;
+            if (irq instanceof IRNewObject && _objLayoutMgr.getSizeInBytes(irq.getArg1()) == 0)
+            {
+                ((IRNewObject)irq).setStack(true);
+                stack++;
+                continue;
+            }
+
+            Uses uses = findUses(method, irq.getResult(), irq);
+            if (uses.escapes)
+                continue;
+            if (irq instanceof IRNewObject && !uses.other)
+                replaced.put(irq, uses);
+            else if (!recursive && hasConstantSize(method, irq) && frame + getFrameBytes(method, irq) <= MAX_FRAME_SIZE)
+            {
+                frame += getFrameBytes(method, irq);
+                if (irq instanceof IRNewObject)
+                    ((IRNewObject)irq).setStack(true);
+                else
+                {
+                    // the code generator lays out the frame from the length
+                    ConstantSymbol length = getConstantLength(method, irq);
+                    edited |= irq.getArg2() != length;
+                    irq.replaceArgs(irq.getArg2(), length);
+                    ((IRNewArray)irq).setStack(true);
+                }
+                stack++;
+            }
+        }
+
+        if (!replaced.isEmpty())
+        {
+            replaceWithScalars(method, replaced);
+            _replaced.put(method, replaced.size());
+            _replacedCount += replaced.size();
+        }
+        else if (edited)
+            method.setStatements(method.getStatements());
+        // the flags changed in place, but no analysis depends on them
+        if (stack > 0)
+        {
+            _stack.put(method, stack);
+            _stackCount += stack;
+        }
+    }
+
+    private boolean hasConstantSize(MethodAnalyses method, IRQuadruple allocation)
+    {
+        if (allocation instanceof IRNewObject)
+            return true;
+        ConstantSymbol length = getConstantLength(method, allocation);
+        if (length == null)
+            return false;
+        try
+        {
+            int value = Integer.parseInt(length.getValue());
+            return value >= 0 && value <= MAX_STACK_ARRAY;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+    // give each object in replaced a temporary per field it uses: the
+    // allocation sets them to zero, reads and writes become copies, and
+    // copies of the object go away
+    private void replaceWithScalars(MethodAnalyses method, Map<IRQuadruple, Uses> replaced)
+    {
+        Map<IRQuadruple, List<IRQuadruple>> replacements = new IdentityHashMap<IRQuadruple, List<IRQuadruple>>();
+        for (Map.Entry<IRQuadruple, Uses> entry : replaced.entrySet())
+        {
+            Map<Integer, VariableSymbol> fields = new TreeMap<Integer, VariableSymbol>();
+            for (IRQuadruple irq : entry.getValue().fields)
+            {
+                int offset = (irq instanceof IRPointerLoad) ? ((IRPointerLoad)irq).getOffset() : ((IRPointerStore)irq).getOffset();
+                if (!fields.containsKey(offset))
+                    fields.put(offset, _temporaries.newTemporary(getFieldType(irq)));
+                VariableSymbol field = fields.get(offset);
+                if (irq instanceof IRPointerLoad)
+                    replacements.put(irq, Arrays.<IRQuadruple>asList(new IRCopy(field, irq.getResult())));
+                else
+                    replacements.put(irq, Arrays.<IRQuadruple>asList(new IRCopy(irq.getArg2(), field)));
+            }
+
+            List<IRQuadruple> zeroes = new ArrayList<IRQuadruple>();
+            for (VariableSymbol field : fields.values())
+            {
+                String zero = (field.getType() instanceof BooleanType) ? "false" : "0";
+                zeroes.add(new IRCopy(new ConstantSymbol(zero, field.getType()), field));
+            }
+            replacements.put(entry.getKey(), zeroes);
+            for (IRQuadruple copy : entry.getValue().copies)
+                replacements.put(copy, Collections.<IRQuadruple>emptyList());
+        }
+
+        List<IRQuadruple> statements = new ArrayList<IRQuadruple>();
+        for (IRQuadruple irq : method.getStatements())
+        {
+            List<IRQuadruple> replacement = replacements.get(irq);
+            if (replacement == null)
+                statements.add(irq);
+            else
+                statements.addAll(replacement);
+        }
+        method.setStatements(statements);
+    }
+
+    // the type of the field irq reads or writes
+    private Type getFieldType(IRQuadruple irq)
+    {
+        SymbolInfo value = (irq instanceof IRPointerLoad) ? irq.getResult() : irq.getArg2();
+        if (value instanceof VariableSymbol && ((VariableSymbol)value).getType() != null)
+            return ((VariableSymbol)value).getType();
+        return new IntegerType();
+    }
+
+    // a parameter of a call: the method called, and which parameter (0 for
+    // the receiver)
+    private static class ParamTarget
+    {
+        MethodAnalyses callee;
+        int position;
+
+        ParamTarget(MethodAnalyses callee, int position)
+        {
+            this.callee = callee;
+            this.position = position;
+        }
+    }
+
+    // what happens to an object in one method
+    private static class Uses
+    {
+        boolean escapes = false;
+        // copies from one of those variables to another
+        List<IRQuadruple> copies = new ArrayList<IRQuadruple>();
+        // pointer loads and stores through them
+        List<IRQuadruple> fields = new ArrayList<IRQuadruple>();
+        // whether it's used as an array or passed to a call
+        boolean other = false;
+
+        Uses escape()
+        {
+            escapes = true;
+            return this;
+        }
+    }
+}
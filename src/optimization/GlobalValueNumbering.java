@@ -0,0 +1,265 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Dominator-based global value numbering over a method's SSA form.
+//
+// The dominator tree is walked in preorder with a scoped table of available
+// expressions, so an expression computed in a block is available in every
+// block it dominates. Operands are identified by value number: a copy has the
+// same number as its source, and so does a redundant expression once it's
+// been replaced. An earlier result can only be reused if its variable still
+// holds that value, so the walk also tracks each variable's current SSA value.
+//
+// Array elements and instance variables live in memory, so expressions
+// reading them are also keyed by a memory epoch. A new epoch starts after
+// every array store, call and instance variable store, and at join points,
+// since another path into the block may have written memory. Array lengths
+// never change, so they don't depend on the epoch.
+public class GlobalValueNumbering
+{
+    private ControlFlowGraph _graph;
+    private SSAForm _ssa;
+    private DominatorTree _dominators;
+    private ObjectLayoutManager _objLayoutMgr;
+
+    // each SSA value's number: "v" plus its leader value, or "c" plus a constant
+    private String[] _valueNumbers;
+    private int _epochCount = 0;
+
+    // statements to replace (or remove, if the replacement is null)
+    private Map<Integer, IRQuadruple> _replacements;
+    private int _eliminated = 0;
+
+    public GlobalValueNumbering(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr)
+    {
+        this(new SSAForm(graph, new DominatorTree(graph), objLayoutMgr), objLayoutMgr);
+    }
+
+    public GlobalValueNumbering(SSAForm ssa, ObjectLayoutManager objLayoutMgr)
+    {
+        _graph = ssa.getGraph();
+        _dominators = ssa.getDominators();
+        _ssa = ssa;
+        _objLayoutMgr = objLayoutMgr;
+        _valueNumbers = new String[_ssa.getValueCount()];
+        _replacements = new HashMap<Integer, IRQuadruple>();
+
+        numberValues();
+    }
+
+    public boolean wasOptimized()
+    {
+        return _eliminated > 0;
+    }
+
+    // how many redundant expressions were eliminated
+    public int getEliminatedCount()
+    {
+        return _eliminated;
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (int b = 0; b < _graph.getBlockCount(); b++)
+        {
+            BasicBlock block = _graph.getBlock(b);
+            for (int i = 0; i < block.size(); i++)
+            {
+                int statement = _ssa.getStatementNumber(b, i);
+                if (!_replacements.containsKey(statement))
+                    result.add(block.getStatement(i));
+                else if (_replacements.get(statement) != null)
+                    result.add(_replacements.get(statement));
+            }
+        }
+        return result;
+    }
+
+    private void numberValues()
+    {
+        int blockCount = _graph.getBlockCount();
+        if (blockCount == 0)
+            return;
+
+        Map<String, Integer> available = new HashMap<String, Integer>();
+        int[] current = new int[_ssa.getVariableCount()];
+        Arrays.fill(current, -1);
+
+        // undo logs, so a block's entries can be dropped once its subtree is done
+        List<String> undoKeys = new ArrayList<String>();
+        List<Integer> undoAvailable = new ArrayList<Integer>();
+        List<Integer> undoVariables = new ArrayList<Integer>();
+        List<Integer> undoCurrent = new ArrayList<Integer>();
+
+        int[] exitEpochs = new int[blockCount];
+        int[] stack = new int[blockCount];
+        int[] nextChild = new int[blockCount];
+        int[] keyMarks = new int[blockCount];
+        int[] variableMarks = new int[blockCount];
+        int depth = 0;
+        stack[depth++] = 0;
+        boolean entering = true;
+        while (depth > 0)
+        {
+            int b = stack[depth - 1];
+            if (entering)
+            {
+                keyMarks[b] = undoKeys.size();
+                variableMarks[b] = undoVariables.size();
+
+                // memory is unchanged from the end of the only predecessor
+                int epoch = (_graph.getPredecessorCount(b) == 1)
+                    ? exitEpochs[_graph.getPredecessor(b, 0)] : _epochCount++;
+
+                for (int i = 0; i < _ssa.getPhiCount(b); i++)
+                {
+                    int phi = _ssa.getPhi(b, i);
+                    setCurrent(current, phi, undoVariables, undoCurrent);
+                }
+
+                BasicBlock block = _graph.getBlock(b);
+                for (int i = 0; i < block.size(); i++)
+                {
+                    int statement = _ssa.getStatementNumber(b, i);
+                    IRQuadruple irq = block.getStatement(i);
+                    int value = _ssa.getDefinedValue(statement);
+
+                    String key = getExpressionKey(statement, irq, epoch);
+                    if (key != null)
+                    {
+                        Integer earlier = available.get(key);
+                        if (earlier != null && current[_ssa.getValueVariableNumber(earlier)] == earlier)
+                        {
+                            replaceRedundant(statement, irq, earlier);
+                            if (value >= 0)
+                                _valueNumbers[value] = getValueNumber(earlier);
+                        }
+                        else if (value >= 0)
+                        {
+                            undoKeys.add(key);
+                            undoAvailable.add(earlier);
+                            available.put(key, value);
+                        }
+                    }
+                    else if (value >= 0 && irq instanceof IRCopy)
+                    {
+                        _valueNumbers[value] = getOperandNumber(statement, irq.getArg1(), epoch);
+                    }
+
+                    if (value >= 0)
+                        setCurrent(current, value, undoVariables, undoCurrent);
+                    if (writesMemory(irq))
+                        epoch = _epochCount++;
+                }
+                exitEpochs[b] = epoch;
+            }
+
+            if (nextChild[b] < _dominators.getChildCount(b))
+            {
+                stack[depth++] = _dominators.getChild(b, nextChild[b]++);
+                entering = true;
+            }
+            else
+            {
+                for (int i = undoKeys.size() - 1; i >= keyMarks[b]; i--)
+                {
+                    if (undoAvailable.get(i) == null)
+                        available.remove(undoKeys.get(i));
+                    else
+                        available.put(undoKeys.get(i), undoAvailable.get(i));
+                    undoKeys.remove(i);
+                    undoAvailable.remove(i);
+                }
+                for (int i = undoVariables.size() - 1; i >= variableMarks[b]; i--)
+                {
+                    current[undoVariables.get(i)] = undoCurrent.get(i);
+                    undoVariables.remove(i);
+                    undoCurrent.remove(i);
+                }
+                depth--;
+                entering = false;
+            }
+        }
+    }
+
+    private void setCurrent(int[] current, int value, List<Integer> undoVariables, List<Integer> undoCurrent)
+    {
+        int variable = _ssa.getValueVariableNumber(value);
+        undoVariables.add(variable);
+        undoCurrent.add(current[variable]);
+        current[variable] = value;
+    }
+
+    // replace a redundant statement with a copy of the earlier value, or
+    // drop it if its result already holds that value
+    private void replaceRedundant(int statement, IRQuadruple irq, int earlier)
+    {
+        SymbolInfo source = _ssa.getValueVariable(earlier);
+        if (source == irq.getResult())
+            _replacements.put(statement, null);
+        else
+            _replacements.put(statement, new IRCopy(source, irq.getResult()));
+        _eliminated++;
+    }
+
+    // a key identifying the expression irq computes, or null if it isn't
+    // one we number
+    private String getExpressionKey(int statement, IRQuadruple irq, int epoch)
+    {
+        if (irq instanceof IRAssignment)
+        {
+            String arg1 = getOperandNumber(statement, irq.getArg1(), epoch);
+            String arg2 = getOperandNumber(statement, irq.getArg2(), epoch);
+            // order the operands of commutative operators
+            if (!irq.getOp().equals("-") && !irq.getOp().equals("<") && arg1.compareTo(arg2) > 0)
+            {
+                String temp = arg1;
+                arg1 = arg2;
+                arg2 = temp;
+            }
+            return irq.getOp() + " " + arg1 + " " + arg2;
+        }
+        if (irq instanceof IRUnaryAssignment)
+            return irq.getOp() + " " + getOperandNumber(statement, irq.getArg1(), epoch);
+        if (irq instanceof IRArrayLength)
+            return "length " + getOperandNumber(statement, irq.getArg1(), epoch);
+        if (irq instanceof IRArrayLookup)
+        {
+            return "[] " + getOperandNumber(statement, irq.getArg1(), epoch) + " "
+                + getOperandNumber(statement, irq.getArg2(), epoch) + " @" + epoch;
+        }
+        return null;
+    }
+
+    private String getOperandNumber(int statement, SymbolInfo sym, int epoch)
+    {
+        if (sym instanceof ConstantSymbol)
+            return "c" + ((ConstantSymbol)sym).getValue();
+        // instance variables are reloaded every time they're read
+        if (_objLayoutMgr.isInstanceVariable(sym))
+            return "f" + sym.getName() + "@" + epoch;
+        return getValueNumber(_ssa.getUseValue(statement, sym));
+    }
+
+    private String getValueNumber(int value)
+    {
+        if (_valueNumbers[value] == null)
+            _valueNumbers[value] = "v" + value;
+        return _valueNumbers[value];
+    }
+
+    private boolean writesMemory(IRQuadruple irq)
+    {
+        if (irq instanceof IRArrayAssign || irq instanceof IRPointerStore || irq instanceof IRCall)
+            return true;
+        return irq.getResult() != null && _objLayoutMgr.isInstanceVariable(irq.getResult());
+    }
+}
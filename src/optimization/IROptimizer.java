@@ -5,17 +5,24 @@ import java.util.*;
 import irgeneration.*;
 import controlflow.*;
 import objectimpl.*;
+import symboltable.*;
 
 public class IROptimizer
 {
     private List<IRQuadruple> _irList;
-    private ObjectLayoutManager _objLayoutMgr;
+    private PassManager _passManager;
 
     public IROptimizer(List<IRQuadruple> irList, ObjectLayoutManager objLayoutMgr)
+    {
+        this(irList, objLayoutMgr, PassManager.getDefaultPipeline());
+    }
+
+    // passes are run in the order given, by name (see PassManager.getPassNames)
+    public IROptimizer(List<IRQuadruple> irList, ObjectLayoutManager objLayoutMgr, List<String> passes)
     {
         // copy the IR so we can safely optimize it
         _irList = new ArrayList<IRQuadruple>(irList);
-        _objLayoutMgr = objLayoutMgr;
+        _passManager = new PassManager(_irList, objLayoutMgr, passes);
     }
 
     public List<IRQuadruple> getOptimizedIR()
@@ -23,33 +30,32 @@ public class IROptimizer
         return _irList;
     }
 
-    public void optimize()
+    // each method's CFG for the optimized IR, so it doesn't have to be built again
+    public Map<MethodSymbol, ControlFlowGraph> getMethodToCFGMap()
     {
-        // LOL
-        while (optimizeOnce());
+        return _passManager.getMethodToCFGMap();
     }
 
-    public boolean optimizeOnce()
+    // per-method statistics, e.g. how many expressions each pass eliminated
+    public List<String> getStatistics()
+    {
+        return _passManager.getStatistics();
+    }
+
+    // how long each pass took
+    public List<String> getTimings()
+    {
+        return _passManager.getTimings();
+    }
+
+    // optimizes each method on its own. by default: sparse conditional
+    // constant propagation, global value numbering, copy propagation,
+    // loop-invariant code motion, strength reduction of array indexing,
+    // control flow simplification, then dead code elimination, repeated on
+    // each method until it stops changing.
+    public void optimize()
     {
-        // we might be able to more smartly repeat the optimizations,
-        // but whatever yolo
-        // build our CFGS for the IR
-        ControlFlowGraphBuilder cfgBuilder = new ControlFlowGraphBuilder(_irList);
-        Collection<ControlFlowGraph> cfgs = cfgBuilder.getControlFlowGraphs();
-
-        ConstantFolder folder = new ConstantFolder(_irList);
-        // rebuild CFG in case folder was optimized, since folding
-        // changes the IR
-        if (folder.wasOptimized())
-        {
-            cfgBuilder = new ControlFlowGraphBuilder(_irList);
-            cfgs = cfgBuilder.getControlFlowGraphs();
-        }
-        ConstantPropagator prop = new ConstantPropagator(_irList, cfgs, _objLayoutMgr);
-        // don't need to rebuild CFG, since propagating just changes
-        // arguments
-        DeadCodeEliminator elim = new DeadCodeEliminator(_irList, cfgs, _objLayoutMgr);
-
-        return folder.wasOptimized() || prop.wasOptimized() || elim.wasOptimized();
+        _passManager.run();
+        _irList = _passManager.getOptimizedIR();
     }
 }
@@ -0,0 +1,351 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Inlines calls to small methods into their callers.
+//
+// A call is inlined when its callee is one of the program's methods, can't
+// call back into the caller, has at most MAX_CALLEE_SIZE statements, and
+// the variables live across the call plus the most the callee ever has live
+// at once fit in MAX_PRESSURE registers, since the register allocator can't
+// spill. Callers may grow by at most MAX_GROWTH statements. Methods are
+// visited callees first, so a callee's own calls are already inlined into
+// it by the time it's inlined anywhere else.
+//
+// The callee's statements are cloned with a fresh temporary for each of its
+// variables and a fresh name for each of its labels. The receiver and the
+// arguments are copied into the temporaries standing in for 'this' and the
+// formals, and each return becomes a copy into the call's result and a jump
+// past the end of the clone.
+//
+// Generated code reads and writes instance variables through the current
+// method's 'this', so unless the receiver is the caller's own 'this', the
+// callee's instance variable reads and writes become loads and stores
+// through the receiver.
+public class Inliner
+{
+    private static final int MAX_CALLEE_SIZE = 16;
+    private static final int MAX_GROWTH = 200;
+    private static final int MAX_PRESSURE = 16;
+
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+    private CallGraph _graph;
+    // the most variables each callee has live at once
+    private Map<MethodAnalyses, Integer> _pressure;
+
+    private Map<MethodAnalyses, Integer> _inlined;
+    private Map<MethodAnalyses, Integer> _growth;
+    private int _sites = 0;
+
+    public Inliner(List<MethodAnalyses> methods, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = temporaries;
+        _graph = new CallGraph(methods);
+        _pressure = new HashMap<MethodAnalyses, Integer>();
+        _inlined = new HashMap<MethodAnalyses, Integer>();
+        _growth = new HashMap<MethodAnalyses, Integer>();
+
+        for (MethodAnalyses method : _graph.getCalleesFirst())
+            inlineInto(method);
+    }
+
+    public boolean wasOptimized()
+    {
+        return _sites > 0;
+    }
+
+    // call sites inlined over the whole program
+    public int getInlinedCount()
+    {
+        return _sites;
+    }
+
+    // call sites inlined into method
+    public int getInlinedCount(MethodAnalyses method)
+    {
+        Integer count = _inlined.get(method);
+        return (count == null) ? 0 : count;
+    }
+
+    // how many statements inlining added to method
+    public int getGrowth(MethodAnalyses method)
+    {
+        Integer growth = _growth.get(method);
+        return (growth == null) ? 0 : growth;
+    }
+
+    private void inlineInto(MethodAnalyses caller)
+    {
+        List<IRQuadruple> statements = caller.getStatements();
+        Map<IRQuadruple, Integer> liveAcross = null;
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>(statements.size());
+        int inlined = 0;
+        int growth = 0;
+        for (int i = 0; i < statements.size(); i++)
+        {
+            IRQuadruple irq = statements.get(i);
+            MethodAnalyses callee = getInlinableCallee(caller, statements, i);
+            if (callee == null)
+            {
+                result.add(irq);
+                continue;
+            }
+
+            int size = getSize(callee);
+            if (growth + size > MAX_GROWTH)
+            {
+                result.add(irq);
+                continue;
+            }
+            if (liveAcross == null)
+                liveAcross = getLiveAcrossCalls(caller);
+            if (liveAcross.get(irq) + getPressure(callee) + 1 > MAX_PRESSURE)
+            {
+                result.add(irq);
+                continue;
+            }
+
+            // the params are the statements right before the call
+            int params = ((IRCall)irq).getParamCount();
+            List<SymbolInfo> args = new ArrayList<SymbolInfo>();
+            for (IRQuadruple param : result.subList(result.size() - params, result.size()))
+                args.add(param.getArg1());
+            result.subList(result.size() - params, result.size()).clear();
+
+            int before = result.size();
+            addInlinedBody(result, caller, callee, args, irq.getResult());
+            growth += result.size() - before - params - 1;
+            inlined++;
+        }
+
+        if (inlined > 0)
+        {
+            caller.setStatements(result);
+            _pressure.remove(caller);
+            _inlined.put(caller, inlined);
+            _growth.put(caller, growth);
+        }
+    }
+
+    // the method statement i calls, if that call can be inlined
+    private MethodAnalyses getInlinableCallee(MethodAnalyses caller, List<IRQuadruple> statements, int i)
+    {
+        if (!(statements.get(i) instanceof IRCall))
+            return null;
+        IRCall call = (IRCall)statements.get(i);
+        MethodAnalyses callee = _graph.getMethod(call.getArg1());
+        if (callee == null || callee == caller || _graph.isSameComponent(callee, caller))
+            return null;
+        if (getSize(callee) > MAX_CALLEE_SIZE)
+            return null;
+
+        int params = call.getParamCount();
+        if (params != callee.getMethod().getFormalSymbols().size() + 1 || i < params)
+            return null;
+        for (int p = i - params; p < i; p++)
+        {
+            if (!(statements.get(p) instanceof IRParam))
+                return null;
+        }
+        return callee;
+    }
+
+    // clone callee's body into statements, for a call with the given
+    // receiver and arguments
+    private void addInlinedBody(List<IRQuadruple> statements, MethodAnalyses caller, MethodAnalyses callee,
+                                List<SymbolInfo> args, SymbolInfo result)
+    {
+        int site = _sites++;
+        Map<SymbolInfo, SymbolInfo> renamed = new IdentityHashMap<SymbolInfo, SymbolInfo>();
+
+        VariableSymbol calleeThis = callee.getMethod().getVariable("this");
+        VariableSymbol callerThis = caller.getMethod().getVariable("this");
+        SymbolInfo receiver = args.get(0);
+        if (receiver == callerThis)
+            renamed.put(calleeThis, callerThis);
+        else
+            statements.add(new IRCopy(receiver, rename(calleeThis, renamed)));
+        // the callee's instance variables belong to the receiver
+        SymbolInfo pointer = (receiver == callerThis) ? null : renamed.get(calleeThis);
+
+        int arg = 1;
+        for (VariableSymbol formal : callee.getMethod().getFormalSymbols())
+            statements.add(new IRCopy(args.get(arg++), rename(formal, renamed)));
+
+        String end = callee.getName() + "_INL" + site + "_END";
+        boolean jumpsToEnd = false;
+        List<IRQuadruple> body = callee.getStatements();
+        for (int i = 1; i < body.size(); i++)
+        {
+            IRQuadruple irq = body.get(i);
+            if (irq instanceof IRReturn)
+            {
+                SymbolInfo value = load(irq.getArg1(), pointer, renamed, statements);
+                if (result != null)
+                    statements.add(new IRCopy(value, result));
+                if (i < body.size() - 1)
+                {
+                    statements.add(new IRUncondJump(end));
+                    jumpsToEnd = true;
+                }
+                continue;
+            }
+
+            SymbolInfo arg1 = load(irq.getArg1(), pointer, renamed, statements);
+            SymbolInfo arg2 = load(irq.getArg2(), pointer, renamed, statements);
+            SymbolInfo stored = null;
+            SymbolInfo target = irq.getResult();
+            if (irq instanceof IRArrayAssign)
+                target = load(target, pointer, renamed, statements);
+            else if (pointer != null && _objLayoutMgr.isInstanceVariable(target))
+            {
+                stored = target;
+                target = _temporaries.newTemporary(((VariableSymbol)stored).getType());
+            }
+            else
+                target = rename(target, renamed);
+
+            statements.add(copy(irq, arg1, arg2, target, "_INL" + site));
+            if (stored != null)
+                statements.add(new IRPointerStore(pointer, _objLayoutMgr.getByteOffset(stored), target));
+        }
+
+        if (jumpsToEnd)
+            statements.add(new IRLabel(end));
+    }
+
+    // sym as the clone sees it: an instance variable read through pointer
+    // is loaded into a temporary first
+    private SymbolInfo load(SymbolInfo sym, SymbolInfo pointer, Map<SymbolInfo, SymbolInfo> renamed,
+                            List<IRQuadruple> statements)
+    {
+        if (pointer == null || !_objLayoutMgr.isInstanceVariable(sym))
+            return rename(sym, renamed);
+        VariableSymbol temp = _temporaries.newTemporary(((VariableSymbol)sym).getType());
+        statements.add(new IRPointerLoad(pointer, _objLayoutMgr.getByteOffset(sym), temp));
+        return temp;
+    }
+
+    // the clone's temporary for one of the callee's variables. constants,
+    // instance variables and the symbols calls and allocations refer to
+    // are left alone.
+    private SymbolInfo rename(SymbolInfo sym, Map<SymbolInfo, SymbolInfo> renamed)
+    {
+        if (!(sym instanceof VariableSymbol) || sym instanceof ConstantSymbol || _objLayoutMgr.isInstanceVariable(sym))
+            return sym;
+        SymbolInfo temp = renamed.get(sym);
+        if (temp == null)
+        {
+            temp = _temporaries.newTemporary(((VariableSymbol)sym).getType());
+            renamed.put(sym, temp);
+        }
+        return temp;
+    }
+
+    // a copy of irq with the given operands, and suffix added to any label.
+    // returns aren't copied, since each place cloning a method handles them
+    // its own way.
+    static IRQuadruple copy(IRQuadruple irq, SymbolInfo arg1, SymbolInfo arg2, SymbolInfo result, String suffix)
+    {
+        if (irq instanceof IRArrayAssign)
+        {
+            IRArrayAssign assign = new IRArrayAssign(arg1, arg2, result);
+            assign.setChecked(((IRArrayAssign)irq).isChecked());
+            return assign;
+        }
+        if (irq instanceof IRArrayLength)
+            return new IRArrayLength(arg1, result);
+        if (irq instanceof IRArrayLookup)
+        {
+            IRArrayLookup lookup = new IRArrayLookup(arg1, arg2, result);
+            lookup.setChecked(((IRArrayLookup)irq).isChecked());
+            return lookup;
+        }
+        if (irq instanceof IRAssignment)
+            return new IRAssignment(irq.getOp(), arg1, arg2, result);
+        if (irq instanceof IRCall)
+            return new IRCall((MethodSymbol)arg1, ((IRCall)irq).getParamCount(), result);
+        if (irq instanceof IRCondJump)
+            return new IRCondJump(arg1, ((IRCondJump)irq).getLabel() + suffix);
+        if (irq instanceof IRCopy)
+            return new IRCopy(arg1, result);
+        if (irq instanceof IRElementAddress)
+            return new IRElementAddress(arg1, arg2, result);
+        if (irq instanceof IRLabel)
+            return new IRLabel(((IRLabel)irq).getLabel() + suffix);
+        if (irq instanceof IRNewArray)
+            return new IRNewArray(arg2, result);
+        if (irq instanceof IRNewObject)
+            return new IRNewObject(arg1, result);
+        if (irq instanceof IRParam)
+            return new IRParam(arg1);
+        if (irq instanceof IRPointerLoad)
+            return new IRPointerLoad(arg1, ((IRPointerLoad)irq).getOffset(), result);
+        if (irq instanceof IRPointerStore)
+            return new IRPointerStore(arg1, ((IRPointerStore)irq).getOffset(), arg2);
+        if (irq instanceof IRUnaryAssignment)
+            return new IRUnaryAssignment(irq.getOp(), arg1, result);
+        if (irq instanceof IRUncondJump)
+            return new IRUncondJump(((IRUncondJump)irq).getLabel() + suffix);
+        throw new IllegalArgumentException("cannot clone " + irq);
+    }
+
+    // statements in method, not counting its label and returns
+    private int getSize(MethodAnalyses method)
+    {
+        int size = 0;
+        for (IRQuadruple irq : method.getStatements())
+        {
+            if (!(irq instanceof IRReturn) && !(irq instanceof IRLabel && ((IRLabel)irq).isMethod()))
+                size++;
+        }
+        return size;
+    }
+
+    // how many variables are live across each call in method, other than its result
+    private Map<IRQuadruple, Integer> getLiveAcrossCalls(MethodAnalyses method)
+    {
+        Map<IRQuadruple, Integer> live = new IdentityHashMap<IRQuadruple, Integer>();
+        ControlFlowGraph graph = method.getGraph();
+        LivenessAnalysis liveness = new LivenessAnalysis(graph, method.getMethod(), _objLayoutMgr);
+        for (BasicBlock block : graph.getAllBlocks())
+        {
+            List<Set<SymbolInfo>> points = liveness.getLiveSetsWithin(block);
+            for (int i = 0; i < block.size(); i++)
+            {
+                IRQuadruple irq = block.getStatement(i);
+                if (!(irq instanceof IRCall))
+                    continue;
+                Set<SymbolInfo> after = points.get(i + 1);
+                live.put(irq, after.size() - (after.contains(irq.getResult()) ? 1 : 0));
+            }
+        }
+        return live;
+    }
+
+    // the most variables method has live at once
+    private int getPressure(MethodAnalyses method)
+    {
+        Integer pressure = _pressure.get(method);
+        if (pressure == null)
+        {
+            pressure = 0;
+            ControlFlowGraph graph = method.getGraph();
+            LivenessAnalysis liveness = new LivenessAnalysis(graph, method.getMethod(), _objLayoutMgr);
+            for (BasicBlock block : graph.getAllBlocks())
+            {
+                for (Set<SymbolInfo> point : liveness.getLiveSetsWithin(block))
+                    pressure = Math.max(pressure, point.size());
+            }
+            _pressure.put(method, pressure);
+        }
+        return pressure;
+    }
+}
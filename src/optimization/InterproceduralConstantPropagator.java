@@ -0,0 +1,592 @@
+package optimization;
+
+import java.util.*;
+
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Propagates constant arguments across calls.
+//
+// Every call to one of the program's methods passes its receiver and
+// arguments in the params right before it. An argument is constant when
+// it's a constant, a variable whose only definition copies a constant (how
+// literals reach params), or a formal of the caller that's never reassigned
+// and is itself constant. Each formal starts out undefined, and meets the
+// arguments every call passes it until nothing changes, so constants flow
+// down call chains, and a method nothing calls doesn't spoil its callees.
+//
+// A formal that's the same constant at every call has the constant copied
+// into it right after its method's label, for the per-method passes to
+// propagate, as long as that lets a branch or an operation fold. main isn't
+// called, so it's left alone.
+//
+// Calls from inside loops that pass constants the callee can't rely on
+// everywhere can get a clone of the callee specialized for those constants,
+// if the callee is called with at most MAX_SPECIALIZATIONS such argument
+// tuples from loops and has at most MAX_SPECIALIZED_SIZE statements. Clones
+// may add at most MAX_GROWTH statements over the whole program. A clone
+// gets its own method symbol, variables and labels, and its recursive calls
+// passing the same constants call the clone rather than the original. An
+// original left with no callers but itself is removed.
+public class InterproceduralConstantPropagator
+{
+    private static final int MAX_SPECIALIZATIONS = 2;
+    private static final int MAX_SPECIALIZED_SIZE = 100;
+    private static final int MAX_GROWTH = 400;
+
+    private static final ConstantSymbol BOTTOM = new ConstantSymbol("<overdefined>", null);
+    private static final IRQuadruple MULTIPLE = new IRLabel("<multiple>");
+
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+    private List<MethodAnalyses> _methods;
+    private Map<MethodSymbol, MethodAnalyses> _byMethod;
+    // the statement defining each variable each method defines, or
+    // MULTIPLE if more than one does, as of before any changes
+    private Map<MethodAnalyses, Map<SymbolInfo, IRQuadruple>> _definitions;
+    // the statements of each method as of before any changes
+    private Map<MethodAnalyses, List<IRQuadruple>> _original;
+    // the calls to each method
+    private Map<MethodAnalyses, List<CallSite>> _sites;
+    // each formal's value on entry. formals no call reaches yet are missing
+    private Map<VariableSymbol, ConstantSymbol> _formals;
+
+    private Map<MethodAnalyses, Integer> _constant;
+    private Map<MethodAnalyses, Integer> _clones;
+    private Map<MethodAnalyses, Integer> _retargeted;
+    private int _constantCount = 0;
+    private int _cloneCount = 0;
+    private int _retargetedCount = 0;
+    private int _growth = 0;
+    private int _removedCount = 0;
+
+    public InterproceduralConstantPropagator(List<MethodAnalyses> methods, ObjectLayoutManager objLayoutMgr,
+                                             Temporaries temporaries)
+    {
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = temporaries;
+        _methods = new ArrayList<MethodAnalyses>(methods);
+        _byMethod = new IdentityHashMap<MethodSymbol, MethodAnalyses>();
+        _definitions = new HashMap<MethodAnalyses, Map<SymbolInfo, IRQuadruple>>();
+        _original = new HashMap<MethodAnalyses, List<IRQuadruple>>();
+        for (MethodAnalyses method : methods)
+        {
+            _byMethod.put(method.getMethod(), method);
+            _definitions.put(method, findDefinitions(method.getStatements()));
+            _original.put(method, method.getStatements());
+        }
+        _formals = new IdentityHashMap<VariableSymbol, ConstantSymbol>();
+        _constant = new HashMap<MethodAnalyses, Integer>();
+        _clones = new HashMap<MethodAnalyses, Integer>();
+        _retargeted = new HashMap<MethodAnalyses, Integer>();
+
+        findCallSites();
+        propagate();
+
+        Map<IRQuadruple, IRQuadruple> replacements = new IdentityHashMap<IRQuadruple, IRQuadruple>();
+        for (MethodAnalyses method : methods)
+        {
+            addConstantFormals(method);
+            specialize(method, replacements);
+        }
+        retarget(replacements);
+        removeUncalled();
+    }
+
+    public boolean wasOptimized()
+    {
+        return _constantCount > 0 || _cloneCount > 0;
+    }
+
+    // the program's methods, with each clone right after its original
+    public List<MethodAnalyses> getMethods()
+    {
+        return _methods;
+    }
+
+    // formals replaced by constants over the whole program
+    public int getConstantFormalCount()
+    {
+        return _constantCount;
+    }
+
+    public int getConstantFormalCount(MethodAnalyses method)
+    {
+        Integer count = _constant.get(method);
+        return (count == null) ? 0 : count;
+    }
+
+    // specialized clones made over the whole program
+    public int getCloneCount()
+    {
+        return _cloneCount;
+    }
+
+    public int getCloneCount(MethodAnalyses method)
+    {
+        Integer count = _clones.get(method);
+        return (count == null) ? 0 : count;
+    }
+
+    // calls in method changed to call a clone
+    public int getRetargetedCount(MethodAnalyses method)
+    {
+        Integer count = _retargeted.get(method);
+        return (count == null) ? 0 : count;
+    }
+
+    public int getRetargetedCount()
+    {
+        return _retargetedCount;
+    }
+
+    // specialized methods removed because only their clones are called
+    public int getRemovedCount()
+    {
+        return _removedCount;
+    }
+
+    // statements the clones added, less those of the methods removed
+    public int getGrowth()
+    {
+        return _growth;
+    }
+
+    private void findCallSites()
+    {
+        _sites = new HashMap<MethodAnalyses, List<CallSite>>();
+        for (MethodAnalyses method : _methods)
+        {
+            List<IRQuadruple> statements = method.getStatements();
+            for (int i = 0; i < statements.size(); i++)
+            {
+                if (!(statements.get(i) instanceof IRCall))
+                    continue;
+                IRCall call = (IRCall)statements.get(i);
+                MethodAnalyses callee = _byMethod.get(call.getArg1());
+                if (callee == null)
+                    continue;
+                if (!_sites.containsKey(callee))
+                    _sites.put(callee, new ArrayList<CallSite>());
+                _sites.get(callee).add(new CallSite(method, call, getArguments(statements, i, callee)));
+            }
+        }
+    }
+
+    // the receiver and arguments of the call at i, or null if they aren't
+    // all in params right before it
+    private List<SymbolInfo> getArguments(List<IRQuadruple> statements, int i, MethodAnalyses callee)
+    {
+        int params = ((IRCall)statements.get(i)).getParamCount();
+        if (params != callee.getMethod().getFormalSymbols().size() + 1 || i < params)
+            return null;
+        List<SymbolInfo> args = new ArrayList<SymbolInfo>();
+        for (int p = i - params; p < i; p++)
+        {
+            if (!(statements.get(p) instanceof IRParam))
+                return null;
+            args.add(statements.get(p).getArg1());
+        }
+        return args;
+    }
+
+    // recompute each method's formals from its calls until nothing changes.
+    // a method only goes back on the worklist when a caller's formals change.
+    private void propagate()
+    {
+        Map<MethodAnalyses, Set<MethodAnalyses>> callees = new HashMap<MethodAnalyses, Set<MethodAnalyses>>();
+        for (Map.Entry<MethodAnalyses, List<CallSite>> entry : _sites.entrySet())
+        {
+            for (CallSite site : entry.getValue())
+            {
+                if (!callees.containsKey(site.caller))
+                    callees.put(site.caller, new LinkedHashSet<MethodAnalyses>());
+                callees.get(site.caller).add(entry.getKey());
+            }
+        }
+
+        Deque<MethodAnalyses> worklist = new ArrayDeque<MethodAnalyses>();
+        Set<MethodAnalyses> queued = new HashSet<MethodAnalyses>();
+        for (MethodAnalyses method : _methods)
+        {
+            if (!isMain(method) && _sites.containsKey(method))
+            {
+                worklist.add(method);
+                queued.add(method);
+            }
+        }
+        while (!worklist.isEmpty())
+        {
+            MethodAnalyses method = worklist.removeFirst();
+            queued.remove(method);
+            boolean changed = false;
+            int k = 1;
+            for (VariableSymbol formal : method.getMethod().getFormalSymbols())
+            {
+                ConstantSymbol value = null;
+                for (CallSite site : _sites.get(method))
+                    value = meet(value, (site.args == null) ? BOTTOM : getValue(site.caller, site.args.get(k)));
+                if (!isSame(value, _formals.get(formal)))
+                {
+                    _formals.put(formal, value);
+                    changed = true;
+                }
+                k++;
+            }
+            if (!changed || !callees.containsKey(method))
+                continue;
+            for (MethodAnalyses callee : callees.get(method))
+            {
+                if (!isMain(callee) && queued.add(callee))
+                    worklist.add(callee);
+            }
+        }
+    }
+
+    private ConstantSymbol meet(ConstantSymbol a, ConstantSymbol b)
+    {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a == BOTTOM || b == BOTTOM)
+            return BOTTOM;
+        return a.getValue().equals(b.getValue()) ? a : BOTTOM;
+    }
+
+    private boolean isSame(ConstantSymbol a, ConstantSymbol b)
+    {
+        if (a == null || b == null || a == BOTTOM || b == BOTTOM)
+            return a == b;
+        return a.getValue().equals(b.getValue());
+    }
+
+    // what method passes when it passes arg: a constant, BOTTOM, or null if
+    // arg is a formal no call reaches yet
+    private ConstantSymbol getValue(MethodAnalyses method, SymbolInfo arg)
+    {
+        if (arg instanceof ConstantSymbol)
+            return (ConstantSymbol)arg;
+        if (!(arg instanceof VariableSymbol) || _objLayoutMgr.isInstanceVariable(arg))
+            return BOTTOM;
+
+        IRQuadruple definition = _definitions.get(method).get(arg);
+        if (definition == null)
+            return isFormal(method, arg) ? _formals.get(arg) : BOTTOM;
+        if (definition instanceof IRCopy && definition.getArg1() instanceof ConstantSymbol)
+            return (ConstantSymbol)definition.getArg1();
+        return BOTTOM;
+    }
+
+    private Map<SymbolInfo, IRQuadruple> findDefinitions(List<IRQuadruple> statements)
+    {
+        Map<SymbolInfo, IRQuadruple> definitions = new IdentityHashMap<SymbolInfo, IRQuadruple>();
+        for (IRQuadruple irq : statements)
+        {
+            SymbolInfo result = irq.getResult();
+            if (result != null && irq.isDefOf(result))
+                definitions.put(result, definitions.containsKey(result) ? MULTIPLE : irq);
+        }
+        return definitions;
+    }
+
+    private boolean isFormal(MethodAnalyses method, SymbolInfo sym)
+    {
+        for (VariableSymbol formal : method.getMethod().getFormalSymbols())
+        {
+            if (formal == sym)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isMain(MethodAnalyses method)
+    {
+        return method.getMethod().getName().equals("main");
+    }
+
+    // copy each formal that's constant at every call into it on entry
+    private void addConstantFormals(MethodAnalyses method)
+    {
+        if (isMain(method))
+            return;
+        List<IRQuadruple> copies = new ArrayList<IRQuadruple>();
+        for (VariableSymbol formal : method.getMethod().getFormalSymbols())
+        {
+            if (isConstant(_formals.get(formal)) && isFoldable(method, formal))
+                copies.add(new IRCopy(_formals.get(formal), formal));
+        }
+        if (copies.isEmpty())
+            return;
+
+        List<IRQuadruple> statements = new ArrayList<IRQuadruple>(method.getStatements());
+        statements.addAll(1, copies);
+        method.setStatements(statements);
+        _constant.put(method, copies.size());
+        _constantCount += copies.size();
+    }
+
+    // true iff knowing formal is constant would let a branch or an
+    // operation on it fold. the code generator loads a constant into a
+    // register every time it's used, so one that folds nothing only costs.
+    private boolean isFoldable(MethodAnalyses method, VariableSymbol formal)
+    {
+        for (IRQuadruple irq : _original.get(method))
+        {
+            if (irq.getArg1() != formal && irq.getArg2() != formal)
+                continue;
+            if (irq instanceof IRCondJump || irq instanceof IRUnaryAssignment)
+                return true;
+            if (irq instanceof IRAssignment)
+            {
+                SymbolInfo other = (irq.getArg1() == formal) ? irq.getArg2() : irq.getArg1();
+                if (other == formal || other instanceof ConstantSymbol)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isConstant(ConstantSymbol value)
+    {
+        return value != null && value != BOTTOM;
+    }
+
+    // clone method for the constant argument tuples its calls from loops pass
+    private void specialize(MethodAnalyses method, Map<IRQuadruple, IRQuadruple> replacements)
+    {
+        if (isMain(method) || !_sites.containsKey(method))
+            return;
+        int size = method.getStatements().size();
+        if (size > MAX_SPECIALIZED_SIZE)
+            return;
+
+        // the calls passing each tuple, and whether any of them is in a loop
+        Map<List<String>, List<CallSite>> tuples = new LinkedHashMap<List<String>, List<CallSite>>();
+        Set<List<String>> hot = new HashSet<List<String>>();
+        for (CallSite site : _sites.get(method))
+        {
+            List<String> tuple = getTuple(method, site);
+            if (tuple == null)
+                continue;
+            if (!tuples.containsKey(tuple))
+                tuples.put(tuple, new ArrayList<CallSite>());
+            tuples.get(tuple).add(site);
+            if (isInLoop(site))
+                hot.add(tuple);
+        }
+        if (hot.isEmpty() || hot.size() > MAX_SPECIALIZATIONS || _growth + hot.size() * size > MAX_GROWTH)
+            return;
+
+        int position = _methods.indexOf(method) + 1;
+        for (Map.Entry<List<String>, List<CallSite>> entry : tuples.entrySet())
+        {
+            if (!hot.contains(entry.getKey()))
+                continue;
+            MethodAnalyses clone = createClone(method, entry.getValue().get(0));
+            _methods.add(position++, clone);
+            for (CallSite site : entry.getValue())
+            {
+                IRCall call = new IRCall(clone.getMethod(), site.call.getParamCount(), site.call.getResult());
+                call.setTail(site.call.isTail());
+                replacements.put(site.call, call);
+            }
+            _growth += clone.getStatements().size();
+            _cloneCount++;
+        }
+        _clones.put(method, hot.size());
+    }
+
+    // the constants a call passes the formals that aren't constant at every
+    // call, as strings with null for the rest, or null if it passes none
+    private List<String> getTuple(MethodAnalyses method, CallSite site)
+    {
+        if (site.args == null)
+            return null;
+        List<String> tuple = new ArrayList<String>();
+        boolean constant = false;
+        for (ConstantSymbol value : getConstants(method, site))
+        {
+            tuple.add((value == null) ? null : value.getValue());
+            constant |= value != null;
+        }
+        return constant ? tuple : null;
+    }
+
+    // the constant a call passes each formal that isn't constant at every
+    // call and would let something fold, or null
+    private List<ConstantSymbol> getConstants(MethodAnalyses method, CallSite site)
+    {
+        List<ConstantSymbol> constants = new ArrayList<ConstantSymbol>();
+        int k = 1;
+        for (VariableSymbol formal : method.getMethod().getFormalSymbols())
+        {
+            ConstantSymbol value = getValue(site.caller, site.args.get(k++));
+            boolean foldable = isConstant(value) && !isConstant(_formals.get(formal)) && isFoldable(method, formal);
+            constants.add(foldable ? value : null);
+        }
+        return constants;
+    }
+
+    private boolean isInLoop(CallSite site)
+    {
+        int block = site.caller.getIndex().getBlock(site.call).getId();
+        return site.caller.getLoops().getLoopDepth(block) > 0;
+    }
+
+    // a copy of method with its own symbol, variables and labels, that
+    // copies the constants site passes into its formals on entry
+    private MethodAnalyses createClone(MethodAnalyses method, CallSite site)
+    {
+        MethodSymbol original = method.getMethod();
+        String suffix = "_SPEC" + _cloneCount;
+        MethodSymbol symbol = new MethodSymbol(original.getName() + suffix, original.getReturnType());
+        symbol.setLabel(method.getName() + suffix);
+
+        Map<SymbolInfo, SymbolInfo> renamed = new IdentityHashMap<SymbolInfo, SymbolInfo>();
+        VariableSymbol originalThis = original.getVariable("this");
+        VariableSymbol cloneThis = new VariableSymbol("this", originalThis.getType());
+        symbol.addLocal(cloneThis);
+        renamed.put(originalThis, cloneThis);
+
+        List<IRQuadruple> statements = new ArrayList<IRQuadruple>();
+        statements.add(new IRLabel(symbol.getLabel(), symbol));
+        List<ConstantSymbol> constants = getConstants(method, site);
+        int k = 0;
+        for (VariableSymbol formal : original.getFormalSymbols())
+        {
+            VariableSymbol cloneFormal = new VariableSymbol(formal.getName(), formal.getType());
+            symbol.addFormal(cloneFormal);
+            renamed.put(formal, cloneFormal);
+            if (constants.get(k++) != null)
+                statements.add(new IRCopy(constants.get(k - 1), cloneFormal));
+        }
+
+        List<IRQuadruple> body = method.getStatements();
+        for (int i = 1; i < body.size(); i++)
+        {
+            IRQuadruple irq = body.get(i);
+            if (irq instanceof IRReturn)
+                statements.add(new IRReturn(rename(irq.getArg1(), renamed)));
+            else if (irq instanceof IRCall && isRecursiveCall(method, body, i, constants))
+                statements.add(new IRCall(symbol, ((IRCall)irq).getParamCount(), rename(irq.getResult(), renamed)));
+            else
+            {
+                statements.add(Inliner.copy(irq, rename(irq.getArg1(), renamed), rename(irq.getArg2(), renamed),
+                                            rename(irq.getResult(), renamed), suffix));
+            }
+        }
+        return new MethodAnalyses(statements, _objLayoutMgr);
+    }
+
+    // true iff statement i of method calls method, passing the given
+    // constants (null for any value)
+    private boolean isRecursiveCall(MethodAnalyses method, List<IRQuadruple> body, int i, List<ConstantSymbol> constants)
+    {
+        if (body.get(i).getArg1() != method.getMethod())
+            return false;
+        List<SymbolInfo> args = getArguments(body, i, method);
+        if (args == null)
+            return false;
+        int k = 1;
+        for (VariableSymbol formal : method.getMethod().getFormalSymbols())
+        {
+            ConstantSymbol constant = constants.get(k - 1);
+            SymbolInfo arg = args.get(k++);
+            if (constant == null)
+                continue;
+            // the formal keeps the constant it came in with
+            if (arg == formal && !_definitions.get(method).containsKey(formal))
+                continue;
+            ConstantSymbol value = getValue(method, arg);
+            if (!isConstant(value) || !value.getValue().equals(constant.getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    // the clone's variable for one of the original's. constants, instance
+    // variables and the symbols calls and allocations refer to are left alone.
+    private SymbolInfo rename(SymbolInfo sym, Map<SymbolInfo, SymbolInfo> renamed)
+    {
+        if (!(sym instanceof VariableSymbol) || sym instanceof ConstantSymbol || _objLayoutMgr.isInstanceVariable(sym))
+            return sym;
+        SymbolInfo temp = renamed.get(sym);
+        if (temp == null)
+        {
+            temp = _temporaries.newTemporary(((VariableSymbol)sym).getType());
+            renamed.put(sym, temp);
+        }
+        return temp;
+    }
+
+    // point the calls that were specialized at their clones
+    private void retarget(Map<IRQuadruple, IRQuadruple> replacements)
+    {
+        if (replacements.isEmpty())
+            return;
+        for (MethodAnalyses method : _methods)
+        {
+            List<IRQuadruple> statements = new ArrayList<IRQuadruple>(method.getStatements());
+            int retargeted = 0;
+            for (int i = 0; i < statements.size(); i++)
+            {
+                IRQuadruple replacement = replacements.get(statements.get(i));
+                if (replacement != null)
+                {
+                    statements.set(i, replacement);
+                    retargeted++;
+                }
+            }
+            if (retargeted > 0)
+            {
+                method.setStatements(statements);
+                _retargeted.put(method, retargeted);
+                _retargetedCount += retargeted;
+            }
+        }
+    }
+
+    // remove each specialized method nothing but itself calls anymore
+    private void removeUncalled()
+    {
+        if (_cloneCount == 0)
+            return;
+        Set<MethodSymbol> called = Collections.newSetFromMap(new IdentityHashMap<MethodSymbol, Boolean>());
+        for (MethodAnalyses method : _methods)
+        {
+            for (IRQuadruple irq : method.getStatements())
+            {
+                if (irq instanceof IRCall && irq.getArg1() != method.getMethod())
+                    called.add((MethodSymbol)irq.getArg1());
+            }
+        }
+        for (Iterator<MethodAnalyses> methods = _methods.iterator(); methods.hasNext(); )
+        {
+            MethodAnalyses method = methods.next();
+            if (_clones.containsKey(method) && !called.contains(method.getMethod()))
+            {
+                methods.remove();
+                _growth -= method.getStatements().size();
+                _removedCount++;
+            }
+        }
+    }
+
+    // a call to one of the program's methods
+    private static class CallSite
+    {
+        MethodAnalyses caller;
+        IRCall call;
+        // the receiver and arguments, or null if they aren't all known
+        List<SymbolInfo> args;
+
+        CallSite(MethodAnalyses caller, IRCall call, List<SymbolInfo> args)
+        {
+            this.caller = caller;
+            this.call = call;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Loop-invariant code motion.
+//
+// Loops are handled innermost first. A statement is hoisted into its loop's
+// preheader when every operand is a constant or is defined outside the loop,
+// and its result is a variable with no other definition (so every use of it
+// reads the hoisted value). Hoisted statements move into the enclosing loop,
+// so they can be hoisted again from there.
+//
+// Statements that can trap (add and sub on overflow, array lengths and
+// lookups on null) are only hoisted from blocks that run on every iteration
+// that leaves the loop, i.e. blocks dominating all the loop's exits.
+// Array lookups also need a loop that never stores to an array or calls.
+//
+// Instance variables are reloaded from memory every time they're read. In a
+// loop with no calls and no stores to a field, the field is read once into a
+// temporary in the preheader, and the loop reads the temporary instead.
+//
+// A loop's preheader is the one block outside it that leads to its header.
+// MiniJava has no loops whose header is reached from several blocks outside
+// the loop, but a loop entered from a conditional jump (e.g. a while nested
+// directly in another while) gets a new label before its header as a
+// preheader. It's removed again if nothing was hoisted to it.
+public class LoopInvariantCodeMotion
+{
+    private ControlFlowGraph _graph;
+    private DominatorTree _dominators;
+    private SSAForm _ssa;
+    private LoopNest _loops;
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+
+    // each block's statements, as they're moved around
+    private List<List<IRQuadruple>> _blockStatements;
+    // the block each statement is currently in, and each original
+    // statement's SSA number
+    private Map<IRQuadruple, Integer> _locations;
+    private Map<IRQuadruple, Integer> _statementNumbers;
+    // the copies into temporaries made for instance variables
+    private Map<SymbolInfo, IRQuadruple> _temporaryDefinitions;
+    // the labels added for preheaders
+    private Set<IRQuadruple> _preheaderLabels;
+
+    private int _hoisted = 0;
+    private int _promoted = 0;
+
+    public LoopInvariantCodeMotion(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        this(graph, new DominatorTree(graph), objLayoutMgr, temporaries);
+    }
+
+    private LoopInvariantCodeMotion(ControlFlowGraph graph, DominatorTree dominators, ObjectLayoutManager objLayoutMgr,
+                                    Temporaries temporaries)
+    {
+        this(new SSAForm(graph, dominators, objLayoutMgr), new LoopNest(graph, dominators), objLayoutMgr, temporaries);
+    }
+
+    public LoopInvariantCodeMotion(SSAForm ssa, LoopNest loops, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = temporaries;
+
+        analyze(ssa, loops);
+        _preheaderLabels = Collections.newSetFromMap(new IdentityHashMap<IRQuadruple, Boolean>());
+        if (addPreheaders())
+        {
+            ControlFlowGraph graph = new ControlFlowGraphBuilder(flatten()).getControlFlowGraphs().iterator().next();
+            DominatorTree dominators = new DominatorTree(graph);
+            analyze(new SSAForm(graph, dominators, objLayoutMgr), new LoopNest(graph, dominators));
+        }
+
+        _temporaryDefinitions = new HashMap<SymbolInfo, IRQuadruple>();
+        for (int loop = 0; loop < _loops.getLoopCount(); loop++)
+            hoist(loop);
+        removeEmptyPreheaders();
+    }
+
+    public boolean wasOptimized()
+    {
+        return _hoisted > 0 || _promoted > 0;
+    }
+
+    // how many statements were moved out of a loop, counting each loop
+    // they were moved out of
+    public int getHoistedCount()
+    {
+        return _hoisted;
+    }
+
+    // how many times an instance variable was read into a temporary before a loop
+    public int getPromotedCount()
+    {
+        return _promoted;
+    }
+
+    public int getLoopCount()
+    {
+        return _loops.getLoopCount();
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        return flatten();
+    }
+
+    private void analyze(SSAForm ssa, LoopNest loops)
+    {
+        ControlFlowGraph graph = ssa.getGraph();
+        _graph = graph;
+        _dominators = ssa.getDominators();
+        _ssa = ssa;
+        _loops = loops;
+
+        _blockStatements = new ArrayList<List<IRQuadruple>>();
+        _locations = new IdentityHashMap<IRQuadruple, Integer>();
+        _statementNumbers = new IdentityHashMap<IRQuadruple, Integer>();
+        for (int b = 0; b < graph.getBlockCount(); b++)
+        {
+            BasicBlock block = graph.getBlock(b);
+            _blockStatements.add(new ArrayList<IRQuadruple>(block.getStatements()));
+            for (int i = 0; i < block.size(); i++)
+            {
+                _locations.put(block.getStatement(i), b);
+                _statementNumbers.put(block.getStatement(i), _ssa.getStatementNumber(b, i));
+            }
+        }
+    }
+
+    private List<IRQuadruple> flatten()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (List<IRQuadruple> statements : _blockStatements)
+            result.addAll(statements);
+        return result;
+    }
+
+    // give loops entered by falling through a conditional jump a label of
+    // their own to hoist to. true iff any were added.
+    private boolean addPreheaders()
+    {
+        boolean added = false;
+        for (int loop = 0; loop < _loops.getLoopCount(); loop++)
+        {
+            int header = _loops.getHeader(loop);
+            int entry = _loops.getEntry(loop);
+            if (_loops.getPreheader(loop) >= 0 || entry != header - 1)
+                continue;
+
+            List<IRQuadruple> entryStatements = _blockStatements.get(entry);
+            IRQuadruple last = entryStatements.get(entryStatements.size() - 1);
+            IRQuadruple first = _blockStatements.get(header).get(0);
+            if (!(last instanceof IRCondJump) || !(first instanceof IRLabel))
+                continue;
+            String label = ((IRLabel)first).getLabel();
+            if (((IRCondJump)last).getLabel().equals(label))
+                continue;
+
+            IRQuadruple preheader = new IRLabel(label + "_PRE");
+            entryStatements.add(preheader);
+            _preheaderLabels.add(preheader);
+            added = true;
+        }
+        return added;
+    }
+
+    // drop the labels of added preheaders nothing was hoisted to
+    private void removeEmptyPreheaders()
+    {
+        for (List<IRQuadruple> statements : _blockStatements)
+        {
+            if (statements.size() == 1 && _preheaderLabels.contains(statements.get(0)))
+                statements.clear();
+        }
+    }
+
+    private void hoist(int loop)
+    {
+        int preheader = _loops.getPreheader(loop);
+        if (preheader < 0)
+            return;
+
+        // visit the loop's blocks in reverse postorder, so definitions are
+        // usually seen before their uses
+        List<Integer> blocks = new ArrayList<Integer>();
+        for (int b : _graph.getReversePostorder())
+        {
+            if (_loops.contains(loop, b))
+                blocks.add(b);
+        }
+
+        LoopSummary summary = new LoopSummary(loop, blocks);
+        boolean changed = true;
+        while (changed)
+        {
+            changed = false;
+            for (int b : blocks)
+            {
+                List<IRQuadruple> statements = _blockStatements.get(b);
+                for (int i = 0; i < statements.size(); i++)
+                {
+                    IRQuadruple irq = statements.get(i);
+                    if (!canHoist(loop, b, irq, summary))
+                        continue;
+                    statements.remove(i--);
+                    addToPreheader(preheader, irq);
+                    _hoisted++;
+                    changed = true;
+                }
+            }
+        }
+
+        promoteInstanceVariables(loop, preheader, blocks, summary);
+    }
+
+    private boolean canHoist(int loop, int block, IRQuadruple irq, LoopSummary summary)
+    {
+        boolean mayTrap;
+        if (irq instanceof IRCopy || irq instanceof IRUnaryAssignment || irq instanceof IRElementAddress)
+            mayTrap = false;
+        else if (irq instanceof IRAssignment)
+            mayTrap = irq.getOp().equals("+") || irq.getOp().equals("-");
+        else if (irq instanceof IRArrayLength)
+            mayTrap = true;
+        else if (irq instanceof IRArrayLookup)
+        {
+            // a failed bounds check has to come after whatever the loop did first
+            if (summary.hasCall || summary.hasArrayStore || ((IRArrayLookup)irq).isChecked())
+                return false;
+            mayTrap = true;
+        }
+        else
+            return false;
+
+        if (!hasSingleDefinition(irq.getResult()))
+            return false;
+        if (!isInvariant(loop, irq, irq.getArg1(), summary))
+            return false;
+        if (irq.getArg2() != null && !isInvariant(loop, irq, irq.getArg2(), summary))
+            return false;
+        return !mayTrap || summary.dominatesExits(block);
+    }
+
+    // true iff every read of sym reads the value of its only definition
+    private boolean hasSingleDefinition(SymbolInfo sym)
+    {
+        return _temporaryDefinitions.containsKey(sym) || _ssa.isSingleAssignment(sym);
+    }
+
+    private boolean isInvariant(int loop, IRQuadruple irq, SymbolInfo sym, LoopSummary summary)
+    {
+        if (sym instanceof ConstantSymbol)
+            return true;
+        if (_objLayoutMgr.isInstanceVariable(sym))
+            return !summary.hasCall && !summary.hasPointerStore && !summary.storedFields.contains(sym);
+        if (_temporaryDefinitions.containsKey(sym))
+            return !_loops.contains(loop, _locations.get(_temporaryDefinitions.get(sym)));
+
+        Integer statement = _statementNumbers.get(irq);
+        int value = (statement == null) ? -1 : _ssa.getUseValue(statement, sym);
+        if (value < 0)
+            return false;
+        int definition = _ssa.getDefiningStatement(value);
+        int block = (definition >= 0)
+            ? _locations.get(_ssa.getStatement(definition)) : _ssa.getDefiningBlock(value);
+        return !_loops.contains(loop, block);
+    }
+
+    // read each instance variable the loop reads but never writes into a
+    // temporary before the loop
+    private void promoteInstanceVariables(int loop, int preheader, List<Integer> blocks, LoopSummary summary)
+    {
+        if (summary.hasCall || summary.hasPointerStore)
+            return;
+
+        Set<SymbolInfo> fields = new LinkedHashSet<SymbolInfo>();
+        for (int b : blocks)
+        {
+            for (IRQuadruple irq : _blockStatements.get(b))
+            {
+                for (SymbolInfo sym : CFGDefsAndUses.getStatementUsages(irq, _objLayoutMgr))
+                {
+                    if (_objLayoutMgr.isInstanceVariable(sym) && irq.isUsageOf(sym)
+                        && !summary.storedFields.contains(sym))
+                        fields.add(sym);
+                }
+            }
+        }
+
+        for (SymbolInfo field : fields)
+        {
+            VariableSymbol temp = _temporaries.newTemporary(((VariableSymbol)field).getType());
+            IRQuadruple copy = new IRCopy(field, temp);
+            addToPreheader(preheader, copy);
+            _temporaryDefinitions.put(temp, copy);
+            for (int b : blocks)
+            {
+                for (IRQuadruple irq : _blockStatements.get(b))
+                    irq.replaceArgs(field, temp);
+            }
+            _promoted++;
+        }
+    }
+
+    // add to the end of the preheader, before its jump to the header if it has one
+    private void addToPreheader(int preheader, IRQuadruple irq)
+    {
+        List<IRQuadruple> statements = _blockStatements.get(preheader);
+        int index = statements.size();
+        if (index > 0 && statements.get(index - 1) instanceof IRUncondJump)
+            index--;
+        statements.add(index, irq);
+        _locations.put(irq, preheader);
+    }
+
+    // what a loop's body does to memory, and where it can exit
+    private class LoopSummary
+    {
+        boolean hasCall = false;
+        boolean hasArrayStore = false;
+        // a store through a pointer could be to one of this object's
+        // instance variables, e.g. from an inlined call
+        boolean hasPointerStore = false;
+        Set<SymbolInfo> storedFields = new HashSet<SymbolInfo>();
+        List<Integer> exits = new ArrayList<Integer>();
+
+        LoopSummary(int loop, List<Integer> blocks)
+        {
+            for (int b : blocks)
+            {
+                if (_loops.isExiting(loop, b))
+                    exits.add(b);
+                for (IRQuadruple irq : _blockStatements.get(b))
+                {
+                    if (irq instanceof IRCall)
+                        hasCall = true;
+                    else if (irq instanceof IRArrayAssign)
+                        hasArrayStore = true;
+                    else if (irq instanceof IRPointerStore)
+                        hasArrayStore = hasPointerStore = true;
+                    else if (irq.getResult() != null && _objLayoutMgr.isInstanceVariable(irq.getResult()))
+                        storedFields.add(irq.getResult());
+                }
+            }
+        }
+
+        boolean dominatesExits(int block)
+        {
+            for (int exit : exits)
+            {
+                if (!_dominators.dominates(block, exit))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// A method being optimized: its current statements, and the analyses of them
+// passes have asked for so far. Analyses are built the first time they're
+// asked for and kept until the statements change, so passes that leave a
+// method alone don't cost the next pass a rebuild.
+public class MethodAnalyses
+{
+    private MethodSymbol _method;
+    private String _name;
+    private List<IRQuadruple> _statements;
+    private ObjectLayoutManager _objLayoutMgr;
+
+    private ControlFlowGraph _graph;
+    private StatementIndex _index;
+    private DominatorTree _dominators;
+    private SSAForm _ssa;
+    private LoopNest _loops;
+
+    // bumped every time the statements change
+    private int _version = 0;
+    private int _graphsBuilt = 0;
+
+    public MethodAnalyses(List<IRQuadruple> statements, ObjectLayoutManager objLayoutMgr)
+    {
+        // every method starts with its label
+        IRLabel label = (IRLabel)statements.get(0);
+        _method = label.getMethod();
+        _name = label.getLabel();
+        _statements = statements;
+        _objLayoutMgr = objLayoutMgr;
+    }
+
+    public MethodSymbol getMethod()
+    {
+        return _method;
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    public List<IRQuadruple> getStatements()
+    {
+        return _statements;
+    }
+
+    // replace the method's statements, throwing away every analysis of the old ones
+    public void setStatements(List<IRQuadruple> statements)
+    {
+        _statements = statements;
+        _version++;
+        invalidate();
+    }
+
+    // replace the method's statements with ones that were edited through
+    // getIndex(), which kept the CFG up to date. the CFG's shape didn't
+    // change, so only SSA form has to be thrown away, unless a block was
+    // left empty.
+    public void setEditedStatements(List<IRQuadruple> statements)
+    {
+        _statements = statements;
+        _version++;
+        _ssa = null;
+        for (BasicBlock block : _graph.getAllBlocks())
+        {
+            if (block.isEmpty())
+            {
+                invalidate();
+                return;
+            }
+        }
+    }
+
+    // changes whenever the statements do, so passes can tell whether
+    // they've already seen them
+    public int getVersion()
+    {
+        return _version;
+    }
+
+    // throw away every analysis, e.g. after statements were changed in place
+    public void invalidate()
+    {
+        _graph = null;
+        _index = null;
+        _dominators = null;
+        _ssa = null;
+        _loops = null;
+    }
+
+    public ControlFlowGraph getGraph()
+    {
+        if (_graph == null)
+        {
+            _graph = new ControlFlowGraphBuilder(_statements).getControlFlowGraphs().iterator().next();
+            _graphsBuilt++;
+        }
+        return _graph;
+    }
+
+    // where each statement is in the CFG
+    public StatementIndex getIndex()
+    {
+        if (_index == null)
+        {
+            _index = new StatementIndex();
+            _index.addGraph(getGraph());
+        }
+        return _index;
+    }
+
+    public DominatorTree getDominators()
+    {
+        if (_dominators == null)
+            _dominators = new DominatorTree(getGraph());
+        return _dominators;
+    }
+
+    public SSAForm getSSAForm()
+    {
+        if (_ssa == null)
+            _ssa = new SSAForm(getGraph(), getDominators(), _objLayoutMgr);
+        return _ssa;
+    }
+
+    public LoopNest getLoops()
+    {
+        if (_loops == null)
+            _loops = new LoopNest(getGraph(), getDominators());
+        return _loops;
+    }
+
+    // how many times this method's CFG has been built
+    public int getGraphsBuilt()
+    {
+        return _graphsBuilt;
+    }
+}
@@ -0,0 +1,471 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+
+// Runs a pipeline of optimization passes over each method.
+//
+// Each method keeps its CFG and the analyses built on it (dominators, SSA
+// form, loops) until a pass reports that it changed the method, so a pass
+// that changes nothing doesn't make the next one rebuild them, and a change
+// to one method never costs another method anything.
+//
+// Methods sit on a worklist. A method runs through the whole pipeline, and
+// goes back on the worklist if any pass changed it, since one pass's changes
+// can give an earlier pass more to do. It's taken off for good once a round
+// changes nothing, or after MAX_ROUNDS rounds. A pass that left a method
+// alone isn't run on it again until something else changes it.
+//
+// Inlining, interprocedural constant propagation and escape analysis work on
+// the whole program rather than a method at a time, so they aren't part of
+// the per-method pipeline: if the pipeline includes "inline", "ipcp" or
+// "escape", they run once over every method (in that order) before any of
+// the other passes.
+public class PassManager
+{
+    private static final int MAX_ROUNDS = 4;
+
+    private static final List<String> PASS_NAMES = Arrays.asList(
+        "inline", "ipcp", "escape", "tail", "fold", "prop", "deadcopies", "sccp", "gvn", "copies", "bounds", "licm", "sr", "simplify", "dce");
+    private static final List<String> DEFAULT_PIPELINE = Arrays.asList(
+        "inline", "ipcp", "escape", "tail", "sccp", "gvn", "copies", "bounds", "licm", "sr", "simplify", "dce");
+
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+    private List<MethodAnalyses> _methods;
+    private List<Pass> _pipeline;
+    private List<String> _statistics;
+    private int _rounds = 0;
+
+    private boolean _inline = false;
+    private long _inlineNanos = 0;
+    private int _inlined = 0;
+
+    private boolean _ipcp = false;
+    private long _ipcpNanos = 0;
+    private InterproceduralConstantPropagator _propagator;
+
+    private boolean _escape = false;
+    private long _escapeNanos = 0;
+    private EscapeAnalyzer _escapeAnalyzer;
+
+    // bounds checks (see -safe) each method has had removed
+    private Map<MethodAnalyses, Integer> _checksRemoved = new HashMap<MethodAnalyses, Integer>();
+
+    public PassManager(List<IRQuadruple> irList, ObjectLayoutManager objLayoutMgr, List<String> pipeline)
+    {
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = new Temporaries();
+        _statistics = new ArrayList<String>();
+
+        _methods = new ArrayList<MethodAnalyses>();
+        for (ControlFlowGraph cfg : new ControlFlowGraphBuilder(irList).getControlFlowGraphs())
+        {
+            List<IRQuadruple> statements = new ArrayList<IRQuadruple>();
+            for (BasicBlock block : cfg.getAllBlocks())
+                statements.addAll(block.getStatements());
+            _methods.add(new MethodAnalyses(statements, objLayoutMgr));
+        }
+
+        _pipeline = new ArrayList<Pass>();
+        for (String name : pipeline)
+        {
+            if (name.equals("inline"))
+                _inline = true;
+            else if (name.equals("ipcp"))
+                _ipcp = true;
+            else if (name.equals("escape"))
+                _escape = true;
+            else
+                _pipeline.add(createPass(name));
+        }
+    }
+
+    // the names of every pass a pipeline can contain
+    public static List<String> getPassNames()
+    {
+        return PASS_NAMES;
+    }
+
+    public static List<String> getDefaultPipeline()
+    {
+        return DEFAULT_PIPELINE;
+    }
+
+    public static boolean isPass(String name)
+    {
+        return PASS_NAMES.contains(name);
+    }
+
+    public void run()
+    {
+        if (_inline)
+            inline();
+        if (_ipcp)
+            propagateConstants();
+        if (_escape)
+            eliminateAllocations();
+
+        Deque<MethodAnalyses> worklist = new ArrayDeque<MethodAnalyses>(_methods);
+        Map<MethodAnalyses, Integer> rounds = new HashMap<MethodAnalyses, Integer>();
+        while (!worklist.isEmpty())
+        {
+            MethodAnalyses method = worklist.removeFirst();
+            int round = rounds.containsKey(method) ? rounds.get(method) + 1 : 1;
+            rounds.put(method, round);
+            _rounds++;
+
+            int version = method.getVersion();
+            for (Pass pass : _pipeline)
+                pass.runOn(method);
+            if (method.getVersion() != version && round < MAX_ROUNDS)
+                worklist.addLast(method);
+        }
+        reportBoundsChecks();
+    }
+
+    private void reportBoundsChecks()
+    {
+        for (MethodAnalyses method : _methods)
+        {
+            int emitted = BoundsCheckEliminator.countChecks(method.getStatements());
+            int removed = _checksRemoved.containsKey(method) ? _checksRemoved.get(method) : 0;
+            if (emitted > 0 || removed > 0)
+                report(method, emitted + " bounds checks emitted, " + removed + " eliminated");
+        }
+    }
+
+    private void inline()
+    {
+        long start = System.nanoTime();
+        Inliner inliner = new Inliner(_methods, _objLayoutMgr, _temporaries);
+        _inlineNanos = System.nanoTime() - start;
+        _inlined = inliner.getInlinedCount();
+        for (MethodAnalyses method : _methods)
+        {
+            if (inliner.getInlinedCount(method) > 0)
+            {
+                report(method, "inlined " + inliner.getInlinedCount(method) + " calls, adding "
+                       + inliner.getGrowth(method) + " statements");
+            }
+        }
+    }
+
+    private void propagateConstants()
+    {
+        long start = System.nanoTime();
+        _propagator = new InterproceduralConstantPropagator(_methods, _objLayoutMgr, _temporaries);
+        _ipcpNanos = System.nanoTime() - start;
+        for (MethodAnalyses method : _methods)
+        {
+            if (_propagator.getConstantFormalCount(method) > 0)
+                report(method, "ipcp replaced " + _propagator.getConstantFormalCount(method) + " formals with constants");
+            if (_propagator.getCloneCount(method) > 0)
+                report(method, "ipcp specialized " + _propagator.getCloneCount(method) + " clones");
+            if (_propagator.getRetargetedCount(method) > 0)
+                report(method, "ipcp pointed " + _propagator.getRetargetedCount(method) + " calls at specialized clones");
+        }
+        _methods = _propagator.getMethods();
+    }
+
+    private void eliminateAllocations()
+    {
+        long start = System.nanoTime();
+        _escapeAnalyzer = new EscapeAnalyzer(_methods, _objLayoutMgr, _temporaries);
+        _escapeNanos = System.nanoTime() - start;
+        for (MethodAnalyses method : _methods)
+        {
+            if (_escapeAnalyzer.getReplacedCount(method) > 0 || _escapeAnalyzer.getStackCount(method) > 0)
+            {
+                report(method, "escape analysis replaced " + _escapeAnalyzer.getReplacedCount(method)
+                       + " allocations with scalars and moved " + _escapeAnalyzer.getStackCount(method) + " onto the stack");
+            }
+        }
+    }
+
+    public List<IRQuadruple> getOptimizedIR()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (MethodAnalyses method : _methods)
+            result.addAll(method.getStatements());
+        return result;
+    }
+
+    // each method's CFG, as of the end of the pipeline
+    public Map<MethodSymbol, ControlFlowGraph> getMethodToCFGMap()
+    {
+        Map<MethodSymbol, ControlFlowGraph> graphs = new LinkedHashMap<MethodSymbol, ControlFlowGraph>();
+        for (MethodAnalyses method : _methods)
+            graphs.put(method.getMethod(), method.getGraph());
+        return graphs;
+    }
+
+    // what each pass did to each method
+    public List<String> getStatistics()
+    {
+        return _statistics;
+    }
+
+    // how long each pass took over the whole program, and how much work the
+    // cached analyses saved
+    public List<String> getTimings()
+    {
+        List<String> timings = new ArrayList<String>();
+        if (_inline)
+            timings.add("inline: " + (_inlineNanos / 1000000) + " ms, inlined " + _inlined + " calls");
+        if (_ipcp)
+        {
+            timings.add("ipcp: " + (_ipcpNanos / 1000000) + " ms, " + _propagator.getConstantFormalCount()
+                        + " constant formals, " + _propagator.getCloneCount() + " clones adding "
+                        + _propagator.getGrowth() + " statements, " + _propagator.getRetargetedCount() + " calls retargeted, "
+                        + _propagator.getRemovedCount() + " methods removed");
+        }
+        if (_escape)
+        {
+            timings.add("escape: " + (_escapeNanos / 1000000) + " ms, eliminated " + _escapeAnalyzer.getEliminatedCount()
+                        + " allocation sites (" + _escapeAnalyzer.getReplacedCount() + " replaced with scalars, "
+                        + _escapeAnalyzer.getStackCount() + " on the stack)");
+        }
+        for (Pass pass : _pipeline)
+        {
+            timings.add(pass.name + ": " + (pass.nanos / 1000000) + " ms, " + pass.runs + " runs, changed "
+                        + pass.changes + " times");
+        }
+
+        int graphsBuilt = 0;
+        for (MethodAnalyses method : _methods)
+            graphsBuilt += method.getGraphsBuilt();
+        timings.add(_methods.size() + " methods, " + _rounds + " method rounds, " + graphsBuilt + " CFGs built");
+        return timings;
+    }
+
+    private Pass createPass(String name)
+    {
+        switch (name)
+        {
+            case "tail":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        TailCallEliminator tail = new TailCallEliminator(method.getStatements(), _objLayoutMgr, _temporaries);
+                        if (tail.wasOptimized())
+                        {
+                            report(method, "tail call elimination turned " + tail.getEliminatedCount() + " self calls and "
+                                   + tail.getAccumulatedCount() + " accumulating self calls into jumps, and marked "
+                                   + tail.getMarkedCount() + " tail calls");
+                        }
+                        return update(method, tail.wasOptimized(), tail.getOptimizedStatements());
+                    }
+                };
+            case "fold":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        List<IRQuadruple> statements = new ArrayList<IRQuadruple>(method.getStatements());
+                        ConstantFolder folder = new ConstantFolder(statements, method.getIndex());
+                        return updateInPlace(method, folder.wasOptimized(), statements);
+                    }
+                };
+            case "prop":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        List<IRQuadruple> statements = new ArrayList<IRQuadruple>(method.getStatements());
+                        ConstantPropagator prop = new ConstantPropagator(statements, method.getIndex(), _objLayoutMgr);
+                        return updateInPlace(method, prop.wasOptimized(), statements);
+                    }
+                };
+            case "deadcopies":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        List<IRQuadruple> statements = new ArrayList<IRQuadruple>(method.getStatements());
+                        DeadCodeEliminator elim = new DeadCodeEliminator(statements, method.getIndex(), _objLayoutMgr);
+                        return updateInPlace(method, elim.wasOptimized(), statements);
+                    }
+                };
+            case "sccp":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        SparseConditionalConstantPropagator sccp
+                            = new SparseConditionalConstantPropagator(method.getSSAForm(), _objLayoutMgr);
+                        return update(method, sccp.wasOptimized(), sccp.getOptimizedStatements());
+                    }
+                };
+            case "gvn":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        GlobalValueNumbering gvn = new GlobalValueNumbering(method.getSSAForm(), _objLayoutMgr);
+                        if (gvn.wasOptimized())
+                            report(method, "gvn eliminated " + gvn.getEliminatedCount() + " redundant expressions");
+                        return update(method, gvn.wasOptimized(), gvn.getOptimizedStatements());
+                    }
+                };
+            case "copies":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        CopyPropagator copies = new CopyPropagator(method.getSSAForm(), _objLayoutMgr);
+                        if (copies.wasOptimized())
+                        {
+                            report(method, "copy propagation rewrote " + copies.getPropagatedCount() + " uses, removed "
+                                   + copies.getRemovedCount() + " copies and coalesced " + copies.getCoalescedCount());
+                        }
+                        return update(method, copies.wasOptimized(), copies.getOptimizedStatements());
+                    }
+                };
+            case "bounds":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        // without -safe there's nothing to remove, so don't build SSA form for it
+                        if (BoundsCheckEliminator.countChecks(method.getStatements()) == 0)
+                            return false;
+                        BoundsCheckEliminator bounds = new BoundsCheckEliminator(method.getSSAForm());
+                        if (bounds.wasOptimized())
+                        {
+                            int removed = bounds.getProvenCount() + bounds.getRedundantCount();
+                            report(method, "bounds check elimination removed " + bounds.getProvenCount()
+                                   + " checks always in bounds and " + bounds.getRedundantCount() + " redundant ones, leaving "
+                                   + bounds.getRemainingCount());
+                            Integer before = _checksRemoved.get(method);
+                            _checksRemoved.put(method, (before == null) ? removed : before + removed);
+                        }
+                        // only the checks' flags changed, which the CFG doesn't depend on
+                        return updateInPlace(method, bounds.wasOptimized(), method.getStatements());
+                    }
+                };
+            case "licm":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        LoopInvariantCodeMotion licm = new LoopInvariantCodeMotion(method.getSSAForm(), method.getLoops(),
+                                                                                   _objLayoutMgr, _temporaries);
+                        if (licm.wasOptimized())
+                        {
+                            report(method, "licm hoisted " + licm.getHoistedCount() + " statements and "
+                                   + licm.getPromotedCount() + " instance variable reads out of " + licm.getLoopCount() + " loops");
+                        }
+                        return update(method, licm.wasOptimized(), licm.getOptimizedStatements());
+                    }
+                };
+            case "sr":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        StrengthReducer reducer = new StrengthReducer(method.getSSAForm(), method.getLoops(),
+                                                                      _objLayoutMgr, _temporaries);
+                        if (reducer.wasOptimized())
+                        {
+                            report(method, "strength reduction rewrote " + reducer.getReducedCount() + " array accesses and "
+                                   + reducer.getReplacedTestCount() + " loop tests");
+                        }
+                        return update(method, reducer.wasOptimized(), reducer.getOptimizedStatements());
+                    }
+                };
+            case "simplify":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        ControlFlowSimplifier simplifier = new ControlFlowSimplifier(method.getGraph());
+                        if (simplifier.wasOptimized())
+                        {
+                            report(method, "cfg simplification folded " + simplifier.getFoldedCount() + " branches, threaded "
+                                   + simplifier.getThreadedCount() + " jumps, removed " + simplifier.getRemovedJumpCount()
+                                   + " jumps, " + simplifier.getRemovedStatementCount() + " unreachable statements and "
+                                   + simplifier.getRemovedLabelCount() + " labels");
+                        }
+                        return update(method, simplifier.wasOptimized(), simplifier.getOptimizedStatements());
+                    }
+                };
+            case "dce":
+                return new Pass(name)
+                {
+                    boolean run(MethodAnalyses method)
+                    {
+                        AggressiveDeadCodeEliminator dce = new AggressiveDeadCodeEliminator(method.getSSAForm());
+                        if (dce.wasOptimized())
+                            report(method, "dce removed " + dce.getRemovedCount() + " statements");
+                        return update(method, dce.wasOptimized(), dce.getOptimizedStatements());
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unknown optimization pass " + name);
+        }
+    }
+
+    private void report(MethodAnalyses method, String statistic)
+    {
+        _statistics.add(method.getName() + ": " + statistic);
+    }
+
+    // a pass, and how much time it's spent over every method it's run on
+    private abstract class Pass
+    {
+        String name;
+        long nanos = 0;
+        int runs = 0;
+        int changes = 0;
+        // the version of each method this pass last ran on without changing it
+        Map<MethodAnalyses, Integer> unchanged = new HashMap<MethodAnalyses, Integer>();
+
+        Pass(String name)
+        {
+            this.name = name;
+        }
+
+        // optimize method, returning true iff it changed
+        abstract boolean run(MethodAnalyses method);
+
+        void runOn(MethodAnalyses method)
+        {
+            Integer version = unchanged.get(method);
+            if (version != null && version == method.getVersion())
+                return;
+
+            long start = System.nanoTime();
+            boolean changed = run(method);
+            nanos += System.nanoTime() - start;
+            runs++;
+            if (changed)
+                changes++;
+            else
+                unchanged.put(method, method.getVersion());
+        }
+
+        // passes may change statements in place even when they build a new
+        // list, so the analyses are only kept if the pass changed nothing
+        boolean update(MethodAnalyses method, boolean changed, List<IRQuadruple> statements)
+        {
+            if (changed)
+                method.setStatements(statements);
+            return changed;
+        }
+
+        // for passes that edit the statements through the method's index,
+        // which keeps its CFG up to date
+        boolean updateInPlace(MethodAnalyses method, boolean changed, List<IRQuadruple> statements)
+        {
+            if (changed)
+                method.setEditedStatements(statements);
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+import syntaxtree.*;
+
+// Wegman and Zadeck's sparse conditional constant propagation, over a
+// method's SSA form.
+//
+// Every SSA value starts out undefined (TOP) and only moves down the lattice,
+// to a constant and then to overdefined, and blocks only become executable
+// once a reachable edge leads to them. So a branch on a constant condition
+// never makes its other side executable, and phis only meet the values
+// flowing in along executable edges. Once the worklists are empty:
+//   - uses of constant values are replaced by the constants
+//   - statements computing constants become constant copies, and are
+//     removed if nothing still reads them
+//   - conditional jumps on constants become unconditional jumps, or go away
+//   - blocks that never became executable are deleted
+// None of this makes two versions of a variable live at once, so leaving
+// SSA is free.
+public class SparseConditionalConstantPropagator
+{
+    // the overdefined lattice value. undefined is null, and anything else is
+    // a constant.
+    private static final ConstantSymbol BOTTOM = new ConstantSymbol("<overdefined>", null);
+
+    private ControlFlowGraph _graph;
+    private SSAForm _ssa;
+    private ObjectLayoutManager _objLayoutMgr;
+
+    private ConstantSymbol[] _cells;
+    private boolean[] _executableBlocks;
+
+    // a block's incoming edges are numbered from _edgeOffsets[b], in
+    // predecessor order
+    private int[] _edgeOffsets;
+    private int[] _edgeTargets;
+    private boolean[] _executableEdges;
+
+    private ArrayDeque<Integer> _edgeWorklist;
+    private ArrayDeque<Integer> _valueWorklist;
+
+    private List<IRQuadruple> _statements;
+    private boolean _optimized = false;
+
+    public SparseConditionalConstantPropagator(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr)
+    {
+        this(new SSAForm(graph, new DominatorTree(graph), objLayoutMgr), objLayoutMgr);
+    }
+
+    public SparseConditionalConstantPropagator(SSAForm ssa, ObjectLayoutManager objLayoutMgr)
+    {
+        _graph = ssa.getGraph();
+        _ssa = ssa;
+        _objLayoutMgr = objLayoutMgr;
+
+        propagate();
+        _statements = rewrite();
+    }
+
+    public boolean wasOptimized()
+    {
+        return _optimized;
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        return _statements;
+    }
+
+    private void propagate()
+    {
+        int blockCount = _graph.getBlockCount();
+        _cells = new ConstantSymbol[_ssa.getValueCount()];
+        _executableBlocks = new boolean[blockCount];
+
+        _edgeOffsets = new int[blockCount + 1];
+        for (int b = 0; b < blockCount; b++)
+            _edgeOffsets[b + 1] = _edgeOffsets[b] + _graph.getPredecessorCount(b);
+        _edgeTargets = new int[_edgeOffsets[blockCount]];
+        for (int b = 0; b < blockCount; b++)
+        {
+            for (int e = _edgeOffsets[b]; e < _edgeOffsets[b + 1]; e++)
+                _edgeTargets[e] = b;
+        }
+        _executableEdges = new boolean[_edgeTargets.length];
+
+        // a method's entry values could be anything
+        for (int value = 0; value < _ssa.getValueCount(); value++)
+        {
+            if (_ssa.isEntryValue(value))
+                _cells[value] = BOTTOM;
+        }
+
+        _edgeWorklist = new ArrayDeque<Integer>();
+        _valueWorklist = new ArrayDeque<Integer>();
+        if (blockCount > 0)
+            visitBlock(0);
+
+        while (!_edgeWorklist.isEmpty() || !_valueWorklist.isEmpty())
+        {
+            while (!_edgeWorklist.isEmpty())
+            {
+                int edge = _edgeWorklist.poll();
+                if (_executableEdges[edge])
+                    continue;
+                _executableEdges[edge] = true;
+
+                int b = _edgeTargets[edge];
+                for (int i = 0; i < _ssa.getPhiCount(b); i++)
+                    visitPhi(_ssa.getPhi(b, i));
+                if (!_executableBlocks[b])
+                    visitBlock(b);
+            }
+
+            while (!_valueWorklist.isEmpty())
+            {
+                int value = _valueWorklist.poll();
+                for (int i = 0; i < _ssa.getUserCount(value); i++)
+                {
+                    int user = _ssa.getUser(value, i);
+                    if (user < 0)
+                    {
+                        if (_executableBlocks[_ssa.getDefiningBlock(~user)])
+                            visitPhi(~user);
+                    }
+                    else if (_executableBlocks[_ssa.getStatementBlock(user)])
+                    {
+                        visitStatement(user);
+                    }
+                }
+            }
+        }
+    }
+
+    private void visitBlock(int b)
+    {
+        _executableBlocks[b] = true;
+        BasicBlock block = _graph.getBlock(b);
+        for (int i = 0; i < block.size(); i++)
+            visitStatement(_ssa.getStatementNumber(b, i));
+
+        // conditional jumps pick their own successors
+        if (!(block.getStatement(block.size() - 1) instanceof IRCondJump))
+        {
+            for (int i = 0; i < _graph.getSuccessorCount(b); i++)
+                addEdge(b, _graph.getSuccessor(b, i));
+        }
+    }
+
+    private void visitStatement(int statement)
+    {
+        IRQuadruple irq = _ssa.getStatement(statement);
+        if (irq instanceof IRCondJump)
+        {
+            visitCondJump(statement, (IRCondJump)irq);
+            return;
+        }
+
+        int value = _ssa.getDefinedValue(statement);
+        if (value >= 0)
+            setCell(value, evaluate(statement, irq));
+    }
+
+    private void visitCondJump(int statement, IRCondJump jump)
+    {
+        ConstantSymbol condition = getCell(statement, jump.getArg1());
+        if (condition == null)
+            return;
+
+        int b = _ssa.getStatementBlock(statement);
+        int target = getJumpTarget(b, jump);
+        int fallthrough = getFallthrough(b, target);
+        if (condition == BOTTOM)
+        {
+            addEdge(b, target);
+            addEdge(b, fallthrough);
+        }
+        else if (isTrue(condition))
+        {
+            addEdge(b, fallthrough);
+        }
+        else
+        {
+            addEdge(b, target);
+        }
+    }
+
+    private void visitPhi(int phi)
+    {
+        int b = _ssa.getDefiningBlock(phi);
+        ConstantSymbol result = null;
+        for (int i = 0; i < _graph.getPredecessorCount(b); i++)
+        {
+            if (_executableEdges[_edgeOffsets[b] + i])
+                result = meet(result, _cells[_ssa.getPhiOperand(phi, i)]);
+        }
+        setCell(phi, result);
+    }
+
+    private void addEdge(int from, int to)
+    {
+        for (int i = 0; i < _graph.getPredecessorCount(to); i++)
+        {
+            if (_graph.getPredecessor(to, i) == from)
+            {
+                if (!_executableEdges[_edgeOffsets[to] + i])
+                    _edgeWorklist.add(_edgeOffsets[to] + i);
+                return;
+            }
+        }
+    }
+
+    private void setCell(int value, ConstantSymbol cell)
+    {
+        // cells only move down, so any change is a lowering
+        if (cell == _cells[value])
+            return;
+        if (cell != null && _cells[value] != null && cell != BOTTOM && _cells[value] != BOTTOM
+            && cell.getValue().equals(_cells[value].getValue()))
+            return;
+        _cells[value] = cell;
+        _valueWorklist.add(value);
+    }
+
+    private ConstantSymbol meet(ConstantSymbol a, ConstantSymbol b)
+    {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a == BOTTOM || b == BOTTOM)
+            return BOTTOM;
+        return a.getValue().equals(b.getValue()) ? a : BOTTOM;
+    }
+
+    // the lattice value of sym as statement reads it
+    private ConstantSymbol getCell(int statement, SymbolInfo sym)
+    {
+        if (sym instanceof ConstantSymbol)
+            return (ConstantSymbol)sym;
+        if (!_ssa.isVariable(sym))
+            return BOTTOM;
+        return _cells[_ssa.getUseValue(statement, sym)];
+    }
+
+    // the lattice value of the result of irq
+    private ConstantSymbol evaluate(int statement, IRQuadruple irq)
+    {
+        if (irq instanceof IRCopy)
+            return getCell(statement, irq.getArg1());
+
+        if (irq instanceof IRUnaryAssignment)
+        {
+            ConstantSymbol arg = getCell(statement, irq.getArg1());
+            if (arg == null || arg == BOTTOM)
+                return arg;
+            if (!irq.getOp().equals("!"))
+                throw new IllegalArgumentException("unexpected operator in unary assignment");
+            return new ConstantSymbol("" + !isTrue(arg), new BooleanType());
+        }
+
+        if (irq instanceof IRAssignment)
+        {
+            ConstantSymbol arg1 = getCell(statement, irq.getArg1());
+            ConstantSymbol arg2 = getCell(statement, irq.getArg2());
+
+            // false && anything is false
+            if (irq.getOp().equals("&&") && (isFalse(arg1) || isFalse(arg2)))
+                return new ConstantSymbol("false", new BooleanType());
+
+            if (arg1 == BOTTOM || arg2 == BOTTOM)
+                return BOTTOM;
+            if (arg1 == null || arg2 == null)
+                return null;
+            return fold(irq.getOp(), arg1.getValue(), arg2.getValue());
+        }
+
+        // calls, loads and allocations could produce anything
+        return BOTTOM;
+    }
+
+    // add and sub trap on overflow, so a sum or difference that overflows
+    // isn't a constant: the trap has to happen at run time. mult doesn't
+    // trap, and wraps just like int multiplication.
+    private ConstantSymbol fold(String op, String value1, String value2)
+    {
+        try
+        {
+            return foldExact(op, value1, value2);
+        }
+        catch (ArithmeticException e)
+        {
+            return BOTTOM;
+        }
+    }
+
+    private ConstantSymbol foldExact(String op, String value1, String value2)
+    {
+        switch (op)
+        {
+            case "+":
+                return new ConstantSymbol("" + Math.addExact(Integer.parseInt(value1), Integer.parseInt(value2)), new IntegerType());
+            case "-":
+                return new ConstantSymbol("" + Math.subtractExact(Integer.parseInt(value1), Integer.parseInt(value2)), new IntegerType());
+            case "*":
+                return new ConstantSymbol("" + (Integer.parseInt(value1) * Integer.parseInt(value2)), new IntegerType());
+            case "&&":
+                return new ConstantSymbol("" + (Boolean.parseBoolean(value1) && Boolean.parseBoolean(value2)), new BooleanType());
+            case "<":
+                return new ConstantSymbol("" + (Integer.parseInt(value1) < Integer.parseInt(value2)), new BooleanType());
+            default:
+                throw new IllegalArgumentException("unexpected operator in assignment");
+        }
+    }
+
+    private boolean isTrue(ConstantSymbol c)
+    {
+        return c.getValue().equalsIgnoreCase("true");
+    }
+
+    private boolean isFalse(ConstantSymbol c)
+    {
+        return c != null && c != BOTTOM && c.getValue().equalsIgnoreCase("false");
+    }
+
+    // the successor a conditional jump goes to: the block starting with its label
+    private int getJumpTarget(int b, IRCondJump jump)
+    {
+        for (int i = 0; i < _graph.getSuccessorCount(b); i++)
+        {
+            int succ = _graph.getSuccessor(b, i);
+            IRQuadruple first = _graph.getBlock(succ).getStatement(0);
+            if (first instanceof IRLabel && ((IRLabel)first).getLabel().equals(jump.getLabel()))
+                return succ;
+        }
+        throw new IllegalStateException("jump target " + jump.getLabel() + " is not a successor");
+    }
+
+    // the other successor, or the target itself if the jump goes to the next block
+    private int getFallthrough(int b, int target)
+    {
+        for (int i = 0; i < _graph.getSuccessorCount(b); i++)
+        {
+            if (_graph.getSuccessor(b, i) != target)
+                return _graph.getSuccessor(b, i);
+        }
+        return target;
+    }
+
+    // rewrite the method using the lattice values, returning its new statements
+    private List<IRQuadruple> rewrite()
+    {
+        boolean[] needed = findNeededValues();
+
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (int b = 0; b < _graph.getBlockCount(); b++)
+        {
+            BasicBlock block = _graph.getBlock(b);
+            if (!_executableBlocks[b])
+            {
+                _optimized = true;
+                continue;
+            }
+
+            for (int i = 0; i < block.size(); i++)
+            {
+                int statement = _ssa.getStatementNumber(b, i);
+                IRQuadruple irq = rewriteStatement(statement, block.getStatement(i), needed);
+                if (irq != null)
+                    result.add(irq);
+            }
+        }
+        return result;
+    }
+
+    // returns the rewritten statement, or null if it should be removed
+    private IRQuadruple rewriteStatement(int statement, IRQuadruple irq, boolean[] needed)
+    {
+        if (irq instanceof IRCondJump)
+        {
+            ConstantSymbol condition = getCell(statement, irq.getArg1());
+            if (condition == null || condition == BOTTOM)
+                return irq;
+            _optimized = true;
+            return isTrue(condition) ? null : new IRUncondJump(((IRCondJump)irq).getLabel());
+        }
+
+        // statements computing a constant become copies of it, or go away
+        // entirely if nothing reads the value anymore
+        if (irq instanceof IRCopy || irq instanceof IRAssignment || irq instanceof IRUnaryAssignment)
+        {
+            ConstantSymbol constant = evaluate(statement, irq);
+            if (constant != null && constant != BOTTOM)
+            {
+                int value = _ssa.getDefinedValue(statement);
+                if (value >= 0 && !needed[value])
+                {
+                    _optimized = true;
+                    return null;
+                }
+                if (irq instanceof IRCopy && irq.getArg1() instanceof ConstantSymbol)
+                    return irq;
+                _optimized = true;
+                return new IRCopy(constant, irq.getResult());
+            }
+        }
+
+        // replace uses of constant values with the constants
+        for (int i = 0; i < _ssa.getUseCount(statement); i++)
+        {
+            ConstantSymbol cell = _cells[_ssa.getUseValue(statement, i)];
+            if (cell != null && cell != BOTTOM && irq.replaceArgs(_ssa.getUseVariable(statement, i), cell))
+                _optimized = true;
+        }
+        return irq;
+    }
+
+    // the values that still have to be computed: those read by a surviving
+    // statement that won't have a constant substituted, and (transitively)
+    // those flowing into a needed phi along an executable edge.
+    private boolean[] findNeededValues()
+    {
+        boolean[] needed = new boolean[_ssa.getValueCount()];
+        ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+        for (int statement = 0; statement < _ssa.getStatementCount(); statement++)
+        {
+            if (!_executableBlocks[_ssa.getStatementBlock(statement)])
+                continue;
+            for (int i = 0; i < _ssa.getUseCount(statement); i++)
+            {
+                int value = _ssa.getUseValue(statement, i);
+                ConstantSymbol cell = _cells[value];
+                if ((cell == null || cell == BOTTOM) && !needed[value])
+                {
+                    needed[value] = true;
+                    worklist.add(value);
+                }
+            }
+        }
+
+        while (!worklist.isEmpty())
+        {
+            int value = worklist.poll();
+            if (!_ssa.isPhi(value))
+                continue;
+            int b = _ssa.getDefiningBlock(value);
+            for (int i = 0; i < _graph.getPredecessorCount(b); i++)
+            {
+                int operand = _ssa.getPhiOperand(value, i);
+                if (_executableEdges[_edgeOffsets[b] + i] && !needed[operand])
+                {
+                    needed[operand] = true;
+                    worklist.add(operand);
+                }
+            }
+        }
+        return needed;
+    }
+}
@@ -0,0 +1,506 @@
+package optimization;
+
+import java.util.*;
+
+import controlflow.*;
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+import syntaxtree.IntegerType;
+
+// Induction variable strength reduction for array indexing.
+//
+// A basic induction variable of a loop is a variable whose only definition in
+// the loop is i := i + c (or c + i, or i - c), run exactly once per iteration.
+// Each a[i] in the loop, with a defined outside it, then reads through a
+// pointer p that always holds &a[i]: p := &a[i] in the preheader, and
+// p := p + 4c right after i's increment. An index t := i + k computed in the
+// loop becomes a constant offset, a[t] being *(p + 4k), as long as t was
+// computed from the same value of i that the access sees. Once every access
+// through t is rewritten, t's definition goes too.
+//
+// If i is then only used by its increment and by tests i < n (or n < i
+// when i counts down), and nothing after the loop reads it, the tests compare
+// p against &a[n] instead and i's increment is removed (linear-function test
+// replacement). That's only done when i's starting value and n are constants
+// or array lengths, so the addresses are small enough not to wrap around.
+public class StrengthReducer
+{
+    // lw and sw take 16-bit signed offsets
+    private static final int MAX_OFFSET = 32767;
+    // bounds small enough that &a[n] can't wrap around
+    private static final int MAX_BOUND = 1 << 20;
+
+    private ControlFlowGraph _graph;
+    private DominatorTree _dominators;
+    private SSAForm _ssa;
+    private LoopNest _loops;
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+
+    // each block's statements, as they're rewritten
+    private List<List<IRQuadruple>> _blockStatements;
+    // each original statement's SSA number
+    private Map<IRQuadruple, Integer> _statementNumbers;
+
+    private int _reduced = 0;
+    private int _replacedTests = 0;
+
+    public StrengthReducer(ControlFlowGraph graph, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        this(graph, new DominatorTree(graph), objLayoutMgr, temporaries);
+    }
+
+    private StrengthReducer(ControlFlowGraph graph, DominatorTree dominators, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        this(new SSAForm(graph, dominators, objLayoutMgr), new LoopNest(graph, dominators), objLayoutMgr, temporaries);
+    }
+
+    public StrengthReducer(SSAForm ssa, LoopNest loops, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        ControlFlowGraph graph = ssa.getGraph();
+        _graph = graph;
+        _dominators = ssa.getDominators();
+        _ssa = ssa;
+        _loops = loops;
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = temporaries;
+
+        _blockStatements = new ArrayList<List<IRQuadruple>>();
+        _statementNumbers = new IdentityHashMap<IRQuadruple, Integer>();
+        for (int b = 0; b < graph.getBlockCount(); b++)
+        {
+            BasicBlock block = graph.getBlock(b);
+            _blockStatements.add(new ArrayList<IRQuadruple>(block.getStatements()));
+            for (int i = 0; i < block.size(); i++)
+                _statementNumbers.put(block.getStatement(i), _ssa.getStatementNumber(b, i));
+        }
+
+        // inner loops first, so their accesses get the cheaper pointers
+        for (int loop = 0; loop < _loops.getLoopCount(); loop++)
+            reduce(loop);
+    }
+
+    public boolean wasOptimized()
+    {
+        return _reduced > 0;
+    }
+
+    // how many array accesses were rewritten to go through a pointer
+    public int getReducedCount()
+    {
+        return _reduced;
+    }
+
+    // how many loop tests were rewritten to compare pointers
+    public int getReplacedTestCount()
+    {
+        return _replacedTests;
+    }
+
+    // the method's statements after optimization
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>();
+        for (List<IRQuadruple> statements : _blockStatements)
+            result.addAll(statements);
+        return result;
+    }
+
+    private void reduce(int loop)
+    {
+        int preheader = _loops.getPreheader(loop);
+        if (preheader < 0)
+            return;
+
+        Map<SymbolInfo, List<IRQuadruple>> definitions = new LinkedHashMap<SymbolInfo, List<IRQuadruple>>();
+        for (int i = 0; i < _loops.getBlockCount(loop); i++)
+        {
+            for (IRQuadruple irq : _blockStatements.get(_loops.getBlock(loop, i)))
+            {
+                for (SymbolInfo def : CFGDefsAndUses.getStatementDefinitions(irq, _objLayoutMgr))
+                {
+                    if (!definitions.containsKey(def))
+                        definitions.put(def, new ArrayList<IRQuadruple>());
+                    definitions.get(def).add(irq);
+                }
+            }
+        }
+
+        Map<SymbolInfo, InductionVariable> variables = new LinkedHashMap<SymbolInfo, InductionVariable>();
+        for (Map.Entry<SymbolInfo, List<IRQuadruple>> entry : definitions.entrySet())
+        {
+            InductionVariable variable = findInductionVariable(loop, entry.getKey(), entry.getValue());
+            if (variable != null)
+                variables.put(entry.getKey(), variable);
+        }
+        if (variables.isEmpty())
+            return;
+
+        rewriteAccesses(loop, variables);
+
+        for (InductionVariable variable : variables.values())
+        {
+            if (variable.pointers.isEmpty())
+                continue;
+
+            List<IRQuadruple> statements = _blockStatements.get(_ssa.getStatementBlock(variable.statement));
+            int index = indexOf(statements, variable.increment) + 1;
+            SymbolInfo initial = getInitialValue(loop, preheader, variable);
+            for (Map.Entry<SymbolInfo, SymbolInfo> pointer : variable.pointers.entrySet())
+            {
+                SymbolInfo p = pointer.getValue();
+                addToPreheader(preheader, new IRElementAddress(pointer.getKey(), initial, p));
+                if (variable.step > 0)
+                    statements.add(index++, new IRAssignment("+", p, constant(4 * variable.step), p));
+                else
+                    statements.add(index++, new IRAssignment("-", p, constant(-4 * variable.step), p));
+            }
+
+            replaceTests(loop, preheader, variable);
+        }
+    }
+
+    // the loop's basic induction variable var, if it is one
+    private InductionVariable findInductionVariable(int loop, SymbolInfo var, List<IRQuadruple> definitions)
+    {
+        if (!_ssa.isVariable(var) || definitions.size() != 1)
+            return null;
+        IRQuadruple irq = definitions.get(0);
+        Integer statement = _statementNumbers.get(irq);
+        if (statement == null)
+            return null;
+
+        // value numbering may have left i := t, for t := i + c computed earlier
+        IRQuadruple increment = irq;
+        int incrementStatement = statement;
+        if (irq instanceof IRCopy && _ssa.isSingleAssignment(irq.getArg1()))
+        {
+            int source = _ssa.getUseValue(statement, irq.getArg1());
+            incrementStatement = _ssa.getDefiningStatement(source);
+            if (!_loops.contains(loop, _ssa.getStatementBlock(incrementStatement)))
+                return null;
+            increment = _ssa.getStatement(incrementStatement);
+        }
+        if (!(increment instanceof IRAssignment))
+            return null;
+
+        int step;
+        if (increment.getOp().equals("+") && increment.getArg1() == var && increment.getArg2() instanceof ConstantSymbol)
+            step = getValue(increment.getArg2());
+        else if (increment.getOp().equals("+") && increment.getArg2() == var && increment.getArg1() instanceof ConstantSymbol)
+            step = getValue(increment.getArg1());
+        else if (increment.getOp().equals("-") && increment.getArg1() == var && increment.getArg2() instanceof ConstantSymbol)
+            step = -getValue(increment.getArg2());
+        else
+            return null;
+        if (step == 0 || Math.abs(step) > MAX_OFFSET / 4)
+            return null;
+
+        // it has to read the value from the previous iteration, and run
+        // exactly once per iteration
+        int header = _loops.getHeader(loop);
+        int previous = _ssa.getUseValue(incrementStatement, var);
+        if (previous < 0 || !_ssa.isPhi(previous) || _ssa.getDefiningBlock(previous) != header)
+            return null;
+        int block = _ssa.getStatementBlock(statement);
+        if (_loops.getInnermostLoop(block) != loop)
+            return null;
+        for (int i = 0; i < _graph.getPredecessorCount(header); i++)
+        {
+            int pred = _graph.getPredecessor(header, i);
+            if (_loops.contains(loop, pred) && !_dominators.dominates(block, pred))
+                return null;
+        }
+
+        InductionVariable variable = new InductionVariable();
+        variable.variable = var;
+        variable.increment = irq;
+        variable.statement = statement;
+        variable.step = step;
+        variable.phi = previous;
+        return variable;
+    }
+
+    private void rewriteAccesses(int loop, Map<SymbolInfo, InductionVariable> variables)
+    {
+        // how many reads of each derived index are left
+        Map<Integer, Integer> remainingUses = new HashMap<Integer, Integer>();
+        Set<IRQuadruple> removed = Collections.newSetFromMap(new IdentityHashMap<IRQuadruple, Boolean>());
+
+        for (int i = 0; i < _loops.getBlockCount(loop); i++)
+        {
+            List<IRQuadruple> statements = _blockStatements.get(_loops.getBlock(loop, i));
+            for (int j = 0; j < statements.size(); j++)
+            {
+                IRQuadruple irq = statements.get(j);
+                Integer statement = _statementNumbers.get(irq);
+                if (statement == null || !(irq instanceof IRArrayLookup || irq instanceof IRArrayAssign))
+                    continue;
+                // a pointer access has no index left to check
+                if (isChecked(irq))
+                    continue;
+                if (!isInvariantVariable(loop, statement, irq.getArg1()))
+                    continue;
+
+                // a[i], or a[t] for t := i + k
+                InductionVariable variable = variables.get(irq.getArg2());
+                int offset = 0;
+                int derived = -1;
+                if (variable == null)
+                {
+                    derived = _ssa.getUseValue(statement, irq.getArg2());
+                    int definition = (derived < 0) ? -1 : _ssa.getDefiningStatement(derived);
+                    if (definition < 0 || !_ssa.isSingleAssignment(irq.getArg2())
+                        || !_loops.contains(loop, _ssa.getStatementBlock(definition)))
+                        continue;
+                    IRQuadruple index = _ssa.getStatement(definition);
+                    variable = getDerivedBase(index, variables);
+                    if (variable == null)
+                        continue;
+                    offset = getDerivedOffset(index, variable.variable);
+                    // t has to hold i + k for the value of i the access sees
+                    boolean derivedIncremented = _ssa.getUseValue(definition, variable.variable) != variable.phi;
+                    if (derivedIncremented != isIncremented(variable, statement) || Math.abs(offset) > MAX_OFFSET / 4)
+                        continue;
+                }
+
+                SymbolInfo pointer = variable.getPointer(irq.getArg1());
+                if (irq instanceof IRArrayLookup)
+                    statements.set(j, new IRPointerLoad(pointer, 4 * offset, irq.getResult()));
+                else
+                    statements.set(j, new IRPointerStore(pointer, 4 * offset, irq.getResult()));
+                _reduced++;
+
+                if (derived >= 0)
+                {
+                    Integer remaining = remainingUses.get(derived);
+                    remaining = ((remaining == null) ? _ssa.getUserCount(derived) : remaining) - 1;
+                    remainingUses.put(derived, remaining);
+                    if (remaining == 0)
+                        removed.add(_ssa.getStatement(_ssa.getDefiningStatement(derived)));
+                }
+            }
+        }
+
+        for (int i = 0; i < _loops.getBlockCount(loop); i++)
+            _blockStatements.get(_loops.getBlock(loop, i)).removeAll(removed);
+    }
+
+    // the induction variable a derived index t := i + k is based on
+    private InductionVariable getDerivedBase(IRQuadruple index, Map<SymbolInfo, InductionVariable> variables)
+    {
+        if (!(index instanceof IRAssignment))
+            return null;
+        boolean plus = index.getOp().equals("+");
+        if (!plus && !index.getOp().equals("-"))
+            return null;
+        if (index.getArg2() instanceof ConstantSymbol && variables.containsKey(index.getArg1()))
+            return variables.get(index.getArg1());
+        if (plus && index.getArg1() instanceof ConstantSymbol && variables.containsKey(index.getArg2()))
+            return variables.get(index.getArg2());
+        return null;
+    }
+
+    private int getDerivedOffset(IRQuadruple index, SymbolInfo base)
+    {
+        int k = getValue(index.getArg1() == base ? index.getArg2() : index.getArg1());
+        return index.getOp().equals("-") ? -k : k;
+    }
+
+    // true iff the access at statement sees i after this iteration's increment
+    private boolean isIncremented(InductionVariable variable, int statement)
+    {
+        int block = _ssa.getStatementBlock(statement);
+        int incrementBlock = _ssa.getStatementBlock(variable.statement);
+        if (block == incrementBlock)
+            return statement > variable.statement;
+        return _dominators.strictlyDominates(incrementBlock, block);
+    }
+
+    // true iff sym is a variable holding the same value throughout the loop
+    private boolean isInvariantVariable(int loop, int statement, SymbolInfo sym)
+    {
+        int value = _ssa.getUseValue(statement, sym);
+        return value >= 0 && !_loops.contains(loop, _ssa.getDefiningBlock(value));
+    }
+
+    // compare pointers instead of i, if that makes i unnecessary
+    private void replaceTests(int loop, int preheader, InductionVariable variable)
+    {
+        SymbolInfo var = variable.variable;
+        List<IRQuadruple> tests = new ArrayList<IRQuadruple>();
+        for (int i = 0; i < _loops.getBlockCount(loop); i++)
+        {
+            for (IRQuadruple irq : _blockStatements.get(_loops.getBlock(loop, i)))
+            {
+                if (irq == variable.increment || !CFGDefsAndUses.getStatementUsages(irq, _objLayoutMgr).contains(var))
+                    continue;
+                if (!isBoundTest(loop, irq, variable))
+                    return;
+                tests.add(irq);
+            }
+        }
+        if (tests.isEmpty())
+            return;
+
+        // nothing outside the loop may read the values of i it computes
+        int incremented = _ssa.getDefinedValue(variable.statement);
+        int[] values = { variable.phi, incremented };
+        for (int value : values)
+        {
+            for (int i = 0; i < _ssa.getUserCount(value); i++)
+            {
+                int user = _ssa.getUser(value, i);
+                if (user < 0 ? ~user != variable.phi : !_loops.contains(loop, _ssa.getStatementBlock(user)))
+                    return;
+            }
+        }
+
+        // and i has to start small
+        int header = _loops.getHeader(loop);
+        for (int i = 0; i < _graph.getPredecessorCount(header); i++)
+        {
+            if (_graph.getPredecessor(header, i) == preheader && !isSmall(_ssa.getPhiOperand(variable.phi, i)))
+                return;
+        }
+
+        Map.Entry<SymbolInfo, SymbolInfo> pointer = variable.pointers.entrySet().iterator().next();
+        Map<SymbolInfo, SymbolInfo> limits = new HashMap<SymbolInfo, SymbolInfo>();
+        for (IRQuadruple test : tests)
+        {
+            SymbolInfo bound = (test.getArg1() == var) ? test.getArg2() : test.getArg1();
+            SymbolInfo limit = limits.get(bound);
+            if (limit == null)
+            {
+                limit = _temporaries.newTemporary(new IntegerType());
+                addToPreheader(preheader, new IRElementAddress(pointer.getKey(), bound, limit));
+                limits.put(bound, limit);
+            }
+
+            IRQuadruple replacement = (test.getArg1() == var)
+                ? new IRAssignment("<", pointer.getValue(), limit, test.getResult())
+                : new IRAssignment("<", limit, pointer.getValue(), test.getResult());
+            List<IRQuadruple> statements = _blockStatements.get(_ssa.getStatementBlock(_statementNumbers.get(test)));
+            statements.set(indexOf(statements, test), replacement);
+            _replacedTests++;
+        }
+
+        List<IRQuadruple> statements = _blockStatements.get(_ssa.getStatementBlock(variable.statement));
+        statements.remove(indexOf(statements, variable.increment));
+    }
+
+    // i < n when i counts up, or n < i when it counts down, for a small n
+    // that doesn't change in the loop
+    private boolean isBoundTest(int loop, IRQuadruple irq, InductionVariable variable)
+    {
+        Integer statement = _statementNumbers.get(irq);
+        if (statement == null || !(irq instanceof IRAssignment) || !irq.getOp().equals("<"))
+            return false;
+
+        SymbolInfo bound;
+        if (irq.getArg1() == variable.variable && variable.step > 0)
+            bound = irq.getArg2();
+        else if (irq.getArg2() == variable.variable && variable.step < 0)
+            bound = irq.getArg1();
+        else
+            return false;
+
+        if (bound instanceof ConstantSymbol)
+            return Math.abs(getValue(bound)) <= MAX_BOUND;
+        if (!_ssa.isVariable(bound) || bound == variable.variable || !isInvariantVariable(loop, statement, bound))
+            return false;
+        return isSmall(_ssa.getUseValue(statement, bound));
+    }
+
+    // the constant i holds entering the loop, if it's copied from one,
+    // otherwise i itself
+    private SymbolInfo getInitialValue(int loop, int preheader, InductionVariable variable)
+    {
+        int header = _loops.getHeader(loop);
+        for (int i = 0; i < _graph.getPredecessorCount(header); i++)
+        {
+            if (_graph.getPredecessor(header, i) != preheader)
+                continue;
+            int definition = _ssa.getDefiningStatement(_ssa.getPhiOperand(variable.phi, i));
+            if (definition >= 0 && _ssa.getStatement(definition) instanceof IRCopy
+                && _ssa.getStatement(definition).getArg1() instanceof ConstantSymbol)
+                return _ssa.getStatement(definition).getArg1();
+        }
+        return variable.variable;
+    }
+
+    // true iff value is a small constant or an array length
+    private boolean isSmall(int value)
+    {
+        int definition = _ssa.getDefiningStatement(value);
+        if (definition < 0)
+            return false;
+        IRQuadruple irq = _ssa.getStatement(definition);
+        if (irq instanceof IRArrayLength)
+            return true;
+        return irq instanceof IRCopy && irq.getArg1() instanceof ConstantSymbol
+            && Math.abs(getValue(irq.getArg1())) <= MAX_BOUND;
+    }
+
+    // add to the end of the preheader, before its jump to the header if it has one
+    private void addToPreheader(int preheader, IRQuadruple irq)
+    {
+        List<IRQuadruple> statements = _blockStatements.get(preheader);
+        int index = statements.size();
+        if (index > 0 && statements.get(index - 1) instanceof IRUncondJump)
+            index--;
+        statements.add(index, irq);
+    }
+
+    private int indexOf(List<IRQuadruple> statements, IRQuadruple irq)
+    {
+        for (int i = 0; i < statements.size(); i++)
+        {
+            if (statements.get(i) == irq)
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean isChecked(IRQuadruple irq)
+    {
+        if (irq instanceof IRArrayLookup)
+            return ((IRArrayLookup)irq).isChecked();
+        return ((IRArrayAssign)irq).isChecked();
+    }
+
+    private int getValue(SymbolInfo sym)
+    {
+        return Integer.parseInt(((ConstantSymbol)sym).getValue());
+    }
+
+    private ConstantSymbol constant(int value)
+    {
+        return new ConstantSymbol("" + value, new IntegerType());
+    }
+
+    // a basic induction variable, and the pointers into arrays it indexes
+    private class InductionVariable
+    {
+        SymbolInfo variable;
+        IRQuadruple increment;
+        int statement;
+        int step;
+        // i's value at the top of each iteration
+        int phi;
+        // each array's pointer, in the order they were made
+        Map<SymbolInfo, SymbolInfo> pointers = new LinkedHashMap<SymbolInfo, SymbolInfo>();
+
+        SymbolInfo getPointer(SymbolInfo array)
+        {
+            SymbolInfo pointer = pointers.get(array);
+            if (pointer == null)
+            {
+                pointer = _temporaries.newTemporary(new IntegerType());
+                pointers.put(array, pointer);
+            }
+            return pointer;
+        }
+    }
+}
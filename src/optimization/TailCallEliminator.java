@@ -0,0 +1,302 @@
+package optimization;
+
+import java.util.*;
+
+import irgeneration.*;
+import objectimpl.*;
+import symboltable.*;
+import syntaxtree.*;
+
+// Turns calls in tail position into jumps. A call is in tail position when
+// its result reaches a return unchanged, through copies, labels and gotos.
+//
+// - A method calling itself on 'this' in tail position becomes a loop: the
+//   arguments are copied into the formals, and the call becomes a jump back
+//   to just after the method's label. 'this' itself is never reassigned,
+//   since instance variables are read through it without mentioning it.
+// - A method calling itself as x * call, with x computed before the call
+//   and the product reaching a return, becomes a loop too: the factors are
+//   multiplied into an accumulator, and every return multiplies what it
+//   returns by it. Products wrap rather than trap, so the order they're
+//   multiplied in doesn't matter.
+// - Any other call in tail position gets a return of its result right after
+//   it, and is marked as a tail call: the code generator restores the
+//   caller's saved registers and jumps to the callee, which returns straight
+//   to the caller's caller and reuses the caller's register save frame.
+//
+// main never returns, so it's left alone.
+public class TailCallEliminator
+{
+    private List<IRQuadruple> _statements;
+    private MethodSymbol _method;
+    private String _header;
+    private ObjectLayoutManager _objLayoutMgr;
+    private Temporaries _temporaries;
+
+    private VariableSymbol _accumulator;
+    // the calls that become jumps back to the header
+    private Set<IRCall> _selfCalls = new HashSet<IRCall>();
+    private int _eliminated = 0;
+    private int _accumulated = 0;
+    private int _marked = 0;
+
+    public TailCallEliminator(List<IRQuadruple> statements, ObjectLayoutManager objLayoutMgr, Temporaries temporaries)
+    {
+        _statements = statements;
+        IRLabel label = (IRLabel)statements.get(0);
+        _method = label.getMethod();
+        _header = label.getLabel() + "_TAIL";
+        _objLayoutMgr = objLayoutMgr;
+        _temporaries = temporaries;
+        if (_method.getName().equals("main"))
+            return;
+
+        Map<IRCall, SymbolInfo> sites = findTailCalls();
+        if (!sites.isEmpty())
+            rewrite(sites);
+    }
+
+    public boolean wasOptimized()
+    {
+        return _eliminated > 0 || _accumulated > 0 || _marked > 0;
+    }
+
+    // self calls in tail position turned into jumps
+    public int getEliminatedCount()
+    {
+        return _eliminated;
+    }
+
+    // self calls turned into jumps by multiplying into an accumulator
+    public int getAccumulatedCount()
+    {
+        return _accumulated;
+    }
+
+    // calls to other methods marked as tail calls
+    public int getMarkedCount()
+    {
+        return _marked;
+    }
+
+    public List<IRQuadruple> getOptimizedStatements()
+    {
+        return _statements;
+    }
+
+    // each call in tail position, with the factor its result is multiplied
+    // by (null if none). if any call needs an accumulator, only self calls
+    // are kept, since every return is about to change.
+    private Map<IRCall, SymbolInfo> findTailCalls()
+    {
+        Map<String, Integer> labels = new HashMap<String, Integer>();
+        boolean hasHeader = false;
+        for (int i = 0; i < _statements.size(); i++)
+        {
+            if (_statements.get(i) instanceof IRLabel)
+            {
+                labels.put(((IRLabel)_statements.get(i)).getLabel(), i);
+                hasHeader |= ((IRLabel)_statements.get(i)).getLabel().equals(_header);
+            }
+        }
+
+        Map<IRCall, SymbolInfo> sites = new LinkedHashMap<IRCall, SymbolInfo>();
+        boolean accumulates = false;
+        for (int i = 1; i < _statements.size(); i++)
+        {
+            if (!(_statements.get(i) instanceof IRCall))
+                continue;
+            IRCall call = (IRCall)_statements.get(i);
+            boolean self = isSelfCall(i);
+            List<SymbolInfo> factor = findPathToReturn(i, self && !hasHeader, labels);
+            if (factor == null)
+                continue;
+            // a call already marked and right before its return is done
+            if (!self && call.isTail() && _statements.get(i + 1) instanceof IRReturn)
+                continue;
+            sites.put(call, factor.isEmpty() ? null : factor.get(0));
+            accumulates |= !factor.isEmpty();
+            if (self)
+                _selfCalls.add(call);
+        }
+
+        if (accumulates)
+        {
+            _accumulator = _temporaries.newTemporary(new IntegerType());
+            for (Iterator<IRCall> calls = sites.keySet().iterator(); calls.hasNext(); )
+            {
+                if (!_selfCalls.contains(calls.next()))
+                    calls.remove();
+            }
+        }
+        return sites;
+    }
+
+    // true iff statement i calls this method on 'this', right after its params
+    private boolean isSelfCall(int i)
+    {
+        IRCall call = (IRCall)_statements.get(i);
+        int params = call.getParamCount();
+        if (call.getArg1() != _method || params != _method.getFormalSymbols().size() + 1 || i < params + 1)
+            return false;
+        if (_statements.get(i - params).getArg1() != _method.getVariable("this"))
+            return false;
+        for (int p = i - params; p < i; p++)
+        {
+            if (!(_statements.get(p) instanceof IRParam))
+                return false;
+        }
+        return true;
+    }
+
+    // follow the result of the call at i to a return. returns the factor it's
+    // multiplied by on the way (as a list of at most one), or null if it
+    // doesn't reach a return unchanged.
+    private List<SymbolInfo> findPathToReturn(int i, boolean canMultiply, Map<String, Integer> labels)
+    {
+        SymbolInfo value = _statements.get(i).getResult();
+        if (value == null || _objLayoutMgr.isInstanceVariable(value))
+            return null;
+
+        List<SymbolInfo> factor = new ArrayList<SymbolInfo>();
+        // the variables the result has been copied into so far
+        Set<SymbolInfo> values = Collections.newSetFromMap(new IdentityHashMap<SymbolInfo, Boolean>());
+        values.add(value);
+        Set<Integer> visited = new HashSet<Integer>();
+        int j = i + 1;
+        while (j < _statements.size() && visited.add(j))
+        {
+            IRQuadruple irq = _statements.get(j);
+            if (irq instanceof IRReturn)
+                return (irq.getArg1() == value) ? factor : null;
+            else if (irq instanceof IRLabel)
+                j++;
+            else if (irq instanceof IRUncondJump)
+                j = labels.get(((IRUncondJump)irq).getLabel());
+            else if (irq instanceof IRCopy && irq.getArg1() == value && isLocal(irq.getResult()))
+            {
+                value = irq.getResult();
+                values.add(value);
+                j++;
+            }
+            else if (canMultiply && factor.isEmpty() && isProduct(irq, value) && isLocal(irq.getResult()))
+            {
+                SymbolInfo other = (irq.getArg1() == value) ? irq.getArg2() : irq.getArg1();
+                // the factor has to have the same value before the call
+                if (values.contains(other) || _objLayoutMgr.isInstanceVariable(other))
+                    return null;
+                factor.add(other);
+                value = irq.getResult();
+                values.add(value);
+                j++;
+            }
+            else
+                return null;
+        }
+        return null;
+    }
+
+    private boolean isProduct(IRQuadruple irq, SymbolInfo value)
+    {
+        return irq instanceof IRAssignment && irq.getOp().equals("*")
+            && (irq.getArg1() == value) != (irq.getArg2() == value);
+    }
+
+    private boolean isLocal(SymbolInfo sym)
+    {
+        return !_objLayoutMgr.isInstanceVariable(sym);
+    }
+
+    private void rewrite(Map<IRCall, SymbolInfo> sites)
+    {
+        List<IRQuadruple> result = new ArrayList<IRQuadruple>(_statements.size());
+        result.add(_statements.get(0));
+        if (_accumulator != null)
+            result.add(new IRCopy(new ConstantSymbol("1", new IntegerType()), _accumulator));
+        if (!_selfCalls.isEmpty() && !hasLabel(_header))
+            result.add(new IRLabel(_header));
+
+        for (int i = 1; i < _statements.size(); i++)
+        {
+            IRQuadruple irq = _statements.get(i);
+            if (irq instanceof IRCall && sites.containsKey(irq))
+            {
+                IRCall call = (IRCall)irq;
+                if (_selfCalls.contains(call))
+                    addJumpToHeader(result, call, sites.get(call));
+                else
+                {
+                    IRCall tail = new IRCall((MethodSymbol)call.getArg1(), call.getParamCount(), call.getResult());
+                    tail.setTail(true);
+                    result.add(tail);
+                    if (!(_statements.get(i + 1) instanceof IRReturn) || _statements.get(i + 1).getArg1() != call.getResult())
+                        result.add(new IRReturn(call.getResult()));
+                    _marked++;
+                }
+            }
+            else if (irq instanceof IRReturn && _accumulator != null)
+            {
+                VariableSymbol product = _temporaries.newTemporary(new IntegerType());
+                result.add(new IRAssignment("*", _accumulator, irq.getArg1(), product));
+                result.add(new IRReturn(product));
+            }
+            else
+                result.add(irq);
+        }
+        _statements = result;
+    }
+
+    // replace a self call (and its params, at the end of statements) with
+    // copies into the formals and a jump back to the header
+    private void addJumpToHeader(List<IRQuadruple> statements, IRCall call, SymbolInfo factor)
+    {
+        int params = call.getParamCount();
+        List<SymbolInfo> args = new ArrayList<SymbolInfo>();
+        for (IRQuadruple param : statements.subList(statements.size() - params, statements.size()))
+            args.add(param.getArg1());
+        statements.subList(statements.size() - params, statements.size()).clear();
+
+        List<VariableSymbol> targets = new ArrayList<VariableSymbol>();
+        targets.add(_method.getVariable("this"));
+        targets.addAll(_method.getFormalSymbols());
+
+        // every argument is evaluated before any formal changes
+        List<SymbolInfo> values = new ArrayList<SymbolInfo>();
+        for (int p = 0; p < params; p++)
+        {
+            SymbolInfo arg = args.get(p);
+            if (arg == targets.get(p) || arg instanceof ConstantSymbol)
+                values.add(arg);
+            else
+            {
+                VariableSymbol temp = _temporaries.newTemporary(targets.get(p).getType());
+                statements.add(new IRCopy(arg, temp));
+                values.add(temp);
+            }
+        }
+        if (factor != null)
+        {
+            statements.add(new IRAssignment("*", _accumulator, factor, _accumulator));
+            _accumulated++;
+        }
+        else
+            _eliminated++;
+
+        for (int p = 0; p < params; p++)
+        {
+            if (values.get(p) != targets.get(p))
+                statements.add(new IRCopy(values.get(p), targets.get(p)));
+        }
+        statements.add(new IRUncondJump(_header));
+    }
+
+    private boolean hasLabel(String label)
+    {
+        for (IRQuadruple irq : _statements)
+        {
+            if (irq instanceof IRLabel && ((IRLabel)irq).getLabel().equals(label))
+                return true;
+        }
+        return false;
+    }
+}
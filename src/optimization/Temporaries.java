@@ -0,0 +1,17 @@
+package optimization;
+
+import symboltable.*;
+import syntaxtree.Type;
+
+// Hands out fresh temporaries for passes that introduce new variables.
+// IR generation names its temporaries _$t0, _$t1, ..., so ours use a
+// different prefix and can never collide with them.
+public class Temporaries
+{
+    private int _count = 0;
+
+    public VariableSymbol newTemporary(Type type)
+    {
+        return new VariableSymbol("_$o" + _count++, type);
+    }
+}
@@ -0,0 +1,56 @@
+package optimization;
+
+import java.util.*;
+
+import irgeneration.*;
+import symboltable.*;
+
+// The statements that mention each variable in a list of statements (as an
+// argument or as the result), and how many of them define it. Variables are
+// compared by identity, like IRQuadruple.isDefOf and isUsageOf do.
+class VariableOccurrences
+{
+    private Map<SymbolInfo, List<IRQuadruple>> _mentions;
+    private Map<SymbolInfo, Integer> _definitions;
+
+    VariableOccurrences(List<IRQuadruple> statements)
+    {
+        _mentions = new IdentityHashMap<SymbolInfo, List<IRQuadruple>>();
+        _definitions = new IdentityHashMap<SymbolInfo, Integer>();
+        for (IRQuadruple irq : statements)
+        {
+            mention(irq.getArg1(), irq);
+            mention(irq.getArg2(), irq);
+            mention(irq.getResult(), irq);
+            if (irq.getResult() != null && irq.isDefOf(irq.getResult()))
+                _definitions.put(irq.getResult(), getDefinitionCount(irq.getResult()) + 1);
+        }
+    }
+
+    int getDefinitionCount(SymbolInfo sym)
+    {
+        Integer count = _definitions.get(sym);
+        return (count == null) ? 0 : count;
+    }
+
+    List<IRQuadruple> getMentions(SymbolInfo sym)
+    {
+        List<IRQuadruple> mentions = _mentions.get(sym);
+        return (mentions == null) ? Collections.<IRQuadruple>emptyList() : mentions;
+    }
+
+    private void mention(SymbolInfo sym, IRQuadruple irq)
+    {
+        if (sym == null || sym instanceof ConstantSymbol)
+            return;
+        List<IRQuadruple> mentions = _mentions.get(sym);
+        if (mentions == null)
+        {
+            mentions = new ArrayList<IRQuadruple>();
+            _mentions.put(sym, mentions);
+        }
+        // a statement can mention the same variable twice
+        if (mentions.isEmpty() || mentions.get(mentions.size() - 1) != irq)
+            mentions.add(irq);
+    }
+}
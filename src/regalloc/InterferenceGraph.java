@@ -4,7 +4,10 @@ import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Collection;
+import java.util.List;
 
 import symboltable.*;
 import controlflow.*;
@@ -25,79 +28,68 @@ public class InterferenceGraph {
     _liveRanges = la;
     _cfg = cfg;
     _objLayoutManager = objlm;
-    _graph = new HashMap<SymbolInfo, InterferenceGraphNode>();
+    _graph = new LinkedHashMap<SymbolInfo, InterferenceGraphNode>();
 
     buildInterferenceGraph();
   }
 
-  // build the interference graph
+  // build the interference graph, Chaitin-style: every variable written by
+  // a statement interferes with the variables live right after the write.
   private void buildInterferenceGraph()
   {
-    Set<BasicBlock> cfgBlocks = _cfg.getAllBlocks();
+    List<BasicBlock> cfgBlocks = _cfg.getAllBlocks();
     for(BasicBlock block : cfgBlocks)
     {
-      for(IRQuadruple statement : block.getStatements())
+      List<IRQuadruple> statements = block.getStatements();
+      List<Set<SymbolInfo>> liveSets = _liveRanges.getLiveSetsWithin(block);
+      for(int i = 0; i < statements.size(); i++)
       {
+        IRQuadruple statement = statements.get(i);
+        Set<SymbolInfo> liveBefore = liveSets.get(i);
+        Set<SymbolInfo> liveAfter = liveSets.get(i + 1);
+
         if(statement instanceof IRLabel)
-          processLabel((IRLabel)statement);
+          processLabel((IRLabel)statement, liveAfter);
         if(statement instanceof IRCopy)
           processCopyStatement((IRCopy)statement);
-      }
-      // process live in and live out sets, build interference graph
-      processLiveIn(block);
-      processLiveOut(block);
-    }
-  }
 
-  // HACK: make this interfere with everything in a method
-  private void patchThisLiveness(){
-    if(_currentMethod != null)
-    {
-      InterferenceGraphNode thisNode = _graph.get(_currentMethod.getVariable("this"));
-      for(InterferenceGraphNode nodeA : getNodes())
-      {
-        if(!nodeA.equals(thisNode))
+        // instance variables are loaded into their registers right before the
+        // statement, while everything it reads is still needed.
+        for(SymbolInfo use : CFGDefsAndUses.getStatementUsages(statement, _objLayoutManager))
         {
-          addInterferenceEdge(nodeA, thisNode);
+          getOrCreateNode(use);
+          if(_objLayoutManager.isInstanceVariable(use))
+            interfereWithLiveSet(use, liveBefore, null);
         }
-      }
-    }
-  }
 
-  // HACK: instance vars will now also interfere with everything
-  private void patchInstanceVariables()
-  {
-    for(InterferenceGraphNode nodeA : getNodes())
-    {
-      if(_objLayoutManager.isInstanceVariable(nodeA.getSymbol()))
-      {
-        interfereWithEverything(nodeA);
+        // the result is written last, so it only conflicts with what's live
+        // after the statement. a copy's source can share its register, though.
+        SymbolInfo copySource = (statement instanceof IRCopy) ? statement.getArg1() : null;
+        for(SymbolInfo def : CFGDefsAndUses.getStatementDefinitions(statement, _objLayoutManager))
+          interfereWithLiveSet(def, liveAfter, copySource);
       }
     }
   }
 
-  private void interfereWithEverything(InterferenceGraphNode nodeA)
+  // 'this', the formals and anything live into the method (e.g. uninitialized
+  // locals) all get their values at the method's label, so they interfere with
+  // each other.
+  private void processLabel(IRLabel statement, Set<SymbolInfo> liveAfter)
   {
-    for(InterferenceGraphNode nodeB : getNodes())
-    {
-      if(!nodeB.equals(nodeA))
-        addInterferenceEdge(nodeA, nodeB);
-    }
-  }
+    if(!statement.isMethod())
+      return;
 
-  // create a 'this' node for the current method (NOT main)
-  private void processLabel(IRLabel statement)
-  {
-    if(statement.isMethod() && statement.getMethod().getName() != "main")
+    Set<SymbolInfo> entryValues = new LinkedHashSet<SymbolInfo>();
+    if(statement.getMethod().getName() != "main")
     {
       _currentMethod = statement.getMethod();
-      SymbolInfo thisVar = statement.getMethod().getVariable("this");
-      InterferenceGraphNode thisNode = getOrCreateNode(thisVar);
-      for(SymbolInfo formal : _currentMethod.getFormalSymbols())
-        getOrCreateNode(formal);
-      //for(SymbolInfo local : _currentMethod.getLocalSymbols())
-        //getOrCreateNode(local);
+      entryValues.add(_currentMethod.getVariable("this"));
+      entryValues.addAll(_currentMethod.getFormalSymbols());
     }
+    entryValues.addAll(liveAfter);
+
+    for(SymbolInfo value : entryValues)
+      interfereWithLiveSet(value, entryValues, null);
   }
 
   private void processCopyStatement(IRCopy statement)
@@ -105,42 +97,23 @@ public class InterferenceGraph {
     SymbolInfo result = statement.getResult();
     SymbolInfo arg1 = statement.getArg1();
     InterferenceGraphNode resultNode = getOrCreateNode(result);
-    if(arg1 instanceof ConstantSymbol)
+    if(arg1 instanceof ConstantSymbol || arg1.equals(result))
     {
-      // nothing for now?
+      // nothing for now? (and coalescing a node with itself would drop it)
     } else {
       InterferenceGraphNode argNode = getOrCreateNode(arg1);
       addMoveEdge(resultNode, argNode);
     }
   }
 
-  // process the live-in set
-  private void processLiveIn(BasicBlock block)
-  {
-    processLiveSet(_liveRanges.getLiveIn(block));
-  }
-
-  // process the live-out set
-  private void processLiveOut(BasicBlock block)
+  // make sym interfere with everything in liveSet, except itself and exclude
+  private void interfereWithLiveSet(SymbolInfo sym, Set<SymbolInfo> liveSet, SymbolInfo exclude)
   {
-    processLiveSet(_liveRanges.getLiveOut(block));
-  }
-
-  // process a live set, using combinations of values to create interferences
-  private void processLiveSet(Set<SymbolInfo> liveSet)
-  {
-    SymbolInfo[] liveArray = liveSet.toArray(new SymbolInfo[0]);
-    if(liveArray.length == 1)
-      getOrCreateNode(liveArray[0]);
-
-    for(int i = 0; i < liveArray.length - 1; i++)
+    InterferenceGraphNode node = getOrCreateNode(sym);
+    for(SymbolInfo live : liveSet)
     {
-      InterferenceGraphNode nodeA = getOrCreateNode(liveArray[i]); // create new node
-      for(int j = i+1; j < liveArray.length; j++)
-      {
-        InterferenceGraphNode nodeB = getOrCreateNode(liveArray[j]);
-        addInterferenceEdge(nodeA, nodeB);
-      }
+      if(!live.equals(sym) && !live.equals(exclude))
+        addInterferenceEdge(node, getOrCreateNode(live));
     }
   }
 
@@ -256,7 +229,7 @@ public class InterferenceGraph {
 
   public void freezeNode(InterferenceGraphNode nodeA)
   {
-    Set<InterferenceGraphNode> aMoves = new HashSet<InterferenceGraphNode>(nodeA.getMoveInterferences());
+    Set<InterferenceGraphNode> aMoves = new LinkedHashSet<InterferenceGraphNode>(nodeA.getMoveInterferences());
     for(InterferenceGraphNode nodeB : aMoves)
     {
       addInterferenceEdge(nodeA, nodeB);  // the move interference is now a real interference
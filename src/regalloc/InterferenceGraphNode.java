@@ -4,6 +4,7 @@ import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Collection;
 
 import symboltable.*;
@@ -23,9 +24,9 @@ public class InterferenceGraphNode {
   public InterferenceGraphNode(SymbolInfo symbol)
   {
     _symbol = symbol;
-    _interferences = new HashSet<InterferenceGraphNode>();
-    _moveInterferences = new HashSet<InterferenceGraphNode>();
-    _coalescedNodes = new HashSet<InterferenceGraphNode>();
+    _interferences = new LinkedHashSet<InterferenceGraphNode>();
+    _moveInterferences = new LinkedHashSet<InterferenceGraphNode>();
+    _coalescedNodes = new LinkedHashSet<InterferenceGraphNode>();
     _moveRelated = false;
     _spilled = false;
     _color = -1;
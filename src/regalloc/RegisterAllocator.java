@@ -4,6 +4,7 @@ import java.util.Stack;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 
 import symboltable.*;
@@ -20,7 +21,7 @@ public class RegisterAllocator {
   public RegisterAllocator(InterferenceGraph graph, int numRegs)
   {
     _nodeStack = new Stack<InterferenceGraphNode>();
-    _colors = new HashMap<SymbolInfo, Integer>();
+    _colors = new LinkedHashMap<SymbolInfo, Integer>();
     _spills = new HashSet<SymbolInfo>();
     _graph = graph;
     _numRegisters = numRegs;
@@ -52,10 +53,7 @@ private void colorize()
   select();
   int spills = tryToColorPotentialSpills();
   if(spills != 0)
-  {
-    System.out.println("An actual SPILL occurred, unable to continue.");
-    System.exit(0);
-  }
+    throw new RegisterSpillException();
 }
 
   private void spill()
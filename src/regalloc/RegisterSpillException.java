@@ -0,0 +1,13 @@
+package regalloc;
+
+// Thrown when the allocator cannot color the interference graph, since
+// we don't generate spill code.
+public class RegisterSpillException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    public RegisterSpillException()
+    {
+        super("An actual SPILL occurred, unable to continue.");
+    }
+}
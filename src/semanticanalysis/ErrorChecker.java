@@ -16,6 +16,13 @@ public abstract class ErrorChecker
         return !_errors.isEmpty();
     }
 
+    // Appends other's errors to ours, for merging checkers that each looked at
+    // a different part of the program.
+    public void addErrors(ErrorChecker other)
+    {
+        _errors.addAll(other.getErrors());
+    }
+
     protected void addError(String error, int line, int column)
     {
         _errors.add(formatError(error, line, column));
@@ -0,0 +1,102 @@
+package semanticanalysis;
+
+import symboltable.*;
+import syntaxtree.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Runs name analysis and type checking on each class declaration concurrently.
+// The symbol table is only read at this point, and every task walks it with its
+// own ScopeCursor. Errors are merged back in source order, so the result is the
+// same as running NameAnalysisVisitor and TypeCheckVisitor over the whole program.
+public class ParallelSemanticAnalysis
+{
+    private SymbolTable _symbolTable;
+    private int _parallelism;
+
+    private NameAnalysisVisitor _nameAnalysis;
+    private TypeCheckVisitor _typeChecker;
+
+    public ParallelSemanticAnalysis(SymbolTable symbolTable, int parallelism)
+    {
+        _symbolTable = symbolTable;
+        _parallelism = parallelism;
+
+        // these only collect the merged errors
+        _nameAnalysis = new NameAnalysisVisitor(symbolTable);
+        _typeChecker = new TypeCheckVisitor(symbolTable);
+    }
+
+    public ErrorChecker getNameAnalysis()
+    {
+        return _nameAnalysis;
+    }
+
+    public ErrorChecker getTypeChecker()
+    {
+        return _typeChecker;
+    }
+
+    public void visit(Program n)
+    {
+        List<ClassCheckTask> tasks = new ArrayList<ClassCheckTask>();
+        tasks.add(new ClassCheckTask(n.m));
+        for (int i = 0; i < n.cl.size(); ++i)
+            tasks.add(new ClassCheckTask(n.cl.elementAt(i)));
+
+        ForkJoinPool pool = new ForkJoinPool(_parallelism);
+        try
+        {
+            List<ForkJoinTask<Void>> running = new ArrayList<ForkJoinTask<Void>>();
+            for (ClassCheckTask task : tasks)
+                running.add(pool.submit(task));
+
+            for (ForkJoinTask<Void> task : running)
+                task.join();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        // name analysis errors come before type errors, as in the sequential checkers
+        for (ClassCheckTask task : tasks)
+            _nameAnalysis.addErrors(task._nameAnalysis);
+        for (ClassCheckTask task : tasks)
+            _typeChecker.addErrors(task._typeChecker);
+    }
+
+    // checks a single class (or the main class)
+    private class ClassCheckTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private ASTNode _classDecl;
+        private NameAnalysisVisitor _nameAnalysis;
+        private TypeCheckVisitor _typeChecker;
+
+        public ClassCheckTask(ASTNode classDecl)
+        {
+            _classDecl = classDecl;
+            _nameAnalysis = new NameAnalysisVisitor(_symbolTable.createCursor());
+            _typeChecker = new TypeCheckVisitor(_symbolTable.createCursor());
+        }
+
+        protected void compute()
+        {
+            if (_classDecl instanceof MainClass)
+            {
+                _nameAnalysis.visit((MainClass)_classDecl);
+                _typeChecker.visit((MainClass)_classDecl);
+            }
+            else
+            {
+                ((ClassDecl)_classDecl).accept(_nameAnalysis);
+                ((ClassDecl)_classDecl).accept(_typeChecker);
+            }
+        }
+    }
+}
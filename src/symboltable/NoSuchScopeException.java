@@ -2,6 +2,8 @@ package symboltable;
 
 public class NoSuchScopeException extends RuntimeException
 {
+    private static final long serialVersionUID = 1L;
+
     public NoSuchScopeException(String id)
     {
         super("No scope exists for " + id);
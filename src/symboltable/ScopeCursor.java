@@ -0,0 +1,118 @@
+package symboltable;
+
+import java.util.*;
+
+// A position (current class and method) within a SymbolTable. Lookups through
+// a cursor only read the table, so once the table is built several cursors can
+// walk it concurrently.
+public class ScopeCursor implements ISymbolTable
+{
+    private SymbolTable _symbolTable;
+
+    private ClassSymbol _currentClass = null;
+    private MethodSymbol _currentMethod = null;
+
+    public ScopeCursor(SymbolTable symbolTable)
+    {
+        _symbolTable = symbolTable;
+    }
+
+    public Collection<ClassSymbol> getClasses()
+    {
+        return _symbolTable.getClasses();
+    }
+
+    public void enterClass(String id)
+    {
+        if (_currentClass != null || _currentMethod != null)
+            throw new IllegalStateException("cannot enter class scope while in another class/method scope");
+
+        ClassSymbol classInfo = _symbolTable.getClass(id);
+        if (classInfo == null)
+            throw new NoSuchScopeException(id);
+
+        _currentClass = classInfo;
+    }
+
+    public void enterMethod(String id)
+    {
+        if (_currentClass == null)
+            throw new IllegalStateException("cannot enter method scope while not in a class scope");
+
+        MethodSymbol method = _currentClass.getMethod(id);
+        if (method == null)
+            throw new NoSuchScopeException(id);
+
+        _currentMethod = method;
+    }
+
+    public void exitMethod()
+    {
+        if (_currentMethod == null)
+            throw new IllegalStateException("cannot exit from method while not in a method`");
+
+        _currentMethod = null;
+    }
+
+    public void exitClass()
+    {
+        if (_currentClass == null)
+            throw new IllegalStateException("cannot exit from class while not in a class");
+
+        _currentClass = null;
+    }
+
+    public SymbolInfo getSymbol(String id)
+    {
+        // Check if the current method has a binding for the id
+        if (_currentMethod != null)
+        {
+            VariableSymbol symbol = _currentMethod.getVariable(id);
+            if (symbol != null)
+                return symbol;
+        }
+
+        if (_currentClass != null)
+        {
+            // Navigate the inheritance hierarchy to see if the binding
+            // exists somewhere in current or parent classes.
+            ClassSymbol currentClass = _currentClass;
+            while (currentClass != null)
+            {
+                SymbolInfo symbol = _currentClass.getSymbol(id);
+                if (symbol != null)
+                    return symbol;
+
+                currentClass = _symbolTable.getClass(currentClass.getParentName());
+            }
+        }
+
+        // Finally, check if the id corresponds to a class.
+        return getClass(id);
+    }
+
+    public boolean hasSymbol(String id)
+    {
+        return getSymbol(id) != null;
+    }
+
+    public ClassSymbol getClass(String id)
+    {
+        return _symbolTable.getClass(id);
+    }
+
+    public boolean hasClass(String id)
+    {
+        return getClass(id) != null;
+    }
+
+    public ClassSymbol getCurrentClass()
+    {
+        return _currentClass;
+    }
+
+    public MethodSymbol getCurrentMethod()
+    {
+        return _currentMethod;
+    }
+}
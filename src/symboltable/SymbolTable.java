@@ -8,81 +8,44 @@ public class SymbolTable implements ISymbolTable
 {
     private Map<String, ClassSymbol> _classes = new HashMap<String, ClassSymbol>();
 
-    private ClassSymbol _currentClass = null;
-    private MethodSymbol _currentMethod = null;
+    // the table's own position, used while building the table and generating IR
+    private ScopeCursor _cursor = new ScopeCursor(this);
 
     public Collection<ClassSymbol> getClasses()
     {
         return _classes.values();
     }
 
-    public void enterClass(String id)
+    // Creates an independent cursor over this table, so the table can be
+    // walked by several visitors at once without sharing current scopes.
+    public ScopeCursor createCursor()
     {
-        if (_currentClass != null || _currentMethod != null)
-            throw new IllegalStateException("cannot enter class scope while in another class/method scope");
-
-        ClassSymbol classInfo = _classes.get(id);
-        if (classInfo == null)
-            throw new NoSuchScopeException(id);
+        return new ScopeCursor(this);
+    }
 
-        _currentClass = classInfo;
+    public void enterClass(String id)
+    {
+        _cursor.enterClass(id);
     }
 
     public void enterMethod(String id)
     {
-        if (_currentClass == null)
-            throw new IllegalStateException("cannot enter method scope while not in a class scope");
-
-        MethodSymbol method = _currentClass.getMethod(id);
-        if (method == null)
-            throw new NoSuchScopeException(id);
-
-        _currentMethod = method;
+        _cursor.enterMethod(id);
     }
 
     public void exitMethod()
     {
-        if (_currentMethod == null)
-            throw new IllegalStateException("cannot exit from method while not in a method`");
-
-        _currentMethod = null;
+        _cursor.exitMethod();
     }
 
     public void exitClass()
     {
-        if (_currentClass == null)
-            throw new IllegalStateException("cannot exit from class while not in a class");
-
-        _currentClass = null;
+        _cursor.exitClass();
     }
 
     public SymbolInfo getSymbol(String id)
     {
-        // Check if the current method has a binding for the id
-        if (_currentMethod != null)
-        {
-            VariableSymbol symbol = _currentMethod.getVariable(id);
-            if (symbol != null)
-                return symbol;
-        }
-
-        if (_currentClass != null)
-        {
-            // Navigate the inheritance hierarchy to see if the binding
-            // exists somewhere in current or parent classes.
-            ClassSymbol currentClass = _currentClass;
-            while (currentClass != null)
-            {
-                SymbolInfo symbol = _currentClass.getSymbol(id);
-                if (symbol != null)
-                    return symbol;
-
-                currentClass = _classes.get(currentClass.getParentName());
-            }
-        }
-
-        // Finally, check if the id corresponds to a class.
-        return getClass(id);
+        return _cursor.getSymbol(id);
     }
 
     public boolean hasSymbol(String id)
@@ -90,7 +53,6 @@ public class SymbolTable implements ISymbolTable
         return getSymbol(id) != null;
     }
 
-
     public ClassSymbol getClass(String id)
     {
         return _classes.get(id);
@@ -103,12 +65,12 @@ public class SymbolTable implements ISymbolTable
 
     public ClassSymbol getCurrentClass()
     {
-        return _currentClass;
+        return _cursor.getCurrentClass();
     }
 
     public MethodSymbol getCurrentMethod()
     {
-        return _currentMethod;
+        return _cursor.getCurrentMethod();
     }
 
     // Add a binding for a class
@@ -122,21 +84,24 @@ public class SymbolTable implements ISymbolTable
     // Add a binding for a method to the current class
     public MethodSymbol addMethod(MethodSymbol symbol)
     {
-        if (_currentClass == null)
+        ClassSymbol currentClass = getCurrentClass();
+        if (currentClass == null)
             throw new IllegalStateException("cannot add method outside of a class");
 
-        return _currentClass.addMethod(symbol);
+        return currentClass.addMethod(symbol);
     }
 
     // Add a binding for a variable to either the current method (if it exists) or the current
     // class.
     public VariableSymbol addVariable(VariableSymbol symbol)
     {
-        if (_currentMethod != null)
-            return _currentMethod.addLocal(symbol);
+        MethodSymbol currentMethod = getCurrentMethod();
+        if (currentMethod != null)
+            return currentMethod.addLocal(symbol);
 
-        if (_currentClass != null)
-            return _currentClass.addVariable(symbol);
+        ClassSymbol currentClass = getCurrentClass();
+        if (currentClass != null)
+            return currentClass.addVariable(symbol);
 
         throw new IllegalStateException("cannot add variable outside of class and method scopes");
     }
@@ -2,6 +2,8 @@ package symboltable;
 
 public class UnknownSymbolException extends Exception 
 {
+    private static final long serialVersionUID = 1L;
+
     public UnknownSymbolException(String id)
     {
         super("unknown symbol " + id);
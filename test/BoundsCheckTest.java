@@ -0,0 +1,52 @@
+class BoundsCheckTest
+{
+    public static void main(String[] args)
+    {
+        // should print 15, 15, then with -safe stop with "error: array index
+        // out of bounds". without -safe the last store writes past the end,
+        // and 0 is printed.
+        System.out.println(new Checked().Start(5));
+    }
+}
+class Checked
+{
+    int[] data;
+
+    public int Start(int n)
+    {
+        int i;
+        int v;
+        int sum;
+        int[] a;
+        a = new int[n];
+        data = a;
+        i = 0;
+        while (i < n)
+        {
+            a[i] = i + 1;
+            i = i + 1;
+        }
+        // these indexes are always in bounds
+        sum = 0;
+        i = 0;
+        while (i < a.length)
+        {
+            v = a[i];
+            sum = sum + v;
+            i = i + 1;
+        }
+        System.out.println(sum);
+        sum = 0;
+        i = n - 1;
+        while (0 - 1 < i)
+        {
+            v = a[i];
+            sum = sum + v;
+            i = i - 1;
+        }
+        System.out.println(sum);
+        // one past the end, through the field
+        data[n] = 99;
+        return 0;
+    }
+}
@@ -0,0 +1,47 @@
+class BranchFoldTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Brancher().Start(2)); // should print 63
+    }
+}
+class Brancher
+{
+    public int Start(int n)
+    {
+        int r;
+        boolean t;
+        t = true;
+        r = 0;
+        // branches on constants, empty branches and a loop that never runs
+        if (t)
+            r = 1;
+        else
+            r = 2;
+        if (!t)
+        {
+            r = r + 100;
+        }
+        else
+        {
+        }
+        if (n < 3)
+        {
+            if (n < 1)
+                r = r + 10;
+            else
+                r = r + 20;
+        }
+        else
+            r = r + 30;
+        while (false)
+        {
+            r = r + 1000;
+        }
+        if (t && n < 5)
+            r = r * 3;
+        else
+            r = r - 1;
+        return r;
+    }
+}
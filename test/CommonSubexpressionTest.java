@@ -0,0 +1,42 @@
+class CommonSubexpressionTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Repeater().Start(5, 6)); // should print 62, 15, 62, then 3
+    }
+}
+class Repeater
+{
+    int f;
+
+    public int Start(int x, int y)
+    {
+        int a;
+        int b;
+        int c;
+        int d;
+        int[] arr;
+        a = x * y + 1;
+        // the same value as a, in a block a dominates
+        if (x < y)
+            b = x * y + 1;
+        else
+            b = 0;
+        f = 2;
+        c = f + x;
+        // the call changes f, so f + x has to be computed again
+        d = this.Bump();
+        c = c + (f + x);
+        arr = new int[a];
+        System.out.println(a + b);
+        System.out.println(c);
+        System.out.println(arr.length + arr.length);
+        return d;
+    }
+
+    public int Bump()
+    {
+        f = f + 1;
+        return f;
+    }
+}
@@ -0,0 +1,55 @@
+class ConstantArgumentTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Scaled().Start(4)); // should print 45, 14, 9, then 300
+    }
+}
+class Scaled
+{
+    public int Start(int n)
+    {
+        int a;
+        int b;
+        int i;
+        // k is 3 at every call
+        a = this.Times(n, 3) + this.Times(n + 1, 3);
+        // calls from a loop, with flag true at one and false at the other
+        b = 0;
+        i = 0;
+        while (i < n)
+        {
+            b = b + this.Pick(true, i) + this.Pick(false, i);
+            i = i + 1;
+        }
+        System.out.println(a);
+        System.out.println(b);
+        // and here it isn't known
+        System.out.println(this.Pick(n < 2, 10));
+        return this.Limit(100);
+    }
+
+    public int Times(int x, int k)
+    {
+        return x * k + k * k;
+    }
+
+    public int Pick(boolean flag, int x)
+    {
+        int r;
+        if (flag)
+            r = x * 2;
+        else
+            r = x - 1;
+        return r;
+    }
+
+    public int Limit(int k)
+    {
+        int i;
+        i = 0;
+        while (i < k)
+            i = i + 1;
+        return i + k * 2;
+    }
+}
@@ -0,0 +1,39 @@
+class ConstantBranchTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Folder().Start(7)); // should print 12, 7, 15, then 29
+    }
+}
+class Folder
+{
+    public int Start(int n)
+    {
+        int a;
+        int b;
+        int c;
+        int i;
+        a = 3;
+        // the else branch is never taken, so b is the constant 12
+        if (a < 5)
+            b = a * 4;
+        else
+            b = n;
+        c = 0;
+        i = 0;
+        while (i < n)
+        {
+            if (b < 10)
+                c = c + n;
+            else
+                c = c + 1;
+            // a is still 3 around the loop
+            a = 3;
+            i = i + 1;
+        }
+        System.out.println(b);
+        System.out.println(c);
+        System.out.println(a + b);
+        return a * b - c;
+    }
+}
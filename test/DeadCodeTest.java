@@ -0,0 +1,39 @@
+class DeadCodeTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Sweeper().Start(3)); // should print 30, then 4
+    }
+}
+class Sweeper
+{
+    int kept;
+
+    public int Start(int n)
+    {
+        int unused;
+        int i;
+        int j;
+        int[] scratch;
+        // never read, so none of this has to run
+        unused = n * 7 + 2;
+        scratch = new int[n];
+        i = 0;
+        j = 0;
+        while (i < n)
+        {
+            j = j + i * 3;
+            i = i + 1;
+        }
+        // but a field store and a call that prints have to stay
+        kept = n + 1;
+        unused = this.Noisy(n);
+        return kept;
+    }
+
+    public int Noisy(int x)
+    {
+        System.out.println(x * 10);
+        return x;
+    }
+}
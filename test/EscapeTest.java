@@ -0,0 +1,87 @@
+class EscapeTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Maker().Start(3)); // should print 28, then 1
+    }
+}
+class Maker
+{
+    Point kept;
+
+    public int Start(int n)
+    {
+        Point p;
+        Point q;
+        Point r;
+        int[] a;
+        int[] b;
+        int i;
+        int v;
+        int sum;
+        // never leaves this method
+        p = new Point();
+        sum = p.Set(n, 4);
+        // escapes into a field, and through a return
+        q = new Point();
+        kept = q;
+        sum = sum + q.Set(1, 1);
+        r = this.Fresh(5);
+        sum = sum + r.GetX() + kept.GetX();
+        // a new, zeroed array every time round the loop
+        i = 0;
+        while (i < n)
+        {
+            a = new int[2];
+            a[0] = a[0] + i;
+            a[1] = a[1] + 1;
+            v = a[0];
+            sum = sum + v;
+            v = a[1];
+            sum = sum + v;
+            i = i + 1;
+        }
+        // escapes as an argument
+        b = new int[3];
+        b[1] = 7;
+        sum = sum + this.Second(b);
+        System.out.println(sum);
+        return kept.GetY();
+    }
+
+    public Point Fresh(int x)
+    {
+        Point p;
+        int ignored;
+        p = new Point();
+        ignored = p.Set(x, x);
+        return p;
+    }
+
+    public int Second(int[] values)
+    {
+        return values[1];
+    }
+}
+class Point
+{
+    int x;
+    int y;
+
+    public int Set(int a, int b)
+    {
+        x = a;
+        y = b;
+        return x + y;
+    }
+
+    public int GetX()
+    {
+        return x;
+    }
+
+    public int GetY()
+    {
+        return y;
+    }
+}
@@ -0,0 +1,55 @@
+class FieldFromArrayTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Holder().Start()); // should print 60, 12, 6, then 75
+    }
+}
+class Holder
+{
+    int last;
+    int[] values;
+
+    public int Start()
+    {
+        int i;
+        int total;
+        values = new int[4];
+        i = 0;
+        while (i < 4)
+        {
+            values[i] = 3 * (i + 1);
+            i = i + 1;
+        }
+        // every element passes through the field on its way into the total
+        total = 0;
+        i = 0;
+        while (i < 4)
+        {
+            last = values[i];
+            total = total + this.Twice();
+            i = i + 1;
+        }
+        System.out.println(total);
+        System.out.println(last);
+        System.out.println(this.Pick(1));
+        return total + this.Peek();
+    }
+
+    // the field is read by another method, after the copy
+    public int Twice()
+    {
+        return last + last;
+    }
+
+    public int Pick(int i)
+    {
+        last = values[i];
+        return last;
+    }
+
+    public int Peek()
+    {
+        return last + last + 3;
+    }
+}
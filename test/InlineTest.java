@@ -0,0 +1,61 @@
+class InlineTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Calls().Start(5)); // should print 30, 120, 60, then 30
+    }
+}
+class Calls
+{
+    int total;
+
+    public int Start(int n)
+    {
+        int i;
+        total = 0;
+        i = 0;
+        // small methods, one called inside another's arguments
+        while (i < n)
+        {
+            total = this.Add(total, this.Square(i));
+            i = i + 1;
+        }
+        System.out.println(total);
+        // recursive, so it can't be inlined into itself forever
+        System.out.println(this.Fact(5));
+        System.out.println(new Other().Twice(total));
+        return this.Get();
+    }
+
+    public int Add(int a, int b)
+    {
+        return a + b;
+    }
+
+    public int Square(int x)
+    {
+        return x * x;
+    }
+
+    public int Fact(int k)
+    {
+        int r;
+        if (k < 1)
+            r = 1;
+        else
+            r = k * this.Fact(k - 1);
+        return r;
+    }
+
+    public int Get()
+    {
+        return total;
+    }
+}
+class Other
+{
+    public int Twice(int x)
+    {
+        return x + x;
+    }
+}
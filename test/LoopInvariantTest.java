@@ -0,0 +1,65 @@
+class LoopInvariantTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Scaler().Start(4)); // should print 150, 18, 0, then 7
+    }
+}
+class Scaler
+{
+    int scale;
+    int[] data;
+
+    public int Start(int n)
+    {
+        int i;
+        int k;
+        int sum;
+        int big;
+        scale = 3;
+        data = new int[n];
+        // scale, data and n * 2 don't change in these loops
+        i = 0;
+        while (i < n)
+        {
+            data[i] = i * scale + n * 2;
+            i = i + 1;
+        }
+        sum = 0;
+        i = 0;
+        while (i < n)
+        {
+            k = data[i];
+            sum = sum + k * scale;
+            i = i + 1;
+        }
+        System.out.println(sum);
+        // the call changes scale, so it has to be loaded every time round
+        sum = 0;
+        i = 0;
+        while (i < n)
+        {
+            sum = sum + scale;
+            k = this.Grow();
+            i = i + 1;
+        }
+        System.out.println(sum);
+        // this loop never runs, so its overflowing add mustn't run either
+        big = 1073741824 + n;
+        sum = 0;
+        i = 0;
+        while (i < 0)
+        {
+            sum = big + big;
+            i = i + 1;
+        }
+        System.out.println(sum);
+        return scale;
+    }
+
+    public int Grow()
+    {
+        scale = scale + 1;
+        return scale;
+    }
+}
@@ -0,0 +1,22 @@
+class OverflowTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Adder().Start()); // should print 2147483647, then stop with an arithmetic overflow
+    }
+}
+class Adder
+{
+    // add traps on overflow, so folding these at compile time mustn't wrap
+    public int Start()
+    {
+        int big;
+        int product;
+        big = 2147483646 + 1;
+        System.out.println(big);
+        // mult doesn't trap, so this one wraps either way
+        product = 65536 * 65536;
+        big = big + 1 + product;
+        return big;
+    }
+}
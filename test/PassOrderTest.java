@@ -0,0 +1,60 @@
+class PassOrderTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Pipeline().Start(5)); // should print 235, 24, 40, then 59
+    }
+}
+class Pipeline
+{
+    int base;
+
+    public int Start(int n)
+    {
+        int i;
+        int a;
+        int b;
+        int c;
+        int t;
+        int x;
+        int sum;
+        base = 7;
+        // b repeats a, and c copies b, so the loop body only depends on the
+        // loop once gvn and copies have both run
+        a = n * 3;
+        b = n * 3;
+        c = b;
+        sum = 0;
+        i = 0;
+        while (i < n)
+        {
+            t = c + a;
+            x = n * 3 + i;
+            sum = sum + t + x;
+            i = i + 1;
+        }
+        System.out.println(sum);
+        // constants fold and propagate into the loop test and the step
+        t = 6;
+        x = t * 4;
+        i = 0;
+        while (i < x)
+        {
+            i = i + t;
+        }
+        System.out.println(i);
+        // the loop ends early, so its last round has to see the new statements
+        sum = 0;
+        i = 0;
+        while (i < n)
+        {
+            if (i < 4)
+                sum = sum + base + base - 4;
+            else
+                i = n;
+            i = i + 1;
+        }
+        System.out.println(sum);
+        return sum + base + a - 3;
+    }
+}
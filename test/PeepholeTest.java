@@ -0,0 +1,48 @@
+class PeepholeTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Tidy().Start()); // should print 100009, 32771, 20, then -32759
+    }
+}
+class Tidy
+{
+    int f;
+    int seed;
+    boolean flag;
+
+    public int Start()
+    {
+        int n;
+        int a;
+        int b;
+        boolean c;
+        // read from a field, so the optimizer can't fold everything away
+        seed = 9;
+        n = this.Seed();
+        a = n + 100000;
+        b = n - 5;
+        c = !(n < 3);
+        flag = !c;
+        f = a - 99990;
+        f = f + 1;
+        if (c && !flag)
+            b = b + 32767;
+        else
+            b = 0;
+        System.out.println(a);
+        System.out.println(b);
+        System.out.println(f);
+        return this.Lower(n);
+    }
+
+    public int Seed()
+    {
+        return seed;
+    }
+
+    public int Lower(int x)
+    {
+        return x - 32768;
+    }
+}
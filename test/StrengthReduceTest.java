@@ -0,0 +1,45 @@
+class StrengthReduceTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Walker().Start(6)); // should print 35, 1146, then -1
+    }
+}
+class Walker
+{
+    public int Start(int n)
+    {
+        int[] a;
+        int i;
+        int v;
+        int sum;
+        a = new int[n];
+        i = 0;
+        while (i < n)
+        {
+            a[i] = i * i;
+            i = i + 1;
+        }
+        // every other element
+        sum = 0;
+        i = 1;
+        while (i < n)
+        {
+            v = a[i];
+            sum = sum + v;
+            i = i + 2;
+        }
+        System.out.println(sum);
+        // backwards, and the index is still wanted after the loop
+        sum = 0;
+        i = n - 1;
+        while (0 < i + 1)
+        {
+            v = a[i];
+            sum = sum * 2 + v;
+            i = i - 1;
+        }
+        System.out.println(sum);
+        return i;
+    }
+}
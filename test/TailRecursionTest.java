@@ -0,0 +1,70 @@
+class TailRecursionTest
+{
+    public static void main(String[] args)
+    {
+        System.out.println(new Rec().Start(1000)); // should print 500500, 3628800, 243, then 1
+    }
+}
+class Rec
+{
+    public int Start(int n)
+    {
+        System.out.println(this.SumTo(n, 0));
+        System.out.println(this.Fact(10));
+        System.out.println(this.Pow(3, 5, 1));
+        return this.Even(10);
+    }
+
+    // a tail call with an accumulator
+    public int SumTo(int n, int acc)
+    {
+        int r;
+        if (n < 1)
+            r = acc;
+        else
+            r = this.SumTo(n - 1, acc + n);
+        return r;
+    }
+
+    // not a tail call, but the product can be accumulated
+    public int Fact(int n)
+    {
+        int r;
+        if (n < 1)
+            r = 1;
+        else
+            r = n * this.Fact(n - 1);
+        return r;
+    }
+
+    public int Pow(int b, int e, int acc)
+    {
+        int r;
+        if (e < 1)
+            r = acc;
+        else
+            r = this.Pow(b, e - 1, acc * b);
+        return r;
+    }
+
+    // tail calls between two methods
+    public int Even(int n)
+    {
+        int r;
+        if (n < 1)
+            r = 1;
+        else
+            r = this.Odd(n - 1);
+        return r;
+    }
+
+    public int Odd(int n)
+    {
+        int r;
+        if (n < 1)
+            r = 0;
+        else
+            r = this.Even(n - 1);
+        return r;
+    }
+}